@@ -0,0 +1,20 @@
+package cz.mendelu.ea.config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class AsyncConfig {
+
+    // deletes users with huge libraries one at a time, in the background
+    @Bean
+    public ThreadPoolTaskExecutor userDeletionExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setThreadNamePrefix("user-deletion-");
+        executor.setDaemon(true);
+        return executor;
+    }
+}
@@ -0,0 +1,15 @@
+package cz.mendelu.ea.domain.favorite;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class CreateFavoritesBatchRequest {
+    // items are validated one by one, so a single invalid item does not reject the whole batch
+    @NotEmpty(message = "Items are required")
+    @Size(max = 10000, message = "At most 10000 items can be created at once")
+    private List<CreateFavoriteRequest> items;
+}
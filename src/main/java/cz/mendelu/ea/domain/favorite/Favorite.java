@@ -16,8 +16,10 @@ import java.time.LocalDateTime;
 @Data
 public class Favorite {
 
+    // unique because only favorite_seq assigns it, the partitioned table's key is (id, created_at)
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "favorite_seq")
+    @SequenceGenerator(name = "favorite_seq", sequenceName = "favorite_seq", allocationSize = 50)
     private Long id;
 
     @ManyToOne
@@ -32,7 +34,9 @@ public class Favorite {
     @NotNull
     private Track track;
 
+    // partition key of the favorite table
     @NotNull
+    @Column(updatable = false)
     private LocalDateTime createdAt = LocalDateTime.now();
 
     @Min(1)
@@ -0,0 +1,24 @@
+package cz.mendelu.ea.domain.favorite;
+
+/**
+ * Outcome of one item of a batch favorites request.
+ *
+ * @param index position of the item in the request
+ * @param id    id of the created favorite, null when rejected
+ * @param error reason of the rejection, null when created
+ */
+public record FavoriteBatchItemResult(int index, Status status, Long id, String error) {
+
+    public enum Status {
+        CREATED,
+        REJECTED
+    }
+
+    public static FavoriteBatchItemResult created(int index, Long id) {
+        return new FavoriteBatchItemResult(index, Status.CREATED, id, null);
+    }
+
+    public static FavoriteBatchItemResult rejected(int index, String error) {
+        return new FavoriteBatchItemResult(index, Status.REJECTED, null, error);
+    }
+}
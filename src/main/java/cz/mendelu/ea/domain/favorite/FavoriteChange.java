@@ -0,0 +1,52 @@
+package cz.mendelu.ea.domain.favorite;
+
+import cz.mendelu.ea.domain.favorite.dto.FavoriteEntryDTO;
+
+/**
+ * Single write of a favorite, carried by {@link FavoritesChangedEvent}.
+ *
+ * @param favorite       state after the change, the removed favorite for deletes; plays only
+ *                       move {@code lastPlayed}
+ * @param previousRating rating before an update, null for creates and deletes
+ */
+public record FavoriteChange(Type type, FavoriteEntryDTO favorite, Integer previousRating) {
+
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED,
+        PLAYED
+    }
+
+    public static FavoriteChange created(Favorite favorite) {
+        return new FavoriteChange(Type.CREATED, FavoriteEntryDTO.of(favorite), null);
+    }
+
+    public static FavoriteChange updated(Favorite favorite, Integer previousRating) {
+        return new FavoriteChange(Type.UPDATED, FavoriteEntryDTO.of(favorite), previousRating);
+    }
+
+    public static FavoriteChange deleted(Favorite favorite) {
+        return new FavoriteChange(Type.DELETED, FavoriteEntryDTO.of(favorite), null);
+    }
+
+    public static FavoriteChange played(FavoriteEntryDTO favorite) {
+        return new FavoriteChange(Type.PLAYED, favorite, null);
+    }
+
+    public Long favoriteId() {
+        return favorite.id();
+    }
+
+    public Long userId() {
+        return favorite.userId();
+    }
+
+    public String trackId() {
+        return favorite.trackId();
+    }
+
+    public Integer rating() {
+        return favorite.rating();
+    }
+}
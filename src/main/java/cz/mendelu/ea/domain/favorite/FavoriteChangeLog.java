@@ -0,0 +1,109 @@
+package cz.mendelu.ea.domain.favorite;
+
+import cz.mendelu.ea.domain.favorite.FavoriteChangeRepository.VersionedChange;
+import cz.mendelu.ea.domain.favorite.dto.FavoriteEntryDTO;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Records favorite changes for delta sync of user libraries.
+ *
+ * Every change moves the version of its user forward and replaces the logged change of its
+ * favorite, in the transaction that writes the favorites, so a version is visible exactly when
+ * the change it stands for is. Tombstones of deleted favorites are pruned after the retention
+ * period; clients syncing from an older version are told to start over.
+ *
+ * Plays stay in the log because {@code lastPlayed} is part of the synced library, but a play is
+ * logged only when the logged {@code lastPlayed} of its favorite is older than the play
+ * granularity. Otherwise every flush of buffered plays would move the versions of all active
+ * users and their clients would keep fetching changes that only nudge a timestamp. Any other
+ * change of the favorite carries its current {@code lastPlayed} anyway.
+ */
+@Component
+@Slf4j
+public class FavoriteChangeLog {
+
+    private final FavoriteChangeRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final int tombstoneRetentionDays;
+    private final int playGranularityMinutes;
+
+    public FavoriteChangeLog(FavoriteChangeRepository repository, TransactionTemplate transactionTemplate,
+                             @Value("${favorites.sync.tombstone-retention-days:30}") int tombstoneRetentionDays,
+                             @Value("${favorites.sync.play-granularity-minutes:60}") int playGranularityMinutes) {
+        this.repository = repository;
+        this.transactionTemplate = transactionTemplate;
+        this.tombstoneRetentionDays = tombstoneRetentionDays;
+        this.playGranularityMinutes = playGranularityMinutes;
+    }
+
+    @EventListener
+    public void onFavoritesChanged(FavoritesChangedEvent event) {
+        // only the last change of a favorite is kept
+        Map<Long, FavoriteChange> latest = new LinkedHashMap<>();
+        Set<Long> notOnlyPlayed = new HashSet<>();
+        for (FavoriteChange change : event.changes()) {
+            latest.remove(change.favoriteId());
+            latest.put(change.favoriteId(), change);
+            if (change.type() != FavoriteChange.Type.PLAYED) {
+                notOnlyPlayed.add(change.favoriteId());
+            }
+        }
+        dropFrequentPlays(latest, notOnlyPlayed);
+        if (latest.isEmpty()) {
+            return;
+        }
+
+        // sorted by user id, so concurrent writers lock the version rows in the same order
+        Map<Long, Integer> countsByUserId = new TreeMap<>();
+        latest.values().forEach(change -> countsByUserId.merge(change.userId(), 1, Integer::sum));
+        Map<Long, Long> versions = repository.reserveVersions(countsByUserId);
+
+        Map<Long, Long> nextVersions = new HashMap<>();
+        countsByUserId.forEach((userId, count) -> nextVersions.put(userId, versions.get(userId) - count + 1));
+        List<VersionedChange> changes = new ArrayList<>(latest.size());
+        for (FavoriteChange change : latest.values()) {
+            changes.add(new VersionedChange(change, nextVersions.merge(change.userId(), 1L, Long::sum) - 1));
+        }
+        repository.record(changes);
+    }
+
+    private void dropFrequentPlays(Map<Long, FavoriteChange> latest, Set<Long> notOnlyPlayed) {
+        List<FavoriteEntryDTO> played = latest.values().stream()
+                .filter(change -> !notOnlyPlayed.contains(change.favoriteId()))
+                .map(FavoriteChange::favorite)
+                .toList();
+        if (played.isEmpty()) {
+            return;
+        }
+        Map<Long, LocalDateTime> loggedLastPlayed = repository.findLastPlayed(played);
+        for (FavoriteEntryDTO favorite : played) {
+            LocalDateTime logged = loggedLastPlayed.get(favorite.id());
+            if (logged != null && favorite.lastPlayed() != null
+                    && favorite.lastPlayed().isBefore(logged.plusMinutes(playGranularityMinutes))) {
+                latest.remove(favorite.id());
+            }
+        }
+    }
+
+    @Scheduled(cron = "${favorites.sync.prune-cron:0 0 4 * * *}")
+    public void pruneTombstones() {
+        LocalDateTime cutoff = LocalDateTime.now().minusDays(tombstoneRetentionDays);
+        int pruned = transactionTemplate.execute(status -> repository.pruneTombstones(cutoff));
+        log.info("Pruned {} favorite tombstones older than {}", pruned, cutoff);
+    }
+}
@@ -0,0 +1,204 @@
+package cz.mendelu.ea.domain.favorite;
+
+import cz.mendelu.ea.domain.favorite.dto.FavoriteChangeDTO;
+import cz.mendelu.ea.domain.favorite.dto.FavoriteEntryDTO;
+import cz.mendelu.ea.utils.batch.ChunkedValues;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Per-user change versions and the compacted change log of favorites used for delta sync.
+ */
+@Repository
+public class FavoriteChangeRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FavoriteChangeRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Moves the version of every user forward by the given count. The version rows stay locked
+     * until the transaction ends, so versions of a user are committed in order.
+     *
+     * @param countsByUserId iterated in order, pass a sorted map to always lock in the same order
+     * @return the new version of every user
+     */
+    public Map<Long, Long> reserveVersions(Map<Long, Integer> countsByUserId) {
+        Map<Long, Long> versions = new HashMap<>();
+        ChunkedValues.forEachChunk(new ArrayList<>(countsByUserId.entrySet()), "(?, ?)",
+                (entry, args) -> {
+                    args.add(entry.getKey());
+                    args.add(entry.getValue());
+                },
+                (values, args) -> jdbcTemplate.query("""
+                        INSERT INTO favorite_sync (user_id, version)
+                        VALUES %s
+                        ON CONFLICT (user_id) DO UPDATE SET version = favorite_sync.version + EXCLUDED.version
+                        RETURNING user_id, version
+                        """.formatted(values),
+                        rs -> {
+                            versions.put(rs.getLong("user_id"), rs.getLong("version"));
+                        },
+                        args));
+        return versions;
+    }
+
+    /**
+     * Replaces the logged change of every favorite with the given one. Deletes leave a tombstone
+     * without the favorite's data. Each favorite may occur only once.
+     */
+    public void record(List<VersionedChange> changes) {
+        LocalDateTime now = LocalDateTime.now();
+        ChunkedValues.forEachChunk(changes, "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                (versioned, args) -> {
+                    FavoriteEntryDTO favorite = versioned.change().favorite();
+                    boolean deleted = versioned.change().type() == FavoriteChange.Type.DELETED;
+                    args.add(favorite.userId());
+                    args.add(favorite.id());
+                    args.add(versioned.version());
+                    args.add(deleted);
+                    args.add(deleted ? null : favorite.trackId());
+                    args.add(deleted ? null : favorite.rating());
+                    args.add(deleted ? null : favorite.comment());
+                    args.add(deleted ? null : favorite.isPublic());
+                    args.add(deleted ? null : favorite.createdAt());
+                    args.add(deleted ? null : favorite.lastPlayed());
+                    args.add(now);
+                },
+                (values, args) -> jdbcTemplate.update("""
+                        INSERT INTO favorite_change (user_id, favorite_id, version, deleted, track_id, rating, comment,
+                                                     is_public, created_at, last_played, changed_at)
+                        VALUES %s
+                        ON CONFLICT (user_id, favorite_id) DO UPDATE SET
+                            version = EXCLUDED.version,
+                            deleted = EXCLUDED.deleted,
+                            track_id = EXCLUDED.track_id,
+                            rating = EXCLUDED.rating,
+                            comment = EXCLUDED.comment,
+                            is_public = EXCLUDED.is_public,
+                            created_at = EXCLUDED.created_at,
+                            last_played = EXCLUDED.last_played,
+                            changed_at = EXCLUDED.changed_at
+                        """.formatted(values), args));
+    }
+
+    /**
+     * @return current version of the user and the highest version of pruned tombstones, zeros
+     *         for users without any change
+     */
+    public SyncState findState(Long userId) {
+        return jdbcTemplate.query("SELECT version, pruned_version FROM favorite_sync WHERE user_id = ?",
+                        (rs, rowNum) -> new SyncState(rs.getLong("version"), rs.getLong("pruned_version")), userId)
+                .stream().findFirst().orElse(new SyncState(0, 0));
+    }
+
+    /**
+     * @return up to {@code limit} changes newer than {@code since}, oldest first
+     */
+    public List<FavoriteChangeDTO> findSince(Long userId, long since, int limit) {
+        return jdbcTemplate.query("""
+                SELECT favorite_id, version, deleted, track_id, rating, comment, is_public, created_at, last_played
+                FROM favorite_change
+                WHERE user_id = ? AND version > ?
+                ORDER BY version
+                LIMIT ?
+                """, changeRowMapper(), userId, since, limit);
+    }
+
+    /**
+     * @return up to {@code limit} live favorites of the user, without tombstones, with versions
+     *         after {@code afterVersion} up to {@code upToVersion}, oldest first
+     */
+    public List<FavoriteChangeDTO> findLive(Long userId, long afterVersion, long upToVersion, int limit) {
+        return jdbcTemplate.query("""
+                SELECT favorite_id, version, deleted, track_id, rating, comment, is_public, created_at, last_played
+                FROM favorite_change
+                WHERE user_id = ? AND version > ? AND version <= ? AND NOT deleted
+                ORDER BY version
+                LIMIT ?
+                """, changeRowMapper(), userId, afterVersion, upToVersion, limit);
+    }
+
+    /**
+     * @return logged {@code last_played} of the given favorites by favorite id, tombstones and
+     *         favorites not logged yet are left out
+     */
+    public Map<Long, LocalDateTime> findLastPlayed(List<FavoriteEntryDTO> favorites) {
+        Map<Long, LocalDateTime> lastPlayed = new HashMap<>();
+        ChunkedValues.forEachChunk(favorites, "(CAST(? AS bigint), CAST(? AS bigint))",
+                (favorite, args) -> {
+                    args.add(favorite.userId());
+                    args.add(favorite.id());
+                },
+                (values, args) -> jdbcTemplate.query("""
+                        SELECT c.favorite_id, c.last_played
+                        FROM (VALUES %s) AS v(user_id, favorite_id)
+                        JOIN favorite_change c ON c.user_id = v.user_id AND c.favorite_id = v.favorite_id
+                        WHERE NOT c.deleted
+                        """.formatted(values),
+                        rs -> {
+                            lastPlayed.put(rs.getLong("favorite_id"), rs.getObject("last_played", LocalDateTime.class));
+                        },
+                        args));
+        return lastPlayed;
+    }
+
+    /**
+     * Removes tombstones older than the cutoff and remembers the highest pruned version of every
+     * affected user, so clients behind it know they have to start over. Version rows of the
+     * affected users are locked first, in the same order as writers lock them.
+     *
+     * @return number of pruned tombstones
+     */
+    public int pruneTombstones(LocalDateTime cutoff) {
+        jdbcTemplate.query("""
+                SELECT user_id
+                FROM favorite_sync
+                WHERE user_id IN (SELECT user_id FROM favorite_change WHERE deleted AND changed_at < ?)
+                ORDER BY user_id
+                FOR UPDATE
+                """, rs -> {
+                }, cutoff);
+        return jdbcTemplate.queryForObject("""
+                WITH pruned AS (
+                    DELETE FROM favorite_change
+                    WHERE deleted AND changed_at < ?
+                    RETURNING user_id, version
+                ), marked AS (
+                    UPDATE favorite_sync s
+                    SET pruned_version = GREATEST(s.pruned_version, p.version)
+                    FROM (SELECT user_id, MAX(version) AS version FROM pruned GROUP BY user_id) p
+                    WHERE s.user_id = p.user_id
+                )
+                SELECT COUNT(*) FROM pruned
+                """, Integer.class, cutoff);
+    }
+
+    private RowMapper<FavoriteChangeDTO> changeRowMapper() {
+        return (rs, rowNum) -> new FavoriteChangeDTO(
+                rs.getLong("favorite_id"),
+                rs.getLong("version"),
+                rs.getBoolean("deleted"),
+                rs.getString("track_id"),
+                rs.getObject("rating", Integer.class),
+                rs.getString("comment"),
+                rs.getObject("is_public", Boolean.class),
+                rs.getObject("created_at", LocalDateTime.class),
+                rs.getObject("last_played", LocalDateTime.class));
+    }
+
+    public record VersionedChange(FavoriteChange change, long version) {
+    }
+
+    public record SyncState(long version, long prunedVersion) {
+    }
+}
@@ -1,8 +1,16 @@
 package cz.mendelu.ea.domain.favorite;
 
+import cz.mendelu.ea.domain.favorite.dto.FavoriteEntryDTO;
+import cz.mendelu.ea.domain.favorite.dto.GenreCountDTO;
+import cz.mendelu.ea.domain.favorite.dto.GenreRatingDTO;
+import cz.mendelu.ea.domain.favorite.dto.RatingCountDTO;
+import cz.mendelu.ea.domain.favorite.dto.TopRatedFavoriteDTO;
+import cz.mendelu.ea.domain.favorite.dto.TrackRatingDTO;
+import cz.mendelu.ea.utils.exceptions.BadRequestException;
 import cz.mendelu.ea.utils.exceptions.NotFoundException;
 import cz.mendelu.ea.utils.response.ArrayResponse;
 import cz.mendelu.ea.utils.response.ObjectResponse;
+import cz.mendelu.ea.utils.response.PageResponse;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -23,6 +31,8 @@ import java.util.List;
 @Tag(name = "Favorite Management", description = "APIs for managing user favorites")
 public class FavoriteController {
 
+    private static final int MAX_TOP_RATED_LIMIT = 100;
+
     private final FavoriteService favoriteService;
 
     public FavoriteController(FavoriteService favoriteService) {
@@ -55,7 +65,8 @@ public class FavoriteController {
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "201", description = "Favorite created successfully"),
-        @ApiResponse(responseCode = "400", description = "Invalid input")
+        @ApiResponse(responseCode = "400", description = "Invalid input"),
+        @ApiResponse(responseCode = "503", description = "Group commit timed out, the favorite may have been created")
     })
     @ResponseStatus(HttpStatus.CREATED)
     public ObjectResponse<Favorite> createFavorite(@Valid @RequestBody CreateFavoriteRequest request) {
@@ -71,13 +82,79 @@ public class FavoriteController {
         );
     }
 
+    @PostMapping("/batch")
+    @Operation(
+        summary = "Create favorites in bulk",
+        description = "Creates up to 10000 favorites at once and reports the result of every item. Invalid items do not prevent the valid ones from being created.",
+        requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+            content = @Content(
+                mediaType = "application/json",
+                examples = {
+                    @ExampleObject(
+                        name = "Create Favorites",
+                        value = """
+                        {
+                            "items": [
+                                {
+                                    "userId": 1,
+                                    "trackId": "track123",
+                                    "rating": 5
+                                },
+                                {
+                                    "userId": 1,
+                                    "trackId": "track456",
+                                    "rating": 3,
+                                    "comment": "Nice",
+                                    "isPublic": false
+                                }
+                            ]
+                        }
+                        """
+                    )
+                }
+            )
+        )
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Batch processed, see the status of each item"),
+        @ApiResponse(responseCode = "400", description = "Invalid input")
+    })
+    public ArrayResponse<FavoriteBatchItemResult> createFavorites(@Valid @RequestBody CreateFavoritesBatchRequest request) {
+        return ArrayResponse.of(favoriteService.createFavoritesBatch(request.getItems()), result -> result);
+    }
+
     @GetMapping("")
-    @Operation(summary = "Get all favorites", description = "Retrieves a list of all favorites")
+    @Operation(
+        summary = "Get all favorites",
+        description = "Retrieves all favorites, newest first, one page at a time. Pass nextCursor of a page as cursor to get the next one."
+    )
     @ApiResponses(value = {
-        @ApiResponse(responseCode = "200", description = "List of favorites retrieved successfully")
+        @ApiResponse(responseCode = "200", description = "Page of favorites retrieved successfully"),
+        @ApiResponse(responseCode = "400", description = "Invalid cursor or limit")
     })
-    public ArrayResponse<Favorite> getAllFavorites() {
-        return ArrayResponse.of(favoriteService.getAllFavorites(), favorite -> favorite);
+    public PageResponse<FavoriteEntryDTO> getAllFavorites(
+            @Parameter(description = "Cursor of the page, omit for the first page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Maximum number of favorites on the page", example = "20")
+            @RequestParam(defaultValue = "20") int limit) {
+        FavoritePage page = favoriteService.getFavoritesPage(cursor, limit);
+        return PageResponse.of(page.items(), favorite -> favorite, page.nextCursor());
+    }
+
+    @GetMapping("/public")
+    @Operation(
+        summary = "Get public favorites feed",
+        description = "Retrieves public favorites, newest first, one page at a time. Pass nextCursor of a page as cursor to get the next one."
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Page of favorites retrieved successfully"),
+        @ApiResponse(responseCode = "400", description = "Invalid cursor or limit")
+    })
+    public PageResponse<FavoriteEntryDTO> getPublicFavorites(
+            @Parameter(description = "Cursor of the page, omit for the first page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Maximum number of favorites on the page", example = "20")
+            @RequestParam(defaultValue = "20") int limit) {
+        FavoritePage page = favoriteService.getPublicFavoritesPage(cursor, limit);
+        return PageResponse.of(page.items(), favorite -> favorite, page.nextCursor());
     }
 
     @GetMapping("/{id}")
@@ -153,13 +230,94 @@ public class FavoriteController {
     public ObjectResponse<Favorite> updateFavorite(
             @Parameter(description = "ID of the favorite to update", example = "1") @PathVariable Long id,
             @Valid @RequestBody UpdateFavoriteRequest request) {
-        Favorite favoriteToUpdate = favoriteService.getFavoriteById(id);
-        favoriteToUpdate.setRating(request.getRating());
-        favoriteToUpdate.setComment(request.getComment());
-        if (request.getIsPublic() != null) {
-            favoriteToUpdate.setIsPublic(request.getIsPublic());
+        return ObjectResponse.of(
+                favoriteService.updateFavorite(id, request.getRating(), request.getComment(), request.getIsPublic()),
+                fav -> fav
+        );
+    }
+
+    @PostMapping("/{id}/play")
+    @Operation(
+        summary = "Record a play",
+        description = "Records that the favorite was played. The last played timestamp is written asynchronously in batches."
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "202", description = "Play accepted"),
+        @ApiResponse(responseCode = "404", description = "Favorite not found")
+    })
+    @ResponseStatus(HttpStatus.ACCEPTED)
+    public void playFavorite(
+            @Parameter(description = "ID of the played favorite", example = "1") @PathVariable Long id) {
+        favoriteService.updateLastPlayed(id);
+    }
+
+    @GetMapping("/play-buffer")
+    @Operation(summary = "Get play buffer metrics", description = "Retrieves backpressure and flush metrics of the play event buffer")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Metrics retrieved successfully")
+    })
+    public ObjectResponse<PlayBufferStats> getPlayBufferStats() {
+        return ObjectResponse.of(favoriteService.getPlayBufferStats(), stats -> stats);
+    }
+
+    @GetMapping("/library-cache")
+    @Operation(summary = "Get library cache metrics", description = "Retrieves size and hit metrics of the cache of user libraries")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Metrics retrieved successfully")
+    })
+    public ObjectResponse<LibraryCacheStats> getLibraryCacheStats() {
+        return ObjectResponse.of(favoriteService.getLibraryCacheStats(), stats -> stats);
+    }
+
+    @GetMapping("/stats/count-by-rating")
+    @Operation(summary = "Get favorite count by rating", description = "Counts favorites for each rating")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Statistics retrieved successfully")
+    })
+    public ArrayResponse<RatingCountDTO> getFavoritesCountByRating() {
+        return ArrayResponse.of(favoriteService.getFavoritesCountByRating(), stats -> stats);
+    }
+
+    @GetMapping("/stats/average-rating-by-track")
+    @Operation(summary = "Get average rating by track", description = "Retrieves the favorite count and average rating of every favorited track")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Statistics retrieved successfully")
+    })
+    public ArrayResponse<TrackRatingDTO> getAverageRatingByTrack() {
+        return ArrayResponse.of(favoriteService.getAverageRatingByTrack(), stats -> stats);
+    }
+
+    @GetMapping("/stats/top-rated-by-track")
+    @Operation(summary = "Get top rated favorites by track", description = "Retrieves the best rated favorites of every track, ranked within the track")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Statistics retrieved successfully"),
+        @ApiResponse(responseCode = "400", description = "Invalid limit")
+    })
+    public ArrayResponse<TopRatedFavoriteDTO> getTopRatedFavoritesByTrack(
+            @Parameter(description = "Maximum number of favorites per track", example = "5")
+            @RequestParam(defaultValue = "5") int limit) {
+        if (limit < 1 || limit > MAX_TOP_RATED_LIMIT) {
+            throw new BadRequestException("Limit must be between 1 and " + MAX_TOP_RATED_LIMIT);
         }
-        return ObjectResponse.of(favoriteService.updateFavorite(favoriteToUpdate), fav -> fav);
+        return ArrayResponse.of(favoriteService.getTopRatedFavoritesByTrack(limit), favorite -> favorite);
+    }
+
+    @GetMapping("/stats/average-rating-by-genre")
+    @Operation(summary = "Get average rating by genre", description = "Retrieves the average rating of favorites in every genre")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Statistics retrieved successfully")
+    })
+    public ArrayResponse<GenreRatingDTO> getAverageRatingByGenre() {
+        return ArrayResponse.of(favoriteService.getAverageRatingByGenre(), stats -> stats);
+    }
+
+    @GetMapping("/stats/count-by-genre")
+    @Operation(summary = "Get favorite count by genre", description = "Counts favorites of tracks in every genre")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Statistics retrieved successfully")
+    })
+    public ArrayResponse<GenreCountDTO> getFavoritesCountByGenre() {
+        return ArrayResponse.of(favoriteService.getFavoritesCountByGenre(), stats -> stats);
     }
 
     @DeleteMapping("/{id}")
@@ -0,0 +1,61 @@
+package cz.mendelu.ea.domain.favorite;
+
+import cz.mendelu.ea.domain.favorite.dto.FavoriteEntryDTO;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Position in a list of favorites ordered by {@code (created_at, id)} descending. The list
+ * continues with the favorites strictly after it, so pages stay stable while new favorites are
+ * added and every page is one index range scan.
+ */
+public record FavoriteCursor(LocalDateTime createdAt, Long id) {
+
+    public static FavoriteCursor of(FavoriteEntryDTO favorite) {
+        return new FavoriteCursor(favorite.createdAt(), favorite.id());
+    }
+
+    /**
+     * @throws IllegalArgumentException when the token was not produced by {@link #encode()}
+     */
+    public static FavoriteCursor decode(String token) {
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\|");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new FavoriteCursor(LocalDateTime.parse(parts[0]), Long.parseLong(parts[1]));
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid cursor", e);
+        }
+    }
+
+    /**
+     * @param favorites favorites ordered newest first
+     * @return index of the first favorite after the cursor
+     */
+    public int indexIn(List<FavoriteEntryDTO> favorites) {
+        int low = 0;
+        int high = favorites.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            FavoriteEntryDTO favorite = favorites.get(middle);
+            int compared = favorite.createdAt().compareTo(createdAt);
+            if (compared < 0 || compared == 0 && favorite.id() < id) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((createdAt + "|" + id).getBytes(StandardCharsets.UTF_8));
+    }
+}
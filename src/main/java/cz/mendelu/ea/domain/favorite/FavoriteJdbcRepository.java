@@ -0,0 +1,224 @@
+package cz.mendelu.ea.domain.favorite;
+
+import cz.mendelu.ea.domain.favorite.dto.FavoriteEntryDTO;
+import cz.mendelu.ea.domain.favorite.dto.TopRatedFavoriteDTO;
+import cz.mendelu.ea.domain.track.Track;
+import cz.mendelu.ea.domain.user.User;
+import cz.mendelu.ea.utils.batch.ChunkedValues;
+import jakarta.persistence.EntityManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Plain SQL paths for favorites that JPA cannot express in a single statement.
+ */
+@Repository
+public class FavoriteJdbcRepository {
+
+    private static final String COLUMNS = "id, user_id, track_id, created_at, rating, comment, is_public, last_played";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManager entityManager;
+
+    public FavoriteJdbcRepository(JdbcTemplate jdbcTemplate, EntityManager entityManager) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Updates the favorite in one statement without loading it first. A null {@code isPublic}
+     * keeps the current value. The row is locked by the subquery, so the returned previous
+     * rating is the one this update replaced.
+     *
+     * @return the updated favorite with its previous rating, empty when it does not exist
+     */
+    public Optional<UpdatedFavorite> update(Long id, Integer rating, String comment, Boolean isPublic) {
+        RowMapper<Favorite> favoriteRowMapper = favoriteRowMapper();
+        return jdbcTemplate.query("""
+                UPDATE favorite f
+                SET rating = ?, comment = ?, is_public = COALESCE(?, f.is_public)
+                FROM (SELECT id, rating FROM favorite WHERE id = ? FOR UPDATE) AS old
+                WHERE f.id = old.id
+                RETURNING f.id, f.user_id, f.track_id, f.created_at, f.rating, f.comment, f.is_public, f.last_played,
+                          old.rating AS previous_rating
+                """,
+                (rs, rowNum) -> new UpdatedFavorite(favoriteRowMapper.mapRow(rs, rowNum), rs.getInt("previous_rating")),
+                rating, comment, isPublic, id)
+                .stream().findFirst();
+    }
+
+    /**
+     * Deletes the favorite in one statement without loading it first.
+     *
+     * @return the deleted favorite, empty when it did not exist
+     */
+    public Optional<Favorite> delete(Long id) {
+        return jdbcTemplate.query("DELETE FROM favorite WHERE id = ? RETURNING " + COLUMNS, favoriteRowMapper(), id)
+                .stream().findFirst();
+    }
+
+    /**
+     * Deletes all favorites of the user in one statement.
+     *
+     * @return the deleted favorites
+     */
+    public List<Favorite> deleteByUserId(Long userId) {
+        return jdbcTemplate.query("DELETE FROM favorite WHERE user_id = ? RETURNING " + COLUMNS, favoriteRowMapper(), userId);
+    }
+
+    /**
+     * Deletes up to {@code limit} oldest favorites of the user in one statement, so huge
+     * libraries can be deleted in short transactions.
+     *
+     * @return the deleted favorites
+     */
+    public List<Favorite> deleteByUserId(Long userId, int limit) {
+        return jdbcTemplate.query("""
+                DELETE FROM favorite f
+                USING (SELECT id, created_at FROM favorite WHERE user_id = ? ORDER BY created_at, id LIMIT ?) c
+                WHERE f.id = c.id AND f.created_at = c.created_at
+                RETURNING f.id, f.user_id, f.track_id, f.created_at, f.rating, f.comment, f.is_public, f.last_played
+                """, favoriteRowMapper(), userId, limit);
+    }
+
+    /**
+     * Reads favorites of a partition detached from {@code favorite}, in id order, one chunk after
+     * the given id at a time.
+     */
+    public List<Favorite> findDetached(String partition, long afterId, int limit) {
+        return jdbcTemplate.query("SELECT " + COLUMNS + " FROM " + partition + " WHERE id > ? ORDER BY id LIMIT ?",
+                favoriteRowMapper(), afterId, limit);
+    }
+
+    /**
+     * Moves {@code last_played} forward for many favorites at once using
+     * {@code UPDATE ... FROM (VALUES ...)}. Older timestamps never overwrite newer ones and
+     * unknown ids are ignored.
+     *
+     * @return the updated favorites
+     */
+    public List<FavoriteEntryDTO> updateLastPlayed(Map<Long, LocalDateTime> lastPlayedById) {
+        List<FavoriteEntryDTO> updated = new ArrayList<>();
+        ChunkedValues.forEachChunk(new ArrayList<>(lastPlayedById.entrySet()), "(CAST(? AS bigint), CAST(? AS timestamp))",
+                (entry, args) -> {
+                    args.add(entry.getKey());
+                    args.add(entry.getValue());
+                },
+                (values, args) -> updated.addAll(jdbcTemplate.query("""
+                        UPDATE favorite f
+                        SET last_played = v.last_played
+                        FROM (VALUES %s) AS v(id, last_played)
+                        WHERE f.id = v.id AND f.last_played < v.last_played
+                        RETURNING f.id, f.user_id, f.track_id, f.created_at, f.rating, f.comment, f.is_public, f.last_played
+                        """.formatted(values), entryRowMapper(), args)));
+        return updated;
+    }
+
+    /**
+     * Returns up to {@code limit} favorites after the cursor, newest first. A null cursor starts
+     * at the newest favorite.
+     */
+    public List<FavoriteEntryDTO> findPage(FavoriteCursor after, int limit) {
+        return findPage("TRUE", List.of(), after, limit);
+    }
+
+    /**
+     * Returns up to {@code limit} public favorites after the cursor, newest first. A null cursor
+     * starts at the newest favorite.
+     */
+    public List<FavoriteEntryDTO> findPublicPage(FavoriteCursor after, int limit) {
+        return findPage("is_public", List.of(), after, limit);
+    }
+
+    /**
+     * Returns up to {@code limit} favorites of the user after the cursor, newest first. A null
+     * cursor starts at the newest favorite.
+     */
+    public List<FavoriteEntryDTO> findUserPage(Long userId, FavoriteCursor after, int limit) {
+        return findPage("user_id = ?", List.of(userId), after, limit);
+    }
+
+    // the row comparison on (created_at, id) is an index condition, so deep pages cost the same as the first one
+    private List<FavoriteEntryDTO> findPage(String condition, List<Object> conditionArgs, FavoriteCursor after, int limit) {
+        List<Object> args = new ArrayList<>(conditionArgs);
+        String keyset = "";
+        if (after != null) {
+            keyset = " AND (created_at, id) < (?, ?)";
+            args.add(after.createdAt());
+            args.add(after.id());
+        }
+        args.add(limit);
+        return jdbcTemplate.query("""
+                SELECT %s
+                FROM favorite
+                WHERE %s%s
+                ORDER BY created_at DESC, id DESC
+                LIMIT ?
+                """.formatted(COLUMNS, condition, keyset), entryRowMapper(), args.toArray());
+    }
+
+    /**
+     * Returns the {@code limit} best rated favorites of every track, ranked with
+     * {@code ROW_NUMBER()} in the database, so only tracks x limit rows are transferred.
+     * Equal ratings are ordered by id.
+     */
+    public List<TopRatedFavoriteDTO> findTopRatedByTrack(int limit) {
+        return jdbcTemplate.query("""
+                SELECT track_id, rank, id, user_id, rating, comment, created_at
+                FROM (
+                    SELECT track_id, id, user_id, rating, comment, created_at,
+                           ROW_NUMBER() OVER (PARTITION BY track_id ORDER BY rating DESC, id) AS rank
+                    FROM favorite
+                ) ranked
+                WHERE rank <= ?
+                ORDER BY track_id, rank
+                """,
+                (rs, rowNum) -> new TopRatedFavoriteDTO(
+                        rs.getString("track_id"),
+                        rs.getInt("rank"),
+                        rs.getLong("id"),
+                        rs.getLong("user_id"),
+                        rs.getInt("rating"),
+                        rs.getString("comment"),
+                        rs.getObject("created_at", LocalDateTime.class)),
+                limit);
+    }
+
+    // user and track are uninitialized references, mapping a row never triggers another query
+    private RowMapper<Favorite> favoriteRowMapper() {
+        return (rs, rowNum) -> {
+            Favorite favorite = new Favorite();
+            favorite.setId(rs.getLong("id"));
+            favorite.setUser(entityManager.getReference(User.class, rs.getLong("user_id")));
+            favorite.setTrack(entityManager.getReference(Track.class, rs.getString("track_id")));
+            favorite.setCreatedAt(rs.getObject("created_at", LocalDateTime.class));
+            favorite.setRating(rs.getInt("rating"));
+            favorite.setComment(rs.getString("comment"));
+            favorite.setIsPublic(rs.getBoolean("is_public"));
+            favorite.setLastPlayed(rs.getObject("last_played", LocalDateTime.class));
+            return favorite;
+        };
+    }
+
+    private RowMapper<FavoriteEntryDTO> entryRowMapper() {
+        return (rs, rowNum) -> new FavoriteEntryDTO(
+                rs.getLong("id"),
+                rs.getLong("user_id"),
+                rs.getString("track_id"),
+                rs.getInt("rating"),
+                rs.getString("comment"),
+                rs.getBoolean("is_public"),
+                rs.getObject("created_at", LocalDateTime.class),
+                rs.getObject("last_played", LocalDateTime.class));
+    }
+
+    public record UpdatedFavorite(Favorite favorite, Integer previousRating) {
+    }
+}
@@ -0,0 +1,29 @@
+package cz.mendelu.ea.domain.favorite;
+
+import cz.mendelu.ea.domain.favorite.dto.FavoriteEntryDTO;
+
+import java.util.List;
+
+/**
+ * One page of a keyset-paginated list of favorites.
+ *
+ * @param next cursor of the following page, null on the last page
+ */
+public record FavoritePage(List<FavoriteEntryDTO> items, FavoriteCursor next) {
+
+    /**
+     * Builds the page from up to {@code limit + 1} rows, the extra row only tells that another
+     * page follows.
+     */
+    public static FavoritePage of(List<FavoriteEntryDTO> rows, int limit) {
+        if (rows.size() <= limit) {
+            return new FavoritePage(rows, null);
+        }
+        List<FavoriteEntryDTO> items = rows.subList(0, limit);
+        return new FavoritePage(items, FavoriteCursor.of(items.get(limit - 1)));
+    }
+
+    public String nextCursor() {
+        return next == null ? null : next.encode();
+    }
+}
@@ -1,5 +1,6 @@
 package cz.mendelu.ea.domain.favorite;
 
+import cz.mendelu.ea.domain.favorite.dto.RatingCountDTO;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 
@@ -20,4 +21,8 @@ public interface FavoriteRepository extends JpaRepository<Favorite, Long> {
     
     @Query("SELECT f FROM Favorite f WHERE f.lastPlayed > ?1")
     List<Favorite> findRecentlyPlayedFavorites(LocalDateTime date);
+
+    @Query("SELECT new cz.mendelu.ea.domain.favorite.dto.RatingCountDTO(f.rating, COUNT(f)) "
+            + "FROM Favorite f GROUP BY f.rating ORDER BY f.rating")
+    List<RatingCountDTO> countByRating();
 } 
\ No newline at end of file
@@ -1,56 +1,306 @@
 package cz.mendelu.ea.domain.favorite;
 
-import cz.mendelu.ea.domain.track.Track;
+import cz.mendelu.ea.domain.favorite.FavoriteChangeRepository.SyncState;
+import cz.mendelu.ea.domain.favorite.dto.FavoriteChangeDTO;
+import cz.mendelu.ea.domain.favorite.dto.FavoriteChangesDTO;
+import cz.mendelu.ea.domain.favorite.dto.FavoriteEntryDTO;
+import cz.mendelu.ea.domain.favorite.dto.GenreCountDTO;
+import cz.mendelu.ea.domain.favorite.dto.GenreRatingDTO;
+import cz.mendelu.ea.domain.favorite.dto.RatingCountDTO;
+import cz.mendelu.ea.domain.favorite.dto.TopRatedFavoriteDTO;
+import cz.mendelu.ea.domain.favorite.dto.TrackRatingDTO;
 import cz.mendelu.ea.domain.track.TrackService;
-import cz.mendelu.ea.domain.user.User;
+import cz.mendelu.ea.domain.user.UserDeletionEvent;
 import cz.mendelu.ea.domain.user.UserService;
+import cz.mendelu.ea.utils.batch.GroupCommitExecutor;
+import cz.mendelu.ea.utils.batch.GroupCommitTimeoutException;
+import cz.mendelu.ea.utils.exceptions.BadRequestException;
 import cz.mendelu.ea.utils.exceptions.NotFoundException;
+import cz.mendelu.ea.utils.exceptions.ServiceUnavailableException;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.sql.SQLException;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
 public class FavoriteService {
 
+    private static final int MAX_PAGE_SIZE = 100;
+    private static final int MAX_CHANGES_PAGE_SIZE = 1000;
+    private static final String FOREIGN_KEY_VIOLATION = "23503";
+
     private final FavoriteRepository repository;
+    private final FavoriteJdbcRepository jdbcRepository;
     private final UserService userService;
     private final TrackService trackService;
+    private final PlayEventBuffer playEventBuffer;
+    private final TrackStatsRepository trackStatsRepository;
+    private final UserLibraryCache libraryCache;
+    private final FavoriteChangeRepository changeRepository;
+    private final EntityManager entityManager;
+    private final Validator validator;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    // null when group commit is disabled, favorites with a missing user or track are empty results
+    private final GroupCommitExecutor<Favorite, Optional<Favorite>> groupCommitExecutor;
 
-    public FavoriteService(FavoriteRepository repository, UserService userService, TrackService trackService) {
+    public FavoriteService(FavoriteRepository repository, FavoriteJdbcRepository jdbcRepository,
+                           UserService userService, TrackService trackService,
+                           PlayEventBuffer playEventBuffer, TrackStatsRepository trackStatsRepository,
+                           UserLibraryCache libraryCache, FavoriteChangeRepository changeRepository,
+                           EntityManager entityManager, Validator validator,
+                           ApplicationEventPublisher eventPublisher, TransactionTemplate transactionTemplate,
+                           @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}") int batchSize,
+                           @Value("${favorites.group-commit.enabled:false}") boolean groupCommitEnabled,
+                           @Value("${favorites.group-commit.window-micros:1000}") long groupCommitWindowMicros,
+                           @Value("${favorites.group-commit.max-batch-size:256}") int groupCommitMaxBatchSize,
+                           @Value("${favorites.group-commit.timeout-ms:30000}") long groupCommitTimeoutMillis) {
         this.repository = repository;
+        this.jdbcRepository = jdbcRepository;
         this.userService = userService;
         this.trackService = trackService;
+        this.playEventBuffer = playEventBuffer;
+        this.trackStatsRepository = trackStatsRepository;
+        this.libraryCache = libraryCache;
+        this.changeRepository = changeRepository;
+        this.entityManager = entityManager;
+        this.validator = validator;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = transactionTemplate;
+        this.batchSize = batchSize;
+        this.groupCommitExecutor = groupCommitEnabled
+                ? new GroupCommitExecutor<>(
+                        "favorite-group-commit",
+                        favorites -> transactionTemplate.execute(status -> createFavoritesGroup(favorites)),
+                        Duration.of(groupCommitWindowMicros, ChronoUnit.MICROS),
+                        groupCommitMaxBatchSize,
+                        Duration.ofMillis(groupCommitTimeoutMillis))
+                : null;
     }
 
-    public Favorite createFavorite(Long userId, String trackId, Integer rating, String comment, Boolean isPublic) {
-        User user = userService.getUserById(userId);
-        Track track = trackService.getTrackById(trackId);
+    @PreDestroy
+    public void stopGroupCommit() {
+        if (groupCommitExecutor != null) {
+            groupCommitExecutor.close();
+        }
+    }
 
+    /**
+     * Creates a favorite with a single INSERT. User and track are not loaded, a missing one is
+     * reported by the foreign key instead.
+     *
+     * With {@code favorites.group-commit.enabled} the insert waits a moment for concurrent callers
+     * and is committed together with theirs in one transaction, so throughput is not capped by
+     * commits per second. Users and tracks of the group are checked up front, so a missing one
+     * fails only its own caller instead of the whole group. A group that does not commit within
+     * {@code favorites.group-commit.timeout-ms} fails with {@link ServiceUnavailableException},
+     * telling whether the favorite may still have been created.
+     */
+    public Favorite createFavorite(Long userId, String trackId, Integer rating, String comment, Boolean isPublic) {
         Favorite favorite = new Favorite();
-        favorite.setUser(user);
-        favorite.setTrack(track);
+        favorite.setUser(userService.getUserReference(userId));
+        favorite.setTrack(trackService.getTrackReference(trackId));
         favorite.setRating(rating);
         favorite.setComment(comment);
         favorite.setIsPublic(isPublic);
         favorite.setCreatedAt(LocalDateTime.now());
         favorite.setLastPlayed(LocalDateTime.now());
 
-        return repository.save(favorite);
+        try {
+            if (groupCommitExecutor != null) {
+                return submitToGroup(favorite);
+            }
+            return transactionTemplate.execute(status -> {
+                Favorite saved = repository.saveAndFlush(favorite);
+                eventPublisher.publishEvent(new FavoritesChangedEvent(List.of(FavoriteChange.created(saved))));
+                // adding a favorite counts as its first play, the same way lastPlayed is initialized
+                playEventBuffer.record(saved.getId(), saved.getLastPlayed());
+                return saved;
+            });
+        } catch (DataIntegrityViolationException e) {
+            // a missing user or track, any other violation is not the caller's lookup failing
+            if (e.getMostSpecificCause() instanceof SQLException sqlException
+                    && FOREIGN_KEY_VIOLATION.equals(sqlException.getSQLState())) {
+                throw new NotFoundException();
+            }
+            throw e;
+        }
+    }
+
+    private Favorite submitToGroup(Favorite favorite) {
+        try {
+            return groupCommitExecutor.submit(favorite).orElseThrow(NotFoundException::new);
+        } catch (GroupCommitTimeoutException e) {
+            throw new ServiceUnavailableException(e.mayBeCommitted()
+                    ? "Creating the favorite timed out, it may have been created, check before retrying"
+                    : "Creating the favorite timed out before it started, it can be retried", e);
+        }
+    }
+
+    /**
+     * Inserts favorites in JDBC batches of {@code batchSize} rows.
+     *
+     * Ids come from the pooled sequence, so Hibernate does not need a round trip per row and
+     * the driver rewrites each batch into a single multi-row INSERT. The persistence context is
+     * flushed and cleared after every chunk to keep memory flat for large imports.
+     */
+    @Transactional
+    public List<Favorite> createFavorites(List<Favorite> favorites) {
+        List<Favorite> saved = new ArrayList<>(favorites.size());
+        for (int from = 0; from < favorites.size(); from += batchSize) {
+            List<Favorite> chunk = favorites.subList(from, Math.min(from + batchSize, favorites.size()));
+            saved.addAll(repository.saveAll(chunk));
+            entityManager.flush();
+            entityManager.clear();
+        }
+        eventPublisher.publishEvent(new FavoritesChangedEvent(saved.stream().map(FavoriteChange::created).toList()));
+        playEventBuffer.recordAll(saved.stream()
+                .map(favorite -> new PlayEvent(favorite.getId(), favorite.getLastPlayed()))
+                .toList());
+        return saved;
+    }
+
+    /**
+     * Inserts a group of favorites submitted by concurrent {@link #createFavorite} callers, see
+     * {@link #createFavoritesBatch}. The submitted favorites are copied, so a group retried item by
+     * item after a failure inserts fresh entities rather than ones carrying ids of the rolled back
+     * attempt.
+     *
+     * @return the inserted favorite for every submitted one, empty when its user or track is missing
+     */
+    private List<Optional<Favorite>> createFavoritesGroup(List<Favorite> submitted) {
+        Set<Long> existingUserIds = userService.getExistingUserIds(submitted.stream()
+                .map(favorite -> favorite.getUser().getId())
+                .collect(Collectors.toSet()));
+        Set<String> existingTrackIds = trackService.getExistingTrackIds(submitted.stream()
+                .map(favorite -> favorite.getTrack().getTrackId())
+                .collect(Collectors.toSet()));
+
+        List<Optional<Favorite>> results = new ArrayList<>(submitted.size());
+        List<Favorite> favorites = new ArrayList<>();
+        List<Integer> favoriteIndexes = new ArrayList<>();
+        for (int i = 0; i < submitted.size(); i++) {
+            Favorite favorite = submitted.get(i);
+            results.add(Optional.empty());
+            if (existingUserIds.contains(favorite.getUser().getId())
+                    && existingTrackIds.contains(favorite.getTrack().getTrackId())) {
+                Favorite copy = new Favorite();
+                copy.setUser(favorite.getUser());
+                copy.setTrack(favorite.getTrack());
+                copy.setRating(favorite.getRating());
+                copy.setComment(favorite.getComment());
+                copy.setIsPublic(favorite.getIsPublic());
+                copy.setCreatedAt(favorite.getCreatedAt());
+                copy.setLastPlayed(favorite.getLastPlayed());
+                favorites.add(copy);
+                favoriteIndexes.add(i);
+            }
+        }
+
+        List<Favorite> saved = createFavorites(favorites);
+        for (int i = 0; i < saved.size(); i++) {
+            results.set(favoriteIndexes.get(i), Optional.of(saved.get(i)));
+        }
+        return results;
     }
 
-    public List<Favorite> getAllFavorites() {
-        return repository.findAll();
+    /**
+     * Creates many favorites at once, e.g. when importing a library from another service.
+     *
+     * Users and tracks of all items are checked with one set-based query each and valid items are
+     * inserted in JDBC batches. Invalid items are reported in the result instead of failing the
+     * whole request.
+     *
+     * @return one result per request item, in the order of the request
+     */
+    @Transactional
+    public List<FavoriteBatchItemResult> createFavoritesBatch(List<CreateFavoriteRequest> requests) {
+        Set<Long> existingUserIds = userService.getExistingUserIds(requests.stream()
+                .map(CreateFavoriteRequest::getUserId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet()));
+        Set<String> existingTrackIds = trackService.getExistingTrackIds(requests.stream()
+                .map(CreateFavoriteRequest::getTrackId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet()));
+
+        FavoriteBatchItemResult[] results = new FavoriteBatchItemResult[requests.size()];
+        List<Favorite> favorites = new ArrayList<>();
+        List<Integer> favoriteIndexes = new ArrayList<>();
+        LocalDateTime now = LocalDateTime.now();
+
+        for (int i = 0; i < requests.size(); i++) {
+            CreateFavoriteRequest request = requests.get(i);
+            Set<ConstraintViolation<CreateFavoriteRequest>> violations = validator.validate(request);
+            if (!violations.isEmpty()) {
+                results[i] = FavoriteBatchItemResult.rejected(i, violations.stream()
+                        .map(ConstraintViolation::getMessage)
+                        .sorted()
+                        .collect(Collectors.joining(", ")));
+            } else if (!existingUserIds.contains(request.getUserId())) {
+                results[i] = FavoriteBatchItemResult.rejected(i, "User not found");
+            } else if (!existingTrackIds.contains(request.getTrackId())) {
+                results[i] = FavoriteBatchItemResult.rejected(i, "Track not found");
+            } else {
+                Favorite favorite = new Favorite();
+                favorite.setUser(userService.getUserReference(request.getUserId()));
+                favorite.setTrack(trackService.getTrackReference(request.getTrackId()));
+                favorite.setRating(request.getRating());
+                favorite.setComment(request.getComment());
+                favorite.setIsPublic(request.getIsPublic() == null || request.getIsPublic());
+                favorite.setCreatedAt(now);
+                favorite.setLastPlayed(now);
+                favorites.add(favorite);
+                favoriteIndexes.add(i);
+            }
+        }
+
+        List<Favorite> saved = createFavorites(favorites);
+        for (int i = 0; i < saved.size(); i++) {
+            int index = favoriteIndexes.get(i);
+            results[index] = FavoriteBatchItemResult.created(index, saved.get(i).getId());
+        }
+        return List.of(results);
+    }
+
+    /**
+     * Returns a page of all favorites, newest first, see {@link #getPublicFavoritesPage}.
+     */
+    public FavoritePage getFavoritesPage(String cursor, int limit) {
+        checkPageSize(limit);
+        return FavoritePage.of(jdbcRepository.findPage(decodeCursor(cursor), limit + 1), limit);
     }
 
     public Favorite getFavoriteById(Long id) {
         return repository.findById(id).orElseThrow(NotFoundException::new);
     }
 
-    public List<Favorite> getFavoritesByUserId(Long userId) {
-        return repository.findByUserId(userId);
+    /**
+     * Returns the user's library, newest first, from {@link UserLibraryCache} when it fits there.
+     */
+    public List<FavoriteEntryDTO> getFavoritesByUserId(Long userId) {
+        return getCachedLibrary(userId)
+                .orElseGet(() -> jdbcRepository.findUserPage(userId, null, Integer.MAX_VALUE));
     }
 
     public List<Favorite> getFavoritesByTrackId(String trackId) {
@@ -65,6 +315,118 @@ public class FavoriteService {
         return repository.findByIsPublicTrue();
     }
 
+    /**
+     * Returns a page of public favorites, newest first. Pages are fetched by keyset on
+     * {@code (created_at, id)}, so they do not shift when favorites are added.
+     *
+     * @param cursor cursor returned with the previous page, null for the first page
+     */
+    public FavoritePage getPublicFavoritesPage(String cursor, int limit) {
+        checkPageSize(limit);
+        return FavoritePage.of(jdbcRepository.findPublicPage(decodeCursor(cursor), limit + 1), limit);
+    }
+
+    /**
+     * Returns a page of the user's library, newest first, see {@link #getPublicFavoritesPage}.
+     * Libraries held by {@link UserLibraryCache} are paged in memory.
+     */
+    public FavoritePage getUserFavoritesPage(Long userId, String cursor, int limit) {
+        checkPageSize(limit);
+        FavoriteCursor after = decodeCursor(cursor);
+        Optional<List<FavoriteEntryDTO>> library = getCachedLibrary(userId);
+        List<FavoriteEntryDTO> rows;
+        if (library.isPresent()) {
+            int from = after == null ? 0 : after.indexIn(library.get());
+            rows = library.get().subList(from, Math.min(from + limit + 1, library.get().size()));
+        } else {
+            rows = jdbcRepository.findUserPage(userId, after, limit + 1);
+        }
+        FavoritePage page = FavoritePage.of(rows, limit);
+        // only an empty first page needs telling a missing user from an empty library
+        if (page.items().isEmpty() && after == null && userService.getExistingUserIds(Set.of(userId)).isEmpty()) {
+            throw new NotFoundException();
+        }
+        return page;
+    }
+
+    /**
+     * Returns changes of the user's library newer than the given version, oldest first. The
+     * client applies them and passes {@code nextSince} with the next call until {@code hasMore}
+     * is false. Deleted favorites come as tombstones. A version of 0, a version newer than the
+     * current one or older than pruned tombstones resets the client with the whole library, in
+     * pages of live favorites fetched with {@code nextCursor}.
+     *
+     * @param since  version returned by the previous call, 0 for the first sync
+     * @param cursor cursor returned with the previous page of a reset, null otherwise
+     */
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public FavoriteChangesDTO getFavoriteChanges(Long userId, long since, String cursor, int limit) {
+        if (limit < 1 || limit > MAX_CHANGES_PAGE_SIZE) {
+            throw new BadRequestException("Limit must be between 1 and " + MAX_CHANGES_PAGE_SIZE);
+        }
+        if (userService.getExistingUserIds(Set.of(userId)).isEmpty()) {
+            throw new NotFoundException();
+        }
+
+        if (cursor != null && !cursor.isEmpty()) {
+            return getResetPage(userId, decodeResetCursor(cursor), limit);
+        }
+        SyncState state = changeRepository.findState(userId);
+        if (since <= 0 || since < state.prunedVersion() || since > state.version()) {
+            return getResetPage(userId, new ResetCursor(state.version(), 0), limit);
+        }
+        List<FavoriteChangeDTO> changes = changeRepository.findSince(userId, since, limit + 1);
+        if (changes.size() > limit) {
+            changes = changes.subList(0, limit);
+            return new FavoriteChangesDTO(userId, false, changes, changes.get(limit - 1).version(), true, null);
+        }
+        return new FavoriteChangesDTO(userId, false, changes, state.version(), false, null);
+    }
+
+    // favorites changed during the reset move past its version and come with the following sync
+    private FavoriteChangesDTO getResetPage(Long userId, ResetCursor cursor, int limit) {
+        List<FavoriteChangeDTO> changes = changeRepository.findLive(userId, cursor.afterVersion(), cursor.resetVersion(), limit + 1);
+        if (changes.size() > limit) {
+            changes = changes.subList(0, limit);
+            String nextCursor = new ResetCursor(cursor.resetVersion(), changes.get(limit - 1).version()).encode();
+            return new FavoriteChangesDTO(userId, true, changes, cursor.resetVersion(), true, nextCursor);
+        }
+        return new FavoriteChangesDTO(userId, true, changes, cursor.resetVersion(), false, null);
+    }
+
+    public LibraryCacheStats getLibraryCacheStats() {
+        return libraryCache.getStats();
+    }
+
+    private Optional<List<FavoriteEntryDTO>> getCachedLibrary(Long userId) {
+        return libraryCache.getLibrary(userId, limit -> jdbcRepository.findUserPage(userId, null, limit));
+    }
+
+    private static void checkPageSize(int limit) {
+        if (limit < 1 || limit > MAX_PAGE_SIZE) {
+            throw new BadRequestException("Limit must be between 1 and " + MAX_PAGE_SIZE);
+        }
+    }
+
+    private static FavoriteCursor decodeCursor(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        try {
+            return FavoriteCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid cursor");
+        }
+    }
+
+    private static ResetCursor decodeResetCursor(String cursor) {
+        try {
+            return ResetCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("Invalid cursor");
+        }
+    }
+
     public List<Favorite> getRecentFavorites(LocalDateTime date) {
         return repository.findRecentFavorites(date);
     }
@@ -73,67 +435,80 @@ public class FavoriteService {
         return repository.findRecentlyPlayedFavorites(date);
     }
 
+    /**
+     * Records a play of the favorite. The write is deferred to {@link PlayEventBuffer}, so
+     * {@code lastPlayed} becomes visible after the next flush. A favorite missing from the library
+     * cache is looked up by its primary key first; a play of a favorite deleted before the flush
+     * is dropped.
+     */
     public void updateLastPlayed(Long id) {
-        Favorite favorite = getFavoriteById(id);
-        favorite.setLastPlayed(LocalDateTime.now());
-        repository.save(favorite);
+        LocalDateTime now = LocalDateTime.now();
+        if (!libraryCache.recordPlay(id, now) && !repository.existsById(id)) {
+            throw new NotFoundException();
+        }
+        playEventBuffer.record(id, now);
+    }
+
+    public PlayBufferStats getPlayBufferStats() {
+        return playEventBuffer.getStats();
     }
 
+    @Transactional
     public void deleteFavorite(Long id) {
-        if (!repository.existsById(id)) {
-            throw new NotFoundException();
+        Favorite deleted = jdbcRepository.delete(id).orElseThrow(NotFoundException::new);
+        eventPublisher.publishEvent(new FavoritesChangedEvent(List.of(FavoriteChange.deleted(deleted))));
+    }
+
+    /**
+     * Deletes the favorites of a user about to be deleted with one statement, instead of letting
+     * the JPA cascade remove them row by row.
+     */
+    @EventListener
+    public void onUserDeletion(UserDeletionEvent event) {
+        List<Favorite> deleted = jdbcRepository.deleteByUserId(event.userId());
+        if (!deleted.isEmpty()) {
+            eventPublisher.publishEvent(new FavoritesChangedEvent(deleted.stream().map(FavoriteChange::deleted).toList()));
         }
-        repository.deleteById(id);
     }
 
-    // Complex calculations using streams
-    public Map<Integer, Long> getFavoritesCountByRating() {
-        return repository.findAll().stream()
-                .collect(Collectors.groupingBy(
-                        Favorite::getRating,
-                        Collectors.counting()
-                ));
+    /**
+     * @return favorite counters of all favorited tracks, most favorited first
+     */
+    public List<TrackStats> getTrackStats() {
+        return trackStatsRepository.findAll();
+    }
+
+    // Aggregations run in the database, only the result rows are transferred
+    public List<RatingCountDTO> getFavoritesCountByRating() {
+        return repository.countByRating();
     }
 
-    public Map<String, Double> getAverageRatingByTrack() {
-        return repository.findAll().stream()
-                .collect(Collectors.groupingBy(
-                        favorite -> favorite.getTrack().getTrackName(),
-                        Collectors.averagingDouble(Favorite::getRating)
-                ));
+    public List<TrackRatingDTO> getAverageRatingByTrack() {
+        return trackStatsRepository.findAverageRatingByTrack();
     }
 
-    public Map<String, List<Favorite>> getTopRatedFavoritesByTrack(int limit) {
-        return repository.findAll().stream()
-                .collect(Collectors.groupingBy(
-                        favorite -> favorite.getTrack().getTrackName(),
-                        Collectors.collectingAndThen(
-                                Collectors.toList(),
-                                favorites -> favorites.stream()
-                                        .sorted((f1, f2) -> f2.getRating().compareTo(f1.getRating()))
-                                        .limit(limit)
-                                        .collect(Collectors.toList())
-                        )
-                ));
+    public List<TopRatedFavoriteDTO> getTopRatedFavoritesByTrack(int limit) {
+        return jdbcRepository.findTopRatedByTrack(limit);
     }
 
-    public Map<String, Double> getAverageRatingByGenre() {
-        return repository.findAll().stream()
-                .collect(Collectors.groupingBy(
-                        favorite -> favorite.getTrack().getTrackGenre(),
-                        Collectors.averagingDouble(Favorite::getRating)
-                ));
+    public List<GenreRatingDTO> getAverageRatingByGenre() {
+        return trackStatsRepository.findAverageRatingByGenre();
     }
 
-    public Map<String, Long> getFavoritesCountByGenre() {
-        return repository.findAll().stream()
-                .collect(Collectors.groupingBy(
-                        favorite -> favorite.getTrack().getTrackGenre(),
-                        Collectors.counting()
-                ));
+    public List<GenreCountDTO> getFavoritesCountByGenre() {
+        return trackStatsRepository.countFavoritesByGenre();
     }
 
-    public Favorite updateFavorite(Favorite favorite) {
-        return repository.save(favorite);
+    /**
+     * Updates the favorite with a single UPDATE, without loading it first. A null {@code isPublic}
+     * keeps the current value.
+     */
+    @Transactional
+    public Favorite updateFavorite(Long id, Integer rating, String comment, Boolean isPublic) {
+        FavoriteJdbcRepository.UpdatedFavorite updated =
+                jdbcRepository.update(id, rating, comment, isPublic).orElseThrow(NotFoundException::new);
+        eventPublisher.publishEvent(new FavoritesChangedEvent(
+                List.of(FavoriteChange.updated(updated.favorite(), updated.previousRating()))));
+        return updated.favorite();
     }
 } 
\ No newline at end of file
@@ -0,0 +1,11 @@
+package cz.mendelu.ea.domain.favorite;
+
+import java.util.List;
+
+/**
+ * Published by {@link FavoriteService} inside the writing transaction for every create, update
+ * and delete of favorites. Listeners maintaining derived tables run in the same transaction, so
+ * they commit or roll back together with the favorites.
+ */
+public record FavoritesChangedEvent(List<FavoriteChange> changes) {
+}
@@ -0,0 +1,14 @@
+package cz.mendelu.ea.domain.favorite;
+
+/**
+ * Snapshot of {@link UserLibraryCache} metrics.
+ *
+ * @param users      number of cached libraries, including the ones marked as too large
+ * @param entries    number of cached favorites, counted against {@code maxEntries}
+ * @param hits       reads served from memory
+ * @param misses     reads that loaded the library from the database
+ * @param evictions  libraries evicted to stay within {@code maxEntries}
+ */
+public record LibraryCacheStats(int users, int entries, int maxEntries, int maxEntriesPerUser,
+                                long hits, long misses, long evictions) {
+}
@@ -0,0 +1,103 @@
+package cz.mendelu.ea.domain.favorite;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Keeps monthly partitions of {@code favorite} and {@code play_event} created ahead of time and
+ * applies retention: old play log partitions are dropped, old favorite partitions are detached
+ * and left for archiving. A retention of 0 months keeps everything.
+ *
+ * Favorites of a detached partition are then published as deleted, one chunk per transaction, so
+ * {@code track_stats}, {@code users.favorite_count}, the change log and the caches drop them like
+ * deleted favorites, and their plays leave the play log. Should the application stop in between,
+ * the counters are repaired by their nightly reconciliation.
+ */
+@Component
+@Slf4j
+public class PartitionManager {
+
+    private static final int DETACHED_CHUNK_SIZE = 1000;
+
+    private final PartitionRepository repository;
+    private final FavoriteJdbcRepository favoriteJdbcRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final int monthsAhead;
+    private final int playEventRetentionMonths;
+    private final int favoriteRetentionMonths;
+
+    public PartitionManager(PartitionRepository repository,
+                            FavoriteJdbcRepository favoriteJdbcRepository,
+                            ApplicationEventPublisher eventPublisher,
+                            TransactionTemplate transactionTemplate,
+                            @Value("${partitions.months-ahead:3}") int monthsAhead,
+                            @Value("${play-events.retention-months:13}") int playEventRetentionMonths,
+                            @Value("${favorites.retention-months:0}") int favoriteRetentionMonths) {
+        this.repository = repository;
+        this.favoriteJdbcRepository = favoriteJdbcRepository;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = transactionTemplate;
+        this.monthsAhead = monthsAhead;
+        this.playEventRetentionMonths = playEventRetentionMonths;
+        this.favoriteRetentionMonths = favoriteRetentionMonths;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${partitions.cron:0 0 3 * * *}")
+    public void maintainPartitions() {
+        LocalDateTime currentMonth = LocalDate.now().withDayOfMonth(1).atStartOfDay();
+        LocalDateTime lastMonth = currentMonth.plusMonths(monthsAhead);
+
+        int created = repository.createPartitions("favorite", currentMonth, lastMonth)
+                + repository.createPartitions("play_event", currentMonth, lastMonth);
+        int detached = favoriteRetentionMonths > 0
+                ? detachFavoritePartitionsBefore(currentMonth.minusMonths(favoriteRetentionMonths))
+                : 0;
+        int dropped = playEventRetentionMonths > 0
+                ? repository.dropPartitionsBefore("play_event", currentMonth.minusMonths(playEventRetentionMonths))
+                : 0;
+        log.info("Partitions maintained, {} created, {} favorite partitions detached, {} play event partitions dropped",
+                created, detached, dropped);
+    }
+
+    private int detachFavoritePartitionsBefore(LocalDateTime cutoff) {
+        List<String> partitions = repository.findPartitionsBefore("favorite", cutoff);
+        for (String partition : partitions) {
+            repository.detachPartition("favorite", partition);
+            log.info("Favorite partition {} detached, {} favorites published as deleted", partition, publishDeleted(partition));
+        }
+        return partitions.size();
+    }
+
+    private int publishDeleted(String partition) {
+        long afterId = 0;
+        int published = 0;
+        List<Favorite> chunk;
+        do {
+            long from = afterId;
+            chunk = transactionTemplate.execute(status -> {
+                List<Favorite> favorites = favoriteJdbcRepository.findDetached(partition, from, DETACHED_CHUNK_SIZE);
+                if (!favorites.isEmpty()) {
+                    eventPublisher.publishEvent(new FavoritesChangedEvent(favorites.stream().map(FavoriteChange::deleted).toList()));
+                }
+                return favorites;
+            });
+            if (!chunk.isEmpty()) {
+                afterId = chunk.get(chunk.size() - 1).getId();
+            }
+            published += chunk.size();
+        } while (chunk.size() == DETACHED_CHUNK_SIZE);
+        return published;
+    }
+}
@@ -0,0 +1,49 @@
+package cz.mendelu.ea.domain.favorite;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Maintenance of tables range-partitioned by month, see the SQL functions in the migrations.
+ */
+@Repository
+public class PartitionRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public PartitionRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public int createPartitions(String table, LocalDateTime from, LocalDateTime to) {
+        return jdbcTemplate.queryForObject("SELECT create_monthly_partitions(?, ?, ?)", Integer.class, table, from, to);
+    }
+
+    public int dropPartitionsBefore(String table, LocalDateTime cutoff) {
+        return jdbcTemplate.queryForObject("SELECT drop_monthly_partitions_before(?, ?)", Integer.class, table, cutoff);
+    }
+
+    /**
+     * @return the monthly partitions of the table ending at or before the cutoff, oldest first
+     */
+    public List<String> findPartitionsBefore(String table, LocalDateTime cutoff) {
+        return jdbcTemplate.queryForList("""
+                SELECT c.relname
+                FROM pg_inherits i
+                JOIN pg_class c ON c.oid = i.inhrelid
+                JOIN pg_class p ON p.oid = i.inhparent
+                WHERE p.relname = ? AND c.relname ~ ('^' || p.relname || '_[0-9]{6}$')
+                  AND to_date(right(c.relname, 6), 'YYYYMM') + interval '1 month' <= ?
+                ORDER BY c.relname
+                """, String.class, table, cutoff);
+    }
+
+    // a metadata-only operation, the detached table stays around for archiving; the names come
+    // from the catalog, see findPartitionsBefore
+    public void detachPartition(String table, String partition) {
+        jdbcTemplate.execute("ALTER TABLE %s DETACH PARTITION %s".formatted(table, partition));
+    }
+}
@@ -0,0 +1,33 @@
+package cz.mendelu.ea.domain.favorite;
+
+/**
+ * Snapshot of {@link PlayEventBuffer} counters.
+ *
+ * @param pendingEvents       play events waiting for the next flush
+ * @param pendingFavorites    distinct favorites among the pending play events
+ * @param capacity            pending play events that trigger a synchronous flush on the caller thread
+ * @param recorded            play events accepted since startup
+ * @param coalesced           play events merged into an already pending favorite
+ * @param flushes             completed flushes
+ * @param appendedEvents      rows appended to the play log by all flushes
+ * @param updatedRows         favorite rows updated by all flushes
+ * @param lastFlushEvents     play events written by the last flush
+ * @param lastFlushMillis     duration of the last flush
+ * @param failedFlushes       flushes that failed and were put back into the buffer
+ * @param backpressureFlushes flushes forced by a full buffer
+ */
+public record PlayBufferStats(
+        int pendingEvents,
+        int pendingFavorites,
+        int capacity,
+        long recorded,
+        long coalesced,
+        long flushes,
+        long appendedEvents,
+        long updatedRows,
+        int lastFlushEvents,
+        long lastFlushMillis,
+        long failedFlushes,
+        long backpressureFlushes
+) {
+}
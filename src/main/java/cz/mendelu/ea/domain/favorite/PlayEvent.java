@@ -0,0 +1,9 @@
+package cz.mendelu.ea.domain.favorite;
+
+import java.time.LocalDateTime;
+
+/**
+ * Single play of a favorite waiting in {@link PlayEventBuffer}.
+ */
+public record PlayEvent(Long favoriteId, LocalDateTime playedAt) {
+}
@@ -0,0 +1,281 @@
+package cz.mendelu.ea.domain.favorite;
+
+import cz.mendelu.ea.domain.favorite.dto.FavoriteEntryDTO;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Write-behind buffer for play events.
+ *
+ * Plays are the most frequent write in the system. Each stripe of the buffer keeps the raw plays
+ * for the append-only {@code play_event} log and, coalesced per favorite, the latest timestamp for
+ * {@code last_played}. A scheduled flusher writes both in one transaction using batched statements
+ * and publishes the appended plays as {@link PlaysRecordedEvent} and the moved {@code last_played}
+ * values as {@link FavoriteChange.Type#PLAYED} changes.
+ * When the buffer reaches its capacity the recording thread flushes synchronously, which slows
+ * producers down instead of growing memory without bounds. Plays of deleted favorites leave the
+ * log in the deleting transaction and are published as {@link PlaysDeletedEvent}; buffered ones
+ * are skipped by the flush.
+ */
+@Component
+@Slf4j
+public class PlayEventBuffer {
+
+    private final FavoriteJdbcRepository jdbcRepository;
+    private final PlayEventRepository playEventRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Stripe[] stripes;
+    private final int capacity;
+
+    // serializes flushes, producers hitting the capacity wait here
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final AtomicInteger pendingFavorites = new AtomicInteger();
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong updatedRows = new AtomicLong();
+    private final AtomicLong appendedEvents = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong backpressureFlushes = new AtomicLong();
+    private volatile int lastFlushEvents;
+    private volatile long lastFlushMillis;
+
+    public PlayEventBuffer(FavoriteJdbcRepository jdbcRepository,
+                           PlayEventRepository playEventRepository,
+                           PlatformTransactionManager transactionManager,
+                           ApplicationEventPublisher eventPublisher,
+                           @Value("${favorites.play-buffer.stripes:16}") int stripeCount,
+                           @Value("${favorites.play-buffer.capacity:100000}") int capacity) {
+        this.jdbcRepository = jdbcRepository;
+        this.playEventRepository = playEventRepository;
+        // a backpressure flush may run in afterCommit of the recording transaction, where only a
+        // new transaction commits reliably
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.eventPublisher = eventPublisher;
+        this.capacity = capacity;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Records that a favorite was played.
+     */
+    public void record(Long favoriteId, LocalDateTime playedAt) {
+        recordAll(List.of(new PlayEvent(favoriteId, playedAt)));
+    }
+
+    /**
+     * Records plays. Inside a transaction the plays are buffered only after it commits, so a flush
+     * never sees plays of favorites that are not visible to it yet.
+     */
+    public void recordAll(List<PlayEvent> events) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    events.forEach(PlayEventBuffer.this::buffer);
+                }
+            });
+        } else {
+            events.forEach(this::buffer);
+        }
+    }
+
+    private void buffer(PlayEvent event) {
+        Long favoriteId = event.favoriteId();
+        LocalDateTime playedAt = event.playedAt();
+        Stripe stripe = stripes[Math.floorMod(favoriteId.hashCode(), stripes.length)];
+        boolean added;
+        stripe.lock.lock();
+        try {
+            stripe.events.add(event);
+            LocalDateTime previous = stripe.latest.get(favoriteId);
+            added = previous == null;
+            if (added || playedAt.isAfter(previous)) {
+                stripe.latest.put(favoriteId, playedAt);
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+        recorded.incrementAndGet();
+
+        if (added) {
+            pendingFavorites.incrementAndGet();
+        } else {
+            coalesced.incrementAndGet();
+        }
+        if (pendingEvents.incrementAndGet() >= capacity) {
+            backpressureFlushes.incrementAndGet();
+            flush();
+        }
+    }
+
+    @EventListener
+    public void onFavoritesChanged(FavoritesChangedEvent event) {
+        List<Long> deletedIds = event.changes().stream()
+                .filter(change -> change.type() == FavoriteChange.Type.DELETED)
+                .map(FavoriteChange::favoriteId)
+                .toList();
+        if (deletedIds.isEmpty()) {
+            return;
+        }
+        List<RecordedPlay> deleted = playEventRepository.deleteByFavoriteIds(deletedIds);
+        if (!deleted.isEmpty()) {
+            eventPublisher.publishEvent(new PlaysDeletedEvent(deleted));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${favorites.play-buffer.flush-interval-ms:1000}")
+    public void scheduledFlush() {
+        flush();
+    }
+
+    @PreDestroy
+    public void drain() {
+        flush();
+        log.info("Play event buffer drained, {} events left pending", pendingEvents.get());
+    }
+
+    /**
+     * Appends all pending plays to the play log and updates {@code last_played}, both in one new
+     * transaction. Plays of a failed flush are put back into the buffer, so they are retried by
+     * the next one.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            List<PlayEvent> events = new ArrayList<>();
+            Map<Long, LocalDateTime> latest = new HashMap<>();
+            for (Stripe stripe : stripes) {
+                stripe.lock.lock();
+                try {
+                    if (stripe.events.isEmpty()) {
+                        continue;
+                    }
+                    events.addAll(stripe.events);
+                    latest.putAll(stripe.latest);
+                    stripe.events = new ArrayList<>();
+                    stripe.latest = new HashMap<>();
+                } finally {
+                    stripe.lock.unlock();
+                }
+            }
+            if (events.isEmpty()) {
+                return;
+            }
+            pendingEvents.addAndGet(-events.size());
+            pendingFavorites.addAndGet(-latest.size());
+
+            long start = System.currentTimeMillis();
+            try {
+                // flushes only counts committed flushes, so this one is the next
+                long flush = flushes.get() + 1;
+                int[] rows = transactionTemplate.execute(status -> {
+                    List<RecordedPlay> appended = playEventRepository.append(events);
+                    if (!appended.isEmpty()) {
+                        eventPublisher.publishEvent(new PlaysRecordedEvent(flush, appended));
+                    }
+                    List<FavoriteEntryDTO> played = jdbcRepository.updateLastPlayed(latest);
+                    if (!played.isEmpty()) {
+                        eventPublisher.publishEvent(new FavoritesChangedEvent(
+                                played.stream().map(FavoriteChange::played).toList()));
+                    }
+                    return new int[]{appended.size(), played.size()};
+                });
+                appendedEvents.addAndGet(rows[0]);
+                updatedRows.addAndGet(rows[1]);
+                flushes.incrementAndGet();
+                lastFlushEvents = events.size();
+                lastFlushMillis = System.currentTimeMillis() - start;
+            } catch (RuntimeException e) {
+                failedFlushes.incrementAndGet();
+                log.error("Flushing {} play events failed, keeping them for the next flush", events.size(), e);
+                events.forEach(this::restore);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Runs {@code snapshot} while no flush runs and returns the sequence number of the last
+     * committed flush. A repeatable read transaction taking its snapshot there sees the plays of
+     * exactly the flushes up to that number, and the {@link PlaysRecordedEvent}s of those flushes
+     * have been published already.
+     */
+    public long lastFlushBefore(Runnable snapshot) {
+        flushLock.lock();
+        try {
+            snapshot.run();
+            return flushes.get();
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    public PlayBufferStats getStats() {
+        return new PlayBufferStats(
+                pendingEvents.get(),
+                pendingFavorites.get(),
+                capacity,
+                recorded.get(),
+                coalesced.get(),
+                flushes.get(),
+                appendedEvents.get(),
+                updatedRows.get(),
+                lastFlushEvents,
+                lastFlushMillis,
+                failedFlushes.get(),
+                backpressureFlushes.get()
+        );
+    }
+
+    private void restore(PlayEvent event) {
+        Stripe stripe = stripes[Math.floorMod(event.favoriteId().hashCode(), stripes.length)];
+        stripe.lock.lock();
+        try {
+            stripe.events.add(event);
+            LocalDateTime newer = stripe.latest.get(event.favoriteId());
+            if (newer == null) {
+                stripe.latest.put(event.favoriteId(), event.playedAt());
+                pendingFavorites.incrementAndGet();
+            } else if (event.playedAt().isAfter(newer)) {
+                stripe.latest.put(event.favoriteId(), event.playedAt());
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+        pendingEvents.incrementAndGet();
+    }
+
+    private static class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        List<PlayEvent> events = new ArrayList<>();
+        Map<Long, LocalDateTime> latest = new HashMap<>();
+    }
+}
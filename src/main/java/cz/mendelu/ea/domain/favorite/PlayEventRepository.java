@@ -0,0 +1,88 @@
+package cz.mendelu.ea.domain.favorite;
+
+import cz.mendelu.ea.utils.batch.ChunkedValues;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Write paths of the {@code play_event} log.
+ */
+@Repository
+public class PlayEventRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public PlayEventRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Appends plays in multi-row inserts. User and track are copied from the favorite, so the log
+     * can be aggregated without joining {@code favorite}. Plays of unknown favorites are skipped.
+     * The favorites are locked {@code FOR KEY SHARE}, so a concurrent delete of a favorite either
+     * waits for the appended plays to commit and deletes them too, or commits first and its plays
+     * are skipped.
+     *
+     * @return the appended plays
+     */
+    public List<RecordedPlay> append(List<PlayEvent> events) {
+        List<RecordedPlay> appended = new ArrayList<>(events.size());
+        ChunkedValues.forEachChunk(events, "(CAST(? AS bigint), CAST(? AS timestamp))",
+                (event, args) -> {
+                    args.add(event.favoriteId());
+                    args.add(event.playedAt());
+                },
+                (values, args) -> appended.addAll(jdbcTemplate.query("""
+                        WITH appended AS (
+                            INSERT INTO play_event (favorite_id, user_id, track_id, played_at)
+                            SELECT f.id, f.user_id, f.track_id, v.played_at
+                            FROM (VALUES %s) AS v(favorite_id, played_at)
+                            JOIN favorite f ON f.id = v.favorite_id
+                            FOR KEY SHARE OF f
+                            RETURNING user_id, track_id, played_at
+                        )
+                        SELECT a.track_id, t.track_genre, u.country, a.played_at
+                        FROM appended a
+                        JOIN track t ON t.track_id = a.track_id
+                        LEFT JOIN users u ON u.id = a.user_id
+                        """.formatted(values), recordedPlayRowMapper(), args)));
+        return appended;
+    }
+
+    /**
+     * Deletes the plays of the favorites in multi-row statements. Plays of a favorite are found
+     * through {@code idx_play_event_favorite_id} in every partition, as they may be older than
+     * the favorite's creation when imported.
+     *
+     * @return the deleted plays
+     */
+    public List<RecordedPlay> deleteByFavoriteIds(List<Long> favoriteIds) {
+        List<RecordedPlay> deleted = new ArrayList<>();
+        ChunkedValues.forEachChunk(favoriteIds, "?", (favoriteId, args) -> args.add(favoriteId),
+                (placeholders, args) -> deleted.addAll(jdbcTemplate.query("""
+                        WITH deleted AS (
+                            DELETE FROM play_event
+                            WHERE favorite_id IN (%s)
+                            RETURNING user_id, track_id, played_at
+                        )
+                        SELECT d.track_id, t.track_genre, u.country, d.played_at
+                        FROM deleted d
+                        JOIN track t ON t.track_id = d.track_id
+                        LEFT JOIN users u ON u.id = d.user_id
+                        """.formatted(placeholders), recordedPlayRowMapper(), args)));
+        return deleted;
+    }
+
+    private static RowMapper<RecordedPlay> recordedPlayRowMapper() {
+        return (rs, rowNum) -> new RecordedPlay(
+                rs.getString("track_id"),
+                rs.getString("track_genre"),
+                rs.getString("country"),
+                rs.getObject("played_at", LocalDateTime.class));
+    }
+}
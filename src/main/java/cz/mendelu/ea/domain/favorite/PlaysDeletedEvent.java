@@ -0,0 +1,9 @@
+package cz.mendelu.ea.domain.favorite;
+
+import java.util.List;
+
+/**
+ * Published inside the transaction deleting favorites with the plays deleted together with them.
+ */
+public record PlaysDeletedEvent(List<RecordedPlay> plays) {
+}
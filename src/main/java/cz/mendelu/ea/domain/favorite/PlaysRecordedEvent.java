@@ -0,0 +1,11 @@
+package cz.mendelu.ea.domain.favorite;
+
+import java.util.List;
+
+/**
+ * Published inside the flush transaction of {@link PlayEventBuffer} with the plays it appended.
+ *
+ * @param flush sequence number of the flush, increasing in commit order
+ */
+public record PlaysRecordedEvent(long flush, List<RecordedPlay> plays) {
+}
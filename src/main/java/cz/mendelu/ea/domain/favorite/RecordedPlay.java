@@ -0,0 +1,11 @@
+package cz.mendelu.ea.domain.favorite;
+
+import java.time.LocalDateTime;
+
+/**
+ * Play appended to the {@code play_event} log, with the attributes trending counters group by.
+ *
+ * @param country country of the user, null when the user is gone
+ */
+public record RecordedPlay(String trackId, String trackGenre, String country, LocalDateTime playedAt) {
+}
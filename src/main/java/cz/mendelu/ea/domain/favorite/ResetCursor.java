@@ -0,0 +1,31 @@
+package cz.mendelu.ea.domain.favorite;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position in a paged reset of a user's library. The reset lists the live favorites up to the
+ * version it started at, ordered by version, and continues with the ones strictly after
+ * {@code afterVersion}, so every page is one index range scan.
+ *
+ * @param resetVersion version of the library when the reset started, the client syncs changes
+ *                     from it once the reset is complete
+ */
+public record ResetCursor(long resetVersion, long afterVersion) {
+
+    /**
+     * @throws IllegalArgumentException when the token was not produced by {@link #encode()}
+     */
+    public static ResetCursor decode(String token) {
+        String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split("\\|");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+        return new ResetCursor(Long.parseLong(parts[0]), Long.parseLong(parts[1]));
+    }
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((resetVersion + "|" + afterVersion).getBytes(StandardCharsets.UTF_8));
+    }
+}
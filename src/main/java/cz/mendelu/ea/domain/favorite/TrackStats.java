@@ -0,0 +1,11 @@
+package cz.mendelu.ea.domain.favorite;
+
+/**
+ * Favorite counters of a track kept in the {@code track_stats} table.
+ */
+public record TrackStats(String trackId, long favoriteCount, long ratingSum, long ratingCount) {
+
+    public double averageRating() {
+        return ratingCount == 0 ? 0.0 : (double) ratingSum / ratingCount;
+    }
+}
@@ -0,0 +1,142 @@
+package cz.mendelu.ea.domain.favorite;
+
+import cz.mendelu.ea.domain.favorite.dto.GenreCountDTO;
+import cz.mendelu.ea.domain.favorite.dto.GenreRatingDTO;
+import cz.mendelu.ea.domain.favorite.dto.TrackRatingDTO;
+import cz.mendelu.ea.utils.batch.ChunkedValues;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Per-track favorite counters, so track aggregations read one row per track instead of every
+ * favorite.
+ */
+@Repository
+public class TrackStatsRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public TrackStatsRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Adds the deltas to the counters of their tracks, creating missing rows. Deltas must be
+     * unique per track; they are written in the given order, so callers sorting them by track id
+     * always lock the rows in the same order.
+     */
+    public void add(List<TrackStats> deltas) {
+        ChunkedValues.forEachChunk(deltas, "(?, ?, ?, ?)",
+                (delta, args) -> {
+                    args.add(delta.trackId());
+                    args.add(delta.favoriteCount());
+                    args.add(delta.ratingSum());
+                    args.add(delta.ratingCount());
+                },
+                (values, args) -> jdbcTemplate.update("""
+                        INSERT INTO track_stats (track_id, favorite_count, rating_sum, rating_count)
+                        VALUES %s
+                        ON CONFLICT (track_id) DO UPDATE SET
+                            favorite_count = track_stats.favorite_count + EXCLUDED.favorite_count,
+                            rating_sum = track_stats.rating_sum + EXCLUDED.rating_sum,
+                            rating_count = track_stats.rating_count + EXCLUDED.rating_count
+                        """.formatted(values), args));
+    }
+
+    /**
+     * Recomputes the counters from the favorite table and fixes the rows that drifted. Writers
+     * of favorites wait for the lock until the surrounding transaction commits, so no concurrent
+     * delta is overwritten by the recomputed values.
+     *
+     * @return number of repaired rows
+     */
+    public int reconcile() {
+        jdbcTemplate.execute("LOCK TABLE track_stats IN SHARE ROW EXCLUSIVE MODE");
+        return jdbcTemplate.queryForObject("""
+                WITH actual AS (
+                    SELECT track_id, COUNT(*) AS favorite_count, SUM(rating) AS rating_sum, COUNT(rating) AS rating_count
+                    FROM favorite
+                    GROUP BY track_id
+                ), repaired AS (
+                    INSERT INTO track_stats (track_id, favorite_count, rating_sum, rating_count)
+                    SELECT track_id, favorite_count, rating_sum, rating_count FROM actual
+                    ON CONFLICT (track_id) DO UPDATE SET
+                        favorite_count = EXCLUDED.favorite_count,
+                        rating_sum = EXCLUDED.rating_sum,
+                        rating_count = EXCLUDED.rating_count
+                    WHERE (track_stats.favorite_count, track_stats.rating_sum, track_stats.rating_count)
+                          IS DISTINCT FROM (EXCLUDED.favorite_count, EXCLUDED.rating_sum, EXCLUDED.rating_count)
+                    RETURNING 1
+                ), removed AS (
+                    DELETE FROM track_stats s
+                    WHERE NOT EXISTS (SELECT 1 FROM actual a WHERE a.track_id = s.track_id)
+                    RETURNING 1
+                )
+                SELECT (SELECT COUNT(*) FROM repaired) + (SELECT COUNT(*) FROM removed)
+                """, Integer.class);
+    }
+
+    /**
+     * @return counters of all favorited tracks, most favorited first
+     */
+    public List<TrackStats> findAll() {
+        return jdbcTemplate.query("""
+                SELECT track_id, favorite_count, rating_sum, rating_count
+                FROM track_stats
+                WHERE favorite_count > 0
+                ORDER BY favorite_count DESC, track_id
+                """, trackStatsRowMapper());
+    }
+
+    public List<TrackRatingDTO> findAverageRatingByTrack() {
+        return jdbcTemplate.query("""
+                SELECT s.track_id, t.track_name, s.favorite_count,
+                       CAST(s.rating_sum AS double precision) / s.rating_count AS average_rating
+                FROM track_stats s
+                JOIN track t ON t.track_id = s.track_id
+                WHERE s.rating_count > 0
+                ORDER BY s.favorite_count DESC, s.track_id
+                """,
+                (rs, rowNum) -> new TrackRatingDTO(
+                        rs.getString("track_id"),
+                        rs.getString("track_name"),
+                        rs.getLong("favorite_count"),
+                        rs.getDouble("average_rating")));
+    }
+
+    // tracks of a genre are weighted by their number of ratings
+    public List<GenreRatingDTO> findAverageRatingByGenre() {
+        return jdbcTemplate.query("""
+                SELECT t.track_genre, CAST(SUM(s.rating_sum) AS double precision) / SUM(s.rating_count) AS average_rating
+                FROM track_stats s
+                JOIN track t ON t.track_id = s.track_id
+                WHERE s.rating_count > 0
+                GROUP BY t.track_genre
+                ORDER BY t.track_genre
+                """,
+                (rs, rowNum) -> new GenreRatingDTO(rs.getString("track_genre"), rs.getDouble("average_rating")));
+    }
+
+    public List<GenreCountDTO> countFavoritesByGenre() {
+        return jdbcTemplate.query("""
+                SELECT t.track_genre, SUM(s.favorite_count) AS favorite_count
+                FROM track_stats s
+                JOIN track t ON t.track_id = s.track_id
+                WHERE s.favorite_count > 0
+                GROUP BY t.track_genre
+                ORDER BY t.track_genre
+                """,
+                (rs, rowNum) -> new GenreCountDTO(rs.getString("track_genre"), rs.getLong("favorite_count")));
+    }
+
+    private RowMapper<TrackStats> trackStatsRowMapper() {
+        return (rs, rowNum) -> new TrackStats(
+                rs.getString("track_id"),
+                rs.getLong("favorite_count"),
+                rs.getLong("rating_sum"),
+                rs.getLong("rating_count"));
+    }
+}
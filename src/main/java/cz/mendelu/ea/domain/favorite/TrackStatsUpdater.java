@@ -0,0 +1,75 @@
+package cz.mendelu.ea.domain.favorite;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps {@code track_stats} in step with the favorite table.
+ *
+ * Changes are applied synchronously in the transaction that writes the favorites, one upsert per
+ * affected track. Writes bypassing {@link FavoriteService} are repaired by the scheduled
+ * reconciliation.
+ */
+@Component
+@Slf4j
+public class TrackStatsUpdater {
+
+    private final TrackStatsRepository repository;
+    private final TransactionTemplate transactionTemplate;
+
+    public TrackStatsUpdater(TrackStatsRepository repository, TransactionTemplate transactionTemplate) {
+        this.repository = repository;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    @EventListener
+    public void onFavoritesChanged(FavoritesChangedEvent event) {
+        Map<String, long[]> deltas = new HashMap<>();
+        for (FavoriteChange change : event.changes()) {
+            if (change.type() == FavoriteChange.Type.PLAYED) {
+                continue;
+            }
+            long[] delta = deltas.computeIfAbsent(change.trackId(), trackId -> new long[3]);
+            switch (change.type()) {
+                case CREATED -> {
+                    delta[0]++;
+                    delta[1] += change.rating();
+                    delta[2]++;
+                }
+                case UPDATED -> delta[1] += change.rating() - change.previousRating();
+                case DELETED -> {
+                    delta[0]--;
+                    delta[1] -= change.rating();
+                    delta[2]--;
+                }
+            }
+        }
+
+        List<TrackStats> changed = deltas.entrySet().stream()
+                .filter(entry -> entry.getValue()[0] != 0 || entry.getValue()[1] != 0 || entry.getValue()[2] != 0)
+                .map(entry -> new TrackStats(entry.getKey(), entry.getValue()[0], entry.getValue()[1], entry.getValue()[2]))
+                .sorted(Comparator.comparing(TrackStats::trackId))
+                .toList();
+        if (!changed.isEmpty()) {
+            repository.add(changed);
+        }
+    }
+
+    @Scheduled(cron = "${track-stats.reconcile-cron:0 30 3 * * *}")
+    public void reconcile() {
+        int repaired = transactionTemplate.execute(status -> repository.reconcile());
+        if (repaired > 0) {
+            log.warn("Track stats reconciled, {} drifted rows repaired", repaired);
+        } else {
+            log.info("Track stats reconciled, no drift found");
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package cz.mendelu.ea.domain.favorite;
+
+import cz.mendelu.ea.domain.favorite.dto.FavoriteEntryDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+
+/**
+ * Bounded in-memory cache of user libraries, newest favorite first.
+ *
+ * Committed favorite changes are applied to the cached libraries in the committing thread, before
+ * the writing request returns, so users always read their own writes. Plays update
+ * {@code lastPlayed} as soon as they are recorded, and every flush of the play buffer applies the
+ * flushed values again as {@link FavoriteChange.Type#PLAYED} changes, which refreshes libraries
+ * loaded from the database between a play and its flush. Least recently read libraries are
+ * evicted once the cache holds more than {@code maxEntries} favorites; libraries larger than
+ * {@code maxEntriesPerUser} are only remembered as too large and read from the database.
+ */
+@Component
+public class UserLibraryCache {
+
+    public static final Comparator<FavoriteEntryDTO> NEWEST_FIRST =
+            Comparator.comparing(FavoriteEntryDTO::createdAt).thenComparing(FavoriteEntryDTO::id).reversed();
+
+    private static final Library TOO_LARGE = new Library(List.of(), true);
+
+    private final int maxEntries;
+    private final int maxEntriesPerUser;
+
+    // guards all fields below, libraries are immutable lists replaced on every change
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, Library> libraries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, Long> userIdByFavoriteId = new HashMap<>();
+    // bumped by every write of the users hashed to the slot, a load that raced with one is not cached
+    private final long[] generations = new long[1024];
+    private int entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public UserLibraryCache(@Value("${favorites.library-cache.max-entries:200000}") int maxEntries,
+                            @Value("${favorites.library-cache.max-entries-per-user:1000}") int maxEntriesPerUser) {
+        this.maxEntries = maxEntries;
+        this.maxEntriesPerUser = maxEntriesPerUser;
+    }
+
+    /**
+     * Returns the cached library of the user, loading it on a miss.
+     *
+     * @param loader loads at most the given number of the user's newest favorites, newest first
+     * @return the whole library, empty when it is too large to be cached
+     */
+    public Optional<List<FavoriteEntryDTO>> getLibrary(Long userId, IntFunction<List<FavoriteEntryDTO>> loader) {
+        long generation;
+        lock.lock();
+        try {
+            Library library = libraries.get(userId);
+            if (library != null) {
+                hits.incrementAndGet();
+                return library.tooLarge() ? Optional.empty() : Optional.of(library.entries());
+            }
+            generation = generations[slot(userId)];
+        } finally {
+            lock.unlock();
+        }
+        misses.incrementAndGet();
+
+        List<FavoriteEntryDTO> loaded = loader.apply(maxEntriesPerUser + 1);
+        Library library = loaded.size() > maxEntriesPerUser ? TOO_LARGE : new Library(List.copyOf(loaded), false);
+        lock.lock();
+        try {
+            if (generations[slot(userId)] == generation && !libraries.containsKey(userId)) {
+                put(userId, library);
+                evict();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return library.tooLarge() ? Optional.empty() : Optional.of(library.entries());
+    }
+
+    /**
+     * Applies committed changes to the cached libraries. Runs right away when there is no
+     * transaction.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFavoritesChanged(FavoritesChangedEvent event) {
+        lock.lock();
+        try {
+            for (FavoriteChange change : event.changes()) {
+                apply(change);
+            }
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Moves {@code lastPlayed} of a cached favorite forward, before the play reaches the database.
+     *
+     * @return whether the favorite is cached
+     */
+    public boolean recordPlay(Long favoriteId, LocalDateTime playedAt) {
+        lock.lock();
+        try {
+            Long userId = userIdByFavoriteId.get(favoriteId);
+            if (userId == null) {
+                return false;
+            }
+            List<FavoriteEntryDTO> updated = new ArrayList<>(libraries.get(userId).entries());
+            updated.replaceAll(entry -> entry.id().equals(favoriteId) && entry.lastPlayed().isBefore(playedAt)
+                    ? entry.withLastPlayed(playedAt)
+                    : entry);
+            libraries.put(userId, new Library(List.copyOf(updated), false));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public LibraryCacheStats getStats() {
+        lock.lock();
+        try {
+            return new LibraryCacheStats(libraries.size(), entries, maxEntries, maxEntriesPerUser,
+                    hits.get(), misses.get(), evictions.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void apply(FavoriteChange change) {
+        Long userId = change.userId();
+        generations[slot(userId)]++;
+        Library library = libraries.get(userId);
+        if (library == null) {
+            return;
+        }
+        if (library.tooLarge()) {
+            // a delete may make the library fit again, the next read finds out
+            if (change.type() == FavoriteChange.Type.DELETED) {
+                remove(userId);
+            }
+            return;
+        }
+
+        FavoriteEntryDTO favorite = change.favorite();
+        List<FavoriteEntryDTO> updated = new ArrayList<>(library.entries());
+        switch (change.type()) {
+            case CREATED -> {
+                int index = Collections.binarySearch(updated, favorite, NEWEST_FIRST);
+                if (index < 0) {
+                    updated.add(-index - 1, favorite);
+                }
+            }
+            // plays not flushed yet are newer than lastPlayed returned by the update
+            case UPDATED -> updated.replaceAll(entry -> entry.id().equals(favorite.id())
+                    ? favorite.withLastPlayed(max(entry.lastPlayed(), favorite.lastPlayed()))
+                    : entry);
+            case DELETED -> updated.removeIf(entry -> entry.id().equals(favorite.id()));
+            case PLAYED -> updated.replaceAll(entry -> entry.id().equals(favorite.id())
+                    ? entry.withLastPlayed(max(entry.lastPlayed(), favorite.lastPlayed()))
+                    : entry);
+        }
+
+        remove(userId);
+        put(userId, updated.size() > maxEntriesPerUser ? TOO_LARGE : new Library(List.copyOf(updated), false));
+    }
+
+    private void put(Long userId, Library library) {
+        libraries.put(userId, library);
+        library.entries().forEach(entry -> userIdByFavoriteId.put(entry.id(), userId));
+        entries += library.weight();
+    }
+
+    private void remove(Long userId) {
+        Library library = libraries.remove(userId);
+        if (library != null) {
+            library.entries().forEach(entry -> userIdByFavoriteId.remove(entry.id()));
+            entries -= library.weight();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Long, Library>> eldest = libraries.entrySet().iterator();
+        while (entries > maxEntries && eldest.hasNext()) {
+            Library library = eldest.next().getValue();
+            eldest.remove();
+            library.entries().forEach(entry -> userIdByFavoriteId.remove(entry.id()));
+            entries -= library.weight();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private int slot(Long userId) {
+        return Math.floorMod(userId.hashCode(), generations.length);
+    }
+
+    private static LocalDateTime max(LocalDateTime a, LocalDateTime b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    private record Library(List<FavoriteEntryDTO> entries, boolean tooLarge) {
+
+        // a library marked as too large still takes a slot
+        int weight() {
+            return Math.max(entries.size(), 1);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package cz.mendelu.ea.domain.favorite.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Latest change of a favorite in a user's change log. Tombstones of deleted favorites only carry
+ * the id and version.
+ */
+public record FavoriteChangeDTO(Long favoriteId, Long version, Boolean deleted, String trackId, Integer rating,
+                                String comment, Boolean isPublic, LocalDateTime createdAt, LocalDateTime lastPlayed) {
+}
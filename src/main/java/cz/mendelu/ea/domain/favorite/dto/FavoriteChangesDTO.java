@@ -0,0 +1,17 @@
+package cz.mendelu.ea.domain.favorite.dto;
+
+import java.util.List;
+
+/**
+ * Changes of a user's library since the version the client already has.
+ *
+ * @param reset      the client's version is too old or unknown, {@code changes} hold the whole
+ *                   library, page by page, and replace the client's copy
+ * @param nextSince  version to pass as {@code since} in the next request
+ * @param hasMore    more changes follow, request them right away with {@code nextSince}, or with
+ *                   {@code nextCursor} while a reset continues
+ * @param nextCursor cursor of the next page of a reset, null otherwise
+ */
+public record FavoriteChangesDTO(Long userId, Boolean reset, List<FavoriteChangeDTO> changes, Long nextSince,
+                                 Boolean hasMore, String nextCursor) {
+}
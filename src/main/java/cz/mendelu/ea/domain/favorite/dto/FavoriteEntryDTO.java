@@ -0,0 +1,23 @@
+package cz.mendelu.ea.domain.favorite.dto;
+
+import cz.mendelu.ea.domain.favorite.Favorite;
+
+import java.time.LocalDateTime;
+
+/**
+ * Compact favorite with plain user and track ids instead of nested entities.
+ */
+public record FavoriteEntryDTO(Long id, Long userId, String trackId, Integer rating, String comment,
+                               Boolean isPublic, LocalDateTime createdAt, LocalDateTime lastPlayed) {
+
+    // user and track are usually uninitialized references, reading their ids does not load them
+    public static FavoriteEntryDTO of(Favorite favorite) {
+        return new FavoriteEntryDTO(favorite.getId(), favorite.getUser().getId(), favorite.getTrack().getTrackId(),
+                favorite.getRating(), favorite.getComment(), favorite.getIsPublic(), favorite.getCreatedAt(),
+                favorite.getLastPlayed());
+    }
+
+    public FavoriteEntryDTO withLastPlayed(LocalDateTime lastPlayed) {
+        return new FavoriteEntryDTO(id, userId, trackId, rating, comment, isPublic, createdAt, lastPlayed);
+    }
+}
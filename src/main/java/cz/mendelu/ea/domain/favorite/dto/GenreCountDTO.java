@@ -0,0 +1,7 @@
+package cz.mendelu.ea.domain.favorite.dto;
+
+/**
+ * Number of favorites of all tracks in a genre.
+ */
+public record GenreCountDTO(String genre, Long count) {
+}
@@ -0,0 +1,7 @@
+package cz.mendelu.ea.domain.favorite.dto;
+
+/**
+ * Average rating of the favorites of all tracks in a genre.
+ */
+public record GenreRatingDTO(String genre, Double averageRating) {
+}
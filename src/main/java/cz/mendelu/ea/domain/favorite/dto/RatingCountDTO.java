@@ -0,0 +1,7 @@
+package cz.mendelu.ea.domain.favorite.dto;
+
+/**
+ * Number of favorites with the given rating.
+ */
+public record RatingCountDTO(Integer rating, Long count) {
+}
@@ -0,0 +1,12 @@
+package cz.mendelu.ea.domain.favorite.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Favorite among the best rated ones of its track.
+ *
+ * @param rank position within the track, starting at 1
+ */
+public record TopRatedFavoriteDTO(String trackId, Integer rank, Long favoriteId, Long userId, Integer rating,
+                                  String comment, LocalDateTime createdAt) {
+}
@@ -0,0 +1,7 @@
+package cz.mendelu.ea.domain.favorite.dto;
+
+/**
+ * Average rating of the favorites of one track.
+ */
+public record TrackRatingDTO(String trackId, String trackName, Long favoriteCount, Double averageRating) {
+}
@@ -0,0 +1,56 @@
+package cz.mendelu.ea.domain.statistics;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Aggregations over favorites joined with their users and tracks. Every report reads the join
+ * once, all of its aggregates are computed by the same grouped scan.
+ */
+@Repository
+public class FavoriteStatisticsRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FavoriteStatisticsRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Counts favorites by country of the user and genre of the track, and averages danceability of
+     * favorited tracks by country, in one scan. Countries whose users have no favorites get an
+     * empty genre count and no average.
+     */
+    public UserPreferences findPreferencesByCountry() {
+        Map<String, Map<String, Long>> genreCounts = new HashMap<>();
+        Map<String, Double> averageDanceability = new HashMap<>();
+        jdbcTemplate.query("""
+                SELECT u.country, t.track_genre, GROUPING(t.track_genre) AS all_genres,
+                       COUNT(f.id) AS favorites, AVG(t.danceability) AS average_danceability
+                FROM users u
+                LEFT JOIN favorite f ON f.user_id = u.id
+                LEFT JOIN track t ON t.track_id = f.track_id
+                GROUP BY GROUPING SETS ((u.country, t.track_genre), (u.country))
+                """,
+                rs -> {
+                    String country = rs.getString("country");
+                    Map<String, Long> countryGenreCounts = genreCounts.computeIfAbsent(country, key -> new HashMap<>());
+                    if (rs.getInt("all_genres") == 1) {
+                        Double average = rs.getObject("average_danceability", Double.class);
+                        if (average != null) {
+                            averageDanceability.put(country, average);
+                        }
+                    } else if (rs.getLong("favorites") > 0) {
+                        countryGenreCounts.put(rs.getString("track_genre"), rs.getLong("favorites"));
+                    }
+                });
+        return new UserPreferences(genreCounts, averageDanceability);
+    }
+
+    public record UserPreferences(Map<String, Map<String, Long>> genreCountsByCountry,
+                                  Map<String, Double> averageDanceabilityByCountry) {
+    }
+}
@@ -0,0 +1,180 @@
+package cz.mendelu.ea.domain.statistics;
+
+import cz.mendelu.ea.domain.statistics.dto.TrendingStatsDTO;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregations over the {@code play_event} log. Every query is bounded by {@code played_at},
+ * so PostgreSQL only scans the partitions covering the requested window.
+ */
+@Repository
+public class PlayStatisticsRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public PlayStatisticsRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public Map<LocalDate, Long> countPlaysByDay(LocalDateTime from, LocalDateTime to) {
+        Map<LocalDate, Long> result = new HashMap<>();
+        jdbcTemplate.query("""
+                SELECT CAST(played_at AS date) AS day, COUNT(*) AS plays
+                FROM play_event
+                WHERE played_at > ? AND played_at <= ?
+                GROUP BY 1
+                """,
+                rs -> {
+                    result.put(rs.getObject("day", LocalDate.class), rs.getLong("plays"));
+                },
+                from, to);
+        return result;
+    }
+
+    public Map<Integer, Long> countPlaysByHour(LocalDateTime from, LocalDateTime to) {
+        Map<Integer, Long> result = new HashMap<>();
+        jdbcTemplate.query("""
+                SELECT CAST(EXTRACT(HOUR FROM played_at) AS int) AS hour, COUNT(*) AS plays
+                FROM play_event
+                WHERE played_at > ? AND played_at <= ?
+                GROUP BY 1
+                """,
+                rs -> {
+                    result.put(rs.getInt("hour"), rs.getLong("plays"));
+                },
+                from, to);
+        return result;
+    }
+
+    public Map<DayOfWeek, Long> countPlaysByDayOfWeek(LocalDateTime from, LocalDateTime to) {
+        Map<DayOfWeek, Long> result = new HashMap<>();
+        jdbcTemplate.query("""
+                SELECT CAST(EXTRACT(ISODOW FROM played_at) AS int) AS day_of_week, COUNT(*) AS plays
+                FROM play_event
+                WHERE played_at > ? AND played_at <= ?
+                GROUP BY 1
+                """,
+                rs -> {
+                    result.put(DayOfWeek.of(rs.getInt("day_of_week")), rs.getLong("plays"));
+                },
+                from, to);
+        return result;
+    }
+
+    public List<TrendingStatsDTO.TrackWithCount> countPlaysByTrack(LocalDateTime from, LocalDateTime to) {
+        return jdbcTemplate.query("""
+                SELECT t.track_id, t.track_name, t.artists, t.track_genre, t.popularity, p.plays
+                FROM (
+                    SELECT track_id, COUNT(*) AS plays
+                    FROM play_event
+                    WHERE played_at > ? AND played_at <= ?
+                    GROUP BY track_id
+                ) p
+                JOIN track t ON t.track_id = p.track_id
+                """,
+                (rs, rowNum) -> {
+                    var trackInfo = new TrendingStatsDTO.TrackWithCount();
+                    trackInfo.setId(rs.getString("track_id"));
+                    trackInfo.setName(rs.getString("track_name"));
+                    trackInfo.setArtist(rs.getString("artists"));
+                    trackInfo.setGenre(rs.getString("track_genre"));
+                    trackInfo.setPopularity(rs.getInt("popularity"));
+                    trackInfo.setCount(rs.getLong("plays"));
+                    return trackInfo;
+                },
+                from, to);
+    }
+
+    public Map<String, Long> countPlaysByGenre(LocalDateTime from, LocalDateTime to) {
+        Map<String, Long> result = new HashMap<>();
+        jdbcTemplate.query("""
+                SELECT t.track_genre, COUNT(*) AS plays
+                FROM play_event p
+                JOIN track t ON t.track_id = p.track_id
+                WHERE p.played_at > ? AND p.played_at <= ?
+                GROUP BY t.track_genre
+                """,
+                rs -> {
+                    result.put(rs.getString("track_genre"), rs.getLong("plays"));
+                },
+                from, to);
+        return result;
+    }
+
+    public Map<String, Long> countPlaysByCountry(LocalDateTime from, LocalDateTime to) {
+        Map<String, Long> result = new HashMap<>();
+        jdbcTemplate.query("""
+                SELECT u.country, COUNT(*) AS plays
+                FROM play_event p
+                JOIN users u ON u.id = p.user_id
+                WHERE p.played_at > ? AND p.played_at <= ?
+                GROUP BY u.country
+                """,
+                rs -> {
+                    result.put(rs.getString("country"), rs.getLong("plays"));
+                },
+                from, to);
+        return result;
+    }
+
+    /**
+     * Runs a trivial query, which takes the snapshot of a repeatable read transaction.
+     */
+    public void takeSnapshot() {
+        jdbcTemplate.queryForObject("SELECT 1", Integer.class);
+    }
+
+    /**
+     * Streams play counts of the plays after {@code from}, grouped by hour, track, genre and
+     * country of the user. Plays of deleted users have no country.
+     */
+    public void forEachHourlyPlayCount(LocalDateTime from, HourlyPlayCountHandler handler) {
+        jdbcTemplate.query("""
+                SELECT date_trunc('hour', p.played_at) AS hour, p.track_id, t.track_genre, u.country, COUNT(*) AS plays
+                FROM play_event p
+                JOIN track t ON t.track_id = p.track_id
+                LEFT JOIN users u ON u.id = p.user_id
+                WHERE p.played_at > ?
+                GROUP BY 1, 2, 3, 4
+                """,
+                rs -> {
+                    handler.accept(rs.getObject("hour", LocalDateTime.class), rs.getString("track_id"),
+                            rs.getString("track_genre"), rs.getString("country"), rs.getLong("plays"));
+                },
+                from);
+    }
+
+    /**
+     * Streams play counts of the plays after {@code from}, grouped by day and track.
+     */
+    public void forEachDailyTrackPlayCount(LocalDateTime from, DailyTrackPlayCountHandler handler) {
+        jdbcTemplate.query("""
+                SELECT CAST(played_at AS date) AS day, track_id, COUNT(*) AS plays
+                FROM play_event
+                WHERE played_at > ?
+                GROUP BY 1, 2
+                """,
+                rs -> {
+                    handler.accept(rs.getObject("day", LocalDate.class), rs.getString("track_id"), rs.getLong("plays"));
+                },
+                from);
+    }
+
+    @FunctionalInterface
+    public interface HourlyPlayCountHandler {
+        void accept(LocalDateTime hour, String trackId, String trackGenre, String country, long plays);
+    }
+
+    @FunctionalInterface
+    public interface DailyTrackPlayCountHandler {
+        void accept(LocalDate day, String trackId, long plays);
+    }
+}
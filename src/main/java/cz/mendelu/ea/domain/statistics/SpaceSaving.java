@@ -0,0 +1,156 @@
+package cz.mendelu.ea.domain.statistics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Space-Saving summary of the most frequent keys of a stream, in memory bounded by its capacity.
+ *
+ * Every monitored key has an estimated count that never underestimates its true count and
+ * overestimates it by at most the key's error, and the error is at most total / capacity plus the
+ * removals of the key. Keys with a true count above total / capacity are always monitored. Summaries are mergeable, so summaries
+ * of separate streams, e.g. days or nodes, combine into a summary of the whole stream with the
+ * same guarantees. Not thread-safe.
+ */
+public class SpaceSaving {
+
+    private static final Comparator<Estimate> BY_COUNT =
+            Comparator.comparingLong(Estimate::count).thenComparing(Estimate::key);
+
+    private final int capacity;
+    private final Map<String, Estimate> estimates = new HashMap<>();
+    private final TreeSet<Estimate> byCount = new TreeSet<>(BY_COUNT);
+    private long total;
+
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Rebuilds a summary from its estimates, e.g. ones received from another node.
+     */
+    public static SpaceSaving of(int capacity, long total, List<Estimate> estimates) {
+        SpaceSaving summary = new SpaceSaving(capacity);
+        estimates.stream().sorted(BY_COUNT.reversed()).limit(capacity).forEach(summary::put);
+        summary.total = total;
+        return summary;
+    }
+
+    /**
+     * Combines summaries of disjoint streams. A key not monitored by a summary may have occurred
+     * in its stream up to the summary's smallest count, which is added to the key's count and
+     * error.
+     */
+    public static SpaceSaving merge(int capacity, List<SpaceSaving> summaries) {
+        Set<String> keys = new HashSet<>();
+        long total = 0;
+        long[] bounds = new long[summaries.size()];
+        for (int i = 0; i < summaries.size(); i++) {
+            SpaceSaving summary = summaries.get(i);
+            keys.addAll(summary.estimates.keySet());
+            total += summary.total;
+            bounds[i] = summary.unmonitoredBound();
+        }
+
+        List<Estimate> merged = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            long count = 0;
+            long error = 0;
+            for (int i = 0; i < summaries.size(); i++) {
+                Estimate estimate = summaries.get(i).estimates.get(key);
+                count += estimate == null ? bounds[i] : estimate.count();
+                error += estimate == null ? bounds[i] : estimate.error();
+            }
+            merged.add(new Estimate(key, count, error));
+        }
+        return of(capacity, total, merged);
+    }
+
+    /**
+     * Counts an occurrence of the key with the given weight.
+     */
+    public void offer(String key, long weight) {
+        total += weight;
+        Estimate estimate = estimates.get(key);
+        if (estimate != null) {
+            replace(estimate, new Estimate(key, estimate.count() + weight, estimate.error()));
+        } else if (estimates.size() < capacity) {
+            put(new Estimate(key, weight, 0));
+        } else {
+            // the new key takes over the smallest counter, which bounds its earlier occurrences
+            Estimate smallest = byCount.pollFirst();
+            estimates.remove(smallest.key());
+            put(new Estimate(key, smallest.count() + weight, smallest.count()));
+        }
+    }
+
+    /**
+     * Takes back one earlier occurrence of the key. Counters never go down, since the smallest one
+     * bounds the unmonitored keys that {@link #merge(int, List)} relies on; the estimate of a
+     * monitored key keeps its count and gains one error instead. Occurrences of unmonitored keys
+     * are only included in the bounds, which stay those of the stream without removals.
+     */
+    public void remove(String key) {
+        total = Math.max(0, total - 1);
+        Estimate estimate = estimates.get(key);
+        if (estimate != null && estimate.error() < estimate.count()) {
+            replace(estimate, new Estimate(key, estimate.count(), estimate.error() + 1));
+        }
+    }
+
+    /**
+     * @return the keys with the highest estimated counts, highest first
+     */
+    public List<Estimate> top(int limit) {
+        List<Estimate> top = new ArrayList<>(Math.min(limit, byCount.size()));
+        Iterator<Estimate> iterator = byCount.descendingIterator();
+        while (top.size() < limit && iterator.hasNext()) {
+            top.add(iterator.next());
+        }
+        return top;
+    }
+
+    public List<Estimate> estimates() {
+        return List.copyOf(estimates.values());
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long total() {
+        return total;
+    }
+
+    // the most an unmonitored key can have occurred
+    private long unmonitoredBound() {
+        return estimates.size() < capacity ? 0 : byCount.first().count();
+    }
+
+    private void put(Estimate estimate) {
+        estimates.put(estimate.key(), estimate);
+        byCount.add(estimate);
+    }
+
+    private void replace(Estimate previous, Estimate estimate) {
+        byCount.remove(previous);
+        put(estimate);
+    }
+
+    /**
+     * @param count estimated number of occurrences, at least the true one
+     * @param error the most the estimate may exceed the true count by
+     */
+    public record Estimate(String key, long count, long error) {
+    }
+}
@@ -1,8 +1,9 @@
 package cz.mendelu.ea.domain.statistics;
 
 import cz.mendelu.ea.domain.statistics.dto.TrendingStatsDTO;
-import cz.mendelu.ea.utils.response.ObjectResponse;
+import cz.mendelu.ea.utils.response.SnapshotResponse;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -11,16 +12,19 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.HashMap;
 import java.util.Map;
 
 @RestController
 @RequestMapping("/statistics")
-@Tag(name = "Statistics", description = "APIs for retrieving various statistics and analytics about users, tracks, and their interactions")
+@Tag(name = "Statistics", description = "APIs for retrieving various statistics and analytics about users, tracks, and their interactions. Reports are served from precomputed snapshots, computedAt and ageSeconds tell how old they are.")
 public class StatisticsController {
 
+    private final StatisticsSnapshots statisticsSnapshots;
     private final StatisticsService statisticsService;
 
-    public StatisticsController(StatisticsService statisticsService) {
+    public StatisticsController(StatisticsSnapshots statisticsSnapshots, StatisticsService statisticsService) {
+        this.statisticsSnapshots = statisticsSnapshots;
         this.statisticsService = statisticsService;
     }
 
@@ -61,19 +65,22 @@ public class StatisticsController {
                               "Rock": 120
                             }
                           },
-                          "version": 1
+                          "version": 1,
+                          "computedAt": "2024-03-16T14:30:00",
+                          "ageSeconds": 12
                         }"""
                 )
             )
         )
     })
-    public ObjectResponse<Map<String, Object>> getUserEngagement() {
+    public SnapshotResponse<Map<String, Object>> getUserEngagement() {
         // Combines user activity with their favorite tracks
         // Returns: Map of user engagement metrics including:
         // - Average favorites per user
         // - Most active users
         // - Most popular genres among users
-        return ObjectResponse.of(statisticsService.getUserEngagement(), map -> map);
+        var snapshot = statisticsSnapshots.getUserEngagement();
+        return SnapshotResponse.of(snapshot.content(), map -> map, snapshot.computedAt());
     }
 
     @GetMapping("/track-popularity")
@@ -88,6 +95,11 @@ public class StatisticsController {
             - Average ratings given to tracks by genre
             - Correlation between track features (like danceability) and user ratings
             
+            With approximate=true, the most favorited tracks are the top ones of a bounded in-memory summary
+            updated on every favorite write, each count with a countError bound on how much it may exceed the true one.
+            Only that list is approximate: the rest of the report, and computedAt, come from the exact snapshot, which is
+            still computed first when it is missing or older than its maximum staleness.
+            
             This data helps understand track performance and user preferences."""
     )
     @ApiResponses(value = {
@@ -119,19 +131,36 @@ public class StatisticsController {
                               "Rock": 3.5
                             }
                           },
-                          "version": 1
+                          "version": 1,
+                          "computedAt": "2024-03-16T14:30:00",
+                          "ageSeconds": 12
                         }"""
                 )
             )
-        )
+        ),
+        @ApiResponse(responseCode = "400", description = "Approximate mode disabled or invalid limit")
     })
-    public ObjectResponse<Map<String, Object>> getTrackPopularity() {
+    public SnapshotResponse<Map<String, Object>> getTrackPopularity(
+            @Parameter(description = "Approximate the most favorited tracks from the in-memory summary", example = "false")
+            @RequestParam(defaultValue = "false") boolean approximate,
+            @Parameter(description = "Number of most favorited tracks in approximate mode", example = "20")
+            @RequestParam(defaultValue = "20") int limit) {
         // Combines track data with user favorites
         // Returns: Map of track popularity metrics including:
         // - Most favorited tracks
         // - Average rating by genre
         // - Correlation between track features and user ratings
-        return ObjectResponse.of(statisticsService.getTrackPopularity(), map -> map);
+        if (!approximate) {
+            var snapshot = statisticsSnapshots.getTrackPopularity();
+            return SnapshotResponse.of(snapshot.content(), map -> map, snapshot.computedAt());
+        }
+        var mostFavoritedTracks = statisticsService.getMostFavoritedTracksApproximately(limit);
+        // the other metrics have no approximation, they come from the exact snapshot including its
+        // own, replaced, most favorited tracks
+        var snapshot = statisticsSnapshots.getTrackPopularity();
+        Map<String, Object> content = new HashMap<>(snapshot.content());
+        content.put("mostFavoritedTracks", mostFavoritedTracks);
+        return SnapshotResponse.of(content, map -> map, snapshot.computedAt());
     }
 
     @GetMapping("/user-preferences")
@@ -173,19 +202,22 @@ public class StatisticsController {
                               "UK": 0.65
                             }
                           },
-                          "version": 1
+                          "version": 1,
+                          "computedAt": "2024-03-16T14:30:00",
+                          "ageSeconds": 12
                         }"""
                 )
             )
         )
     })
-    public ObjectResponse<Map<String, Object>> getUserPreferences() {
+    public SnapshotResponse<Map<String, Object>> getUserPreferences() {
         // Analyzes user preferences based on their favorites
         // Returns: Map of user preference metrics including:
         // - Genre preferences by country
         // - Average track features preferred by users
         // - User clusters based on music taste
-        return ObjectResponse.of(statisticsService.getUserPreferences(), map -> map);
+        var snapshot = statisticsSnapshots.getUserPreferences();
+        return SnapshotResponse.of(snapshot.content(), map -> map, snapshot.computedAt());
     }
 
     @GetMapping("/trending")
@@ -200,6 +232,12 @@ public class StatisticsController {
             - Emerging genres that gained popularity in the last 30 days
             - User activity patterns by country in the last 7 days
             
+            With approximate=true, the recently popular tracks are the top ones of bounded in-memory summaries
+            updated on every play flush, counted in whole days, each count with a countError bound on how much
+            it may exceed the true one. Only that list is approximate: the emerging genres, the activity by country and
+            computedAt come from the exact snapshot, which is still computed first when it is missing or older than its
+            maximum staleness.
+            
             This data helps identify current trends and user engagement patterns."""
     )
     @ApiResponses(value = {
@@ -231,19 +269,39 @@ public class StatisticsController {
                               "UK": 15
                             }
                           },
-                          "version": 1
+                          "version": 1,
+                          "computedAt": "2024-03-16T14:30:00",
+                          "ageSeconds": 12
                         }"""
                 )
             )
-        )
+        ),
+        @ApiResponse(responseCode = "400", description = "Approximate mode disabled or invalid limit")
     })
-    public ObjectResponse<TrendingStatsDTO> getTrending() {
+    public SnapshotResponse<TrendingStatsDTO> getTrending(
+            @Parameter(description = "Approximate the recently popular tracks from the in-memory summaries", example = "false")
+            @RequestParam(defaultValue = "false") boolean approximate,
+            @Parameter(description = "Number of recently popular tracks in approximate mode", example = "20")
+            @RequestParam(defaultValue = "20") int limit) {
         // Identifies trending content and patterns
         // Returns: Map of trending metrics including:
         // - Recently popular tracks
         // - Emerging genres
         // - User activity patterns
-        return ObjectResponse.of(statisticsService.getTrending(), dto -> dto);
+        if (!approximate) {
+            var snapshot = statisticsSnapshots.getTrending();
+            return SnapshotResponse.of(snapshot.content(), dto -> dto, snapshot.computedAt());
+        }
+        var recentlyPopularTracks = statisticsService.getRecentlyPopularTracksApproximately(limit);
+        // the other metrics have no approximation, they come from the exact snapshot including its
+        // own, replaced, recently popular tracks
+        var snapshot = statisticsSnapshots.getTrending();
+        // the snapshot is shared, so the approximate tracks go to a copy
+        TrendingStatsDTO content = new TrendingStatsDTO();
+        content.setRecentlyPopularTracks(recentlyPopularTracks);
+        content.setEmergingGenres(snapshot.content().getEmergingGenres());
+        content.setUserActivityByCountry(snapshot.content().getUserActivityByCountry());
+        return SnapshotResponse.of(content, dto -> dto, snapshot.computedAt());
     }
 
     @GetMapping("/user-activity-timeline")
@@ -255,8 +313,8 @@ public class StatisticsController {
             
             The response includes:
             - Daily activity counts for the last 7 days
-            - Peak activity hours throughout the day
-            - Weekly patterns showing activity by day of the week
+            - Peak activity hours throughout the day in the last 4 weeks
+            - Weekly patterns showing activity by day of the week in the last 4 weeks
             
             This data helps understand user engagement patterns and optimal times for platform updates."""
     )
@@ -286,13 +344,16 @@ public class StatisticsController {
                               "WEDNESDAY": 130
                             }
                           },
-                          "version": 1
+                          "version": 1,
+                          "computedAt": "2024-03-16T14:30:00",
+                          "ageSeconds": 12
                         }"""
                 )
             )
         )
     })
-    public ObjectResponse<Map<String, Object>> getUserActivityTimeline() {
-        return ObjectResponse.of(statisticsService.getUserActivityTimeline(), map -> map);
+    public SnapshotResponse<Map<String, Object>> getUserActivityTimeline() {
+        var snapshot = statisticsSnapshots.getUserActivityTimeline();
+        return SnapshotResponse.of(snapshot.content(), map -> map, snapshot.computedAt());
     }
 } 
\ No newline at end of file
@@ -1,34 +1,55 @@
 package cz.mendelu.ea.domain.statistics;
 
 import cz.mendelu.ea.domain.favorite.FavoriteService;
+import cz.mendelu.ea.domain.favorite.TrackStats;
+import cz.mendelu.ea.domain.favorite.dto.GenreCountDTO;
+import cz.mendelu.ea.domain.favorite.dto.GenreRatingDTO;
+import cz.mendelu.ea.domain.statistics.dto.ActiveUserDTO;
 import cz.mendelu.ea.domain.statistics.dto.TrendingStatsDTO;
+import cz.mendelu.ea.domain.track.Track;
 import cz.mendelu.ea.domain.track.TrackService;
 import cz.mendelu.ea.domain.user.UserService;
+import cz.mendelu.ea.utils.exceptions.BadRequestException;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
 public class StatisticsService {
 
+    private static final int ACTIVITY_PATTERN_WEEKS = 4;
+
     private final UserService userService;
     private final TrackService trackService;
     private final FavoriteService favoriteService;
+    private final PlayStatisticsRepository playStatisticsRepository;
+    private final FavoriteStatisticsRepository favoriteStatisticsRepository;
+    private final TrendingCounters trendingCounters;
+    private final TrackHeavyHitters trackHeavyHitters;
 
-    public StatisticsService(UserService userService, TrackService trackService, FavoriteService favoriteService) {
+    public StatisticsService(UserService userService, TrackService trackService, FavoriteService favoriteService,
+                             PlayStatisticsRepository playStatisticsRepository,
+                             FavoriteStatisticsRepository favoriteStatisticsRepository,
+                             TrendingCounters trendingCounters, TrackHeavyHitters trackHeavyHitters) {
         this.userService = userService;
         this.trackService = trackService;
         this.favoriteService = favoriteService;
+        this.playStatisticsRepository = playStatisticsRepository;
+        this.favoriteStatisticsRepository = favoriteStatisticsRepository;
+        this.trendingCounters = trendingCounters;
+        this.trackHeavyHitters = trackHeavyHitters;
     }
 
     /**
      * Calculates user engagement metrics to understand how users interact with the platform.
      * 
-     * This method analyzes:
+     * This method reads the maintained favorite counts of users and tracks:
      * 1. Average favorites per user - Calculates the mean number of favorites across all users
      * 2. Most active users - Identifies the top 5 users with the most favorites
      * 3. Popular genres - Counts the total number of favorites for each genre
@@ -42,25 +63,14 @@ public class StatisticsService {
         Map<String, Object> result = new HashMap<>();
         
         // Calculate average favorites per user across all users
-        double avgFavorites = userService.getAllUsers().stream()
-                .mapToDouble(user -> user.getFavorites().size())
-                .average()
-                .orElse(0.0);
-        result.put("averageFavoritesPerUser", avgFavorites);
+        result.put("averageFavoritesPerUser", userService.getAverageFavoriteCount());
 
         // Find top 5 most active users based on their favorite count
-        var mostActiveUsers = userService.getAllUsers().stream()
-                .sorted((u1, u2) -> Integer.compare(u2.getFavorites().size(), u1.getFavorites().size()))
-                .limit(5)
-                .collect(Collectors.toList());
-        result.put("mostActiveUsers", mostActiveUsers);
+        result.put("mostActiveUsers", userService.getMostActiveUsers(5).stream().map(ActiveUserDTO::of).toList());
 
         // Count total favorites for each genre
-        var popularGenres = favoriteService.getAllFavorites().stream()
-                .collect(Collectors.groupingBy(
-                        f -> f.getTrack().getTrackGenre(),
-                        Collectors.counting()
-                ));
+        var popularGenres = favoriteService.getFavoritesCountByGenre().stream()
+                .collect(Collectors.toMap(GenreCountDTO::genre, GenreCountDTO::count));
         result.put("popularGenres", popularGenres);
 
         return result;
@@ -69,65 +79,85 @@ public class StatisticsService {
     /**
      * Analyzes track popularity metrics based on user interactions and ratings.
      * 
-     * This method calculates:
+     * This method reads the per-track favorite counters, so it touches one row per favorited
+     * track instead of every favorite:
      * 1. Most favorited tracks - Tracks with their favorite counts and details
      * 2. Average ratings by genre - Mean rating for tracks in each genre
      * 3. Feature correlations - Relationship between track features and ratings
      * 
      * @return Map containing:
-     *         - mostFavoritedTracks: List of tracks with their favorite counts
+     *         - mostFavoritedTracks: List of tracks with their favorite counts, most favorited first
      *         - averageRatingByGenre: Map of genres to their average ratings
      *         - featureCorrelations: Map of genres to their feature-rating correlations
      */
     public Map<String, Object> getTrackPopularity() {
         Map<String, Object> result = new HashMap<>();
 
-        // Calculate most favorited tracks with their details
-        var mostFavoritedTracks = favoriteService.getAllFavorites().stream()
-                .collect(Collectors.groupingBy(
-                        f -> {
-                            var track = f.getTrack();
-                            var trackInfo = new TrendingStatsDTO.TrackWithCount();
-                            trackInfo.setId(track.getTrackId());
-                            trackInfo.setName(track.getTrackName());
-                            trackInfo.setArtist(track.getArtists());
-                            trackInfo.setGenre(track.getTrackGenre());
-                            trackInfo.setPopularity(track.getPopularity());
-                            return trackInfo;
-                        },
-                        Collectors.counting()
-                ))
-                .entrySet().stream()
-                .map(entry -> {
-                    entry.getKey().setCount(entry.getValue());
-                    return entry.getKey();
+        List<TrackStats> trackStats = favoriteService.getTrackStats();
+        Map<String, Track> tracks = trackService.getTracksByIds(trackStats.stream().map(TrackStats::trackId).toList())
+                .stream()
+                .collect(Collectors.toMap(Track::getTrackId, Function.identity()));
+
+        // Most favorited tracks with their details
+        var mostFavoritedTracks = trackStats.stream()
+                .map(stats -> {
+                    var track = tracks.get(stats.trackId());
+                    var trackInfo = new TrendingStatsDTO.TrackWithCount();
+                    trackInfo.setId(track.getTrackId());
+                    trackInfo.setName(track.getTrackName());
+                    trackInfo.setArtist(track.getArtists());
+                    trackInfo.setGenre(track.getTrackGenre());
+                    trackInfo.setPopularity(track.getPopularity());
+                    trackInfo.setCount(stats.favoriteCount());
+                    return trackInfo;
                 })
                 .collect(Collectors.toList());
         result.put("mostFavoritedTracks", mostFavoritedTracks);
 
-        // Calculate average rating for each genre
-        var avgRatingByGenre = favoriteService.getAllFavorites().stream()
-                .collect(Collectors.groupingBy(
-                        f -> f.getTrack().getTrackGenre(),
-                        Collectors.averagingDouble(f -> f.getRating())
-                ));
+        // Average rating for each genre
+        var avgRatingByGenre = favoriteService.getAverageRatingByGenre().stream()
+                .collect(Collectors.toMap(GenreRatingDTO::genre, GenreRatingDTO::averageRating));
         result.put("averageRatingByGenre", avgRatingByGenre);
 
-        // Calculate correlation between track features and ratings
-        var featureCorrelations = favoriteService.getAllFavorites().stream()
+        // Correlation between track features and ratings, danceability is the same for all
+        // favorites of a track, so the sum of rating * danceability is rating sum * danceability
+        var featureCorrelations = trackStats.stream()
                 .collect(Collectors.groupingBy(
-                        f -> f.getTrack().getTrackGenre(),
-                        Collectors.averagingDouble(f -> f.getRating() * f.getTrack().getDanceability())
+                        stats -> tracks.get(stats.trackId()).getTrackGenre(),
+                        Collectors.teeing(
+                                Collectors.summingDouble(stats -> stats.ratingSum() * tracks.get(stats.trackId()).getDanceability()),
+                                Collectors.summingLong(TrackStats::ratingCount),
+                                (sum, count) -> count == 0 ? 0.0 : sum / count
+                        )
                 ));
         result.put("featureCorrelations", featureCorrelations);
 
         return result;
     }
 
+    /**
+     * Approximates the most favorited tracks from the in-memory heavy hitters, whose memory is
+     * bounded by their capacity whatever the number of favorited tracks. Exact counts are read
+     * until the heavy hitters are loaded.
+     *
+     * @param limit number of tracks, at most the capacity of the heavy hitters
+     * @return tracks with their estimated favorite counts and the most the estimates may exceed
+     *         the true counts by, most favorited first
+     */
+    public List<TrendingStatsDTO.TrackWithCount> getMostFavoritedTracksApproximately(int limit) {
+        checkApproximateLimit(limit);
+        return trackHeavyHitters.getMostFavorited(limit)
+                .map(this::toTracksWithCount)
+                .orElseGet(() -> toTracksWithCount(favoriteService.getTrackStats().stream()
+                        .limit(limit)
+                        .map(stats -> new SpaceSaving.Estimate(stats.trackId(), stats.favoriteCount(), 0))
+                        .toList()));
+    }
+
     /**
      * Analyzes user preferences across different demographics.
      * 
-     * This method examines:
+     * This method groups favorites with their users and tracks in a single scan:
      * 1. Genre preferences by country - Distribution of favorite genres for each country
      * 2. Average track features by country - Mean track features preferred by users in each country
      * 
@@ -138,27 +168,14 @@ public class StatisticsService {
     public Map<String, Object> getUserPreferences() {
         Map<String, Object> result = new HashMap<>();
 
+        // Both aggregates come from one grouped scan of favorites with their users and tracks
+        FavoriteStatisticsRepository.UserPreferences preferences = favoriteStatisticsRepository.findPreferencesByCountry();
+
         // Analyze genre preferences by country
-        var genreByCountry = userService.getAllUsers().stream()
-                .collect(Collectors.groupingBy(
-                        user -> user.getCountry(),
-                        Collectors.flatMapping(
-                                user -> user.getFavorites().stream(),
-                                Collectors.groupingBy(
-                                        f -> f.getTrack().getTrackGenre(),
-                                        Collectors.counting()
-                                )
-                        )
-                ));
-        result.put("genrePreferencesByCountry", genreByCountry);
+        result.put("genrePreferencesByCountry", preferences.genreCountsByCountry());
 
         // Calculate average track features preferred by users in each country
-        var avgFeatures = favoriteService.getAllFavorites().stream()
-                .collect(Collectors.groupingBy(
-                        f -> f.getUser().getCountry(),
-                        Collectors.averagingDouble(f -> f.getTrack().getDanceability())
-                ));
-        result.put("averageFeaturesByCountry", avgFeatures);
+        result.put("averageFeaturesByCountry", preferences.averageDanceabilityByCountry());
 
         return result;
     }
@@ -166,14 +183,14 @@ public class StatisticsService {
     /**
      * Identifies current trends and patterns in user activity and track popularity.
      * 
-     * This method analyzes:
-     * 1. Recently popular tracks - Tracks that gained favorites in the last 7 days
-     * 2. Emerging genres - Genres that gained popularity in the last 30 days
-     * 3. User activity patterns - Activity levels by country in the last 7 days
+     * This method analyzes plays recorded in the play log:
+     * 1. Recently popular tracks - Tracks played in the last 7 days
+     * 2. Emerging genres - Genres played in the last 30 days
+     * 3. User activity patterns - Plays by country in the last 7 days
      * 
      * @param currentTime The reference time point for calculating trends
      * @return TrendingStatsDTO containing:
-     *         - recentlyPopularTracks: List of tracks with their recent favorite counts
+     *         - recentlyPopularTracks: List of tracks with their recent play counts
      *         - emergingGenres: Map of genres to their recent popularity
      *         - userActivityByCountry: Map of countries to their recent activity levels
      */
@@ -183,104 +200,136 @@ public class StatisticsService {
         LocalDateTime monthAgo = currentTime.minusDays(30);
 
         // Find recently popular tracks (last 7 days)
-        var recentFavorites = favoriteService.getAllFavorites().stream()
-                .filter(f -> f.getLastPlayed() != null && f.getLastPlayed().isAfter(weekAgo))
-                .collect(Collectors.groupingBy(
-                        f -> {
-                            var track = f.getTrack();
-                            var trackInfo = new TrendingStatsDTO.TrackWithCount();
-                            trackInfo.setId(track.getTrackId());
-                            trackInfo.setName(track.getTrackName());
-                            trackInfo.setArtist(track.getArtists());
-                            trackInfo.setGenre(track.getTrackGenre());
-                            trackInfo.setPopularity(track.getPopularity());
-                            return trackInfo;
-                        },
-                        Collectors.counting()
-                ))
-                .entrySet().stream()
-                .map(entry -> {
-                    entry.getKey().setCount(entry.getValue());
-                    return entry.getKey();
-                })
-                .collect(Collectors.toList());
-        result.setRecentlyPopularTracks(recentFavorites);
+        result.setRecentlyPopularTracks(playStatisticsRepository.countPlaysByTrack(weekAgo, currentTime));
 
         // Identify emerging genres (last 30 days)
-        var emergingGenres = favoriteService.getAllFavorites().stream()
-                .filter(f -> f.getLastPlayed() != null && f.getLastPlayed().isAfter(monthAgo))
-                .collect(Collectors.groupingBy(
-                        f -> f.getTrack().getTrackGenre(),
-                        Collectors.counting()
-                ));
-        result.setEmergingGenres(emergingGenres);
+        result.setEmergingGenres(playStatisticsRepository.countPlaysByGenre(monthAgo, currentTime));
 
         // Analyze user activity patterns by country (last 7 days)
-        var userActivity = favoriteService.getAllFavorites().stream()
-                .filter(f -> f.getLastPlayed() != null && f.getLastPlayed().isAfter(weekAgo))
-                .collect(Collectors.groupingBy(
-                        f -> f.getUser().getCountry(),
-                        Collectors.counting()
-                ));
-        result.setUserActivityByCountry(userActivity);
+        result.setUserActivityByCountry(playStatisticsRepository.countPlaysByCountry(weekAgo, currentTime));
 
         return result;
     }
 
     /**
      * Identifies current trends and patterns in user activity and track popularity.
-     * Uses the current system time as reference.
+     * Uses the current system time as reference, read from the in-memory trending counters
+     * in windows of whole hours once they are loaded.
      * 
      * @return TrendingStatsDTO containing trending statistics
      */
     public TrendingStatsDTO getTrending() {
-        return getTrending(LocalDateTime.now());
+        return trendingCounters.getCounts()
+                .map(this::toTrending)
+                .orElseGet(() -> getTrending(LocalDateTime.now()));
+    }
+
+    private TrendingStatsDTO toTrending(TrendingCounters.TrendingCounts counts) {
+        Map<String, Track> tracks = trackService.getTracksByIds(counts.playsByTrack().keySet()).stream()
+                .collect(Collectors.toMap(Track::getTrackId, Function.identity()));
+        var recentlyPopularTracks = counts.playsByTrack().entrySet().stream()
+                .filter(entry -> tracks.containsKey(entry.getKey()))
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .map(entry -> {
+                    var track = tracks.get(entry.getKey());
+                    var trackInfo = new TrendingStatsDTO.TrackWithCount();
+                    trackInfo.setId(track.getTrackId());
+                    trackInfo.setName(track.getTrackName());
+                    trackInfo.setArtist(track.getArtists());
+                    trackInfo.setGenre(track.getTrackGenre());
+                    trackInfo.setPopularity(track.getPopularity());
+                    trackInfo.setCount(entry.getValue());
+                    return trackInfo;
+                })
+                .collect(Collectors.toList());
+
+        TrendingStatsDTO result = new TrendingStatsDTO();
+        result.setRecentlyPopularTracks(recentlyPopularTracks);
+        result.setEmergingGenres(counts.playsByGenre());
+        result.setUserActivityByCountry(counts.playsByCountry());
+        return result;
+    }
+
+    /**
+     * Approximates the most played tracks of the last 7 days from the in-memory heavy hitters,
+     * counted in windows of whole days. Exact counts are read until the heavy hitters are loaded.
+     *
+     * @param limit number of tracks, at most the capacity of the heavy hitters
+     * @return tracks with their estimated play counts and the most the estimates may exceed the
+     *         true counts by, most played first
+     */
+    public List<TrendingStatsDTO.TrackWithCount> getRecentlyPopularTracksApproximately(int limit) {
+        checkApproximateLimit(limit);
+        return trackHeavyHitters.getMostPlayed(limit)
+                .map(this::toTracksWithCount)
+                .orElseGet(() -> getTrending().getRecentlyPopularTracks().stream()
+                        .sorted(Comparator.comparing(TrendingStatsDTO.TrackWithCount::getCount).reversed())
+                        .limit(limit)
+                        .map(trackInfo -> {
+                            trackInfo.setCountError(0L);
+                            return trackInfo;
+                        })
+                        .collect(Collectors.toList()));
+    }
+
+    private void checkApproximateLimit(int limit) {
+        if (!trackHeavyHitters.isEnabled()) {
+            throw new BadRequestException("Approximate statistics are disabled");
+        }
+        if (limit < 1 || limit > trackHeavyHitters.getCapacity()) {
+            throw new BadRequestException("Limit must be between 1 and " + trackHeavyHitters.getCapacity());
+        }
+    }
+
+    private List<TrendingStatsDTO.TrackWithCount> toTracksWithCount(List<SpaceSaving.Estimate> estimates) {
+        Map<String, Track> tracks = trackService.getTracksByIds(estimates.stream().map(SpaceSaving.Estimate::key).toList())
+                .stream()
+                .collect(Collectors.toMap(Track::getTrackId, Function.identity()));
+        return estimates.stream()
+                .filter(estimate -> tracks.containsKey(estimate.key()))
+                .map(estimate -> {
+                    var track = tracks.get(estimate.key());
+                    var trackInfo = new TrendingStatsDTO.TrackWithCount();
+                    trackInfo.setId(track.getTrackId());
+                    trackInfo.setName(track.getTrackName());
+                    trackInfo.setArtist(track.getArtists());
+                    trackInfo.setGenre(track.getTrackGenre());
+                    trackInfo.setPopularity(track.getPopularity());
+                    trackInfo.setCount(estimate.count());
+                    trackInfo.setCountError(estimate.error());
+                    return trackInfo;
+                })
+                .collect(Collectors.toList());
     }
 
     /**
      * Analyzes user activity patterns over different time periods.
      * 
-     * This method examines:
-     * 1. Daily activity - Number of favorites added per day in the last week
-     * 2. Peak activity hours - Most active hours of the day
-     * 3. Weekly patterns - Activity levels by day of the week
+     * This method examines plays recorded in the play log:
+     * 1. Daily activity - Number of plays per day in the last week
+     * 2. Peak activity hours - Most active hours of the day in the last 4 weeks
+     * 3. Weekly patterns - Activity levels by day of the week in the last 4 weeks
      * 
      * @param currentTime The reference time point for calculating activity patterns
      * @return Map containing:
-     *         - dailyActivity: Map of dates to number of favorites added
+     *         - dailyActivity: Map of dates to number of plays
      *         - peakActivityHours: Map of hours (0-23) to activity count
      *         - weeklyPatterns: Map of days of week to activity count
      */
     public Map<String, Object> getUserActivityTimeline(LocalDateTime currentTime) {
         Map<String, Object> result = new HashMap<>();
         LocalDateTime weekAgo = currentTime.minusDays(7);
+        // whole weeks, so that every day of the week is counted equally often
+        LocalDateTime patternsFrom = currentTime.minusWeeks(ACTIVITY_PATTERN_WEEKS);
 
         // Analyze daily activity in the last week
-        var dailyActivity = favoriteService.getAllFavorites().stream()
-                .filter(f -> f.getLastPlayed() != null && f.getLastPlayed().isAfter(weekAgo))
-                .collect(Collectors.groupingBy(
-                        f -> f.getLastPlayed().toLocalDate(),
-                        Collectors.counting()
-                ));
-        result.put("dailyActivity", dailyActivity);
+        result.put("dailyActivity", playStatisticsRepository.countPlaysByDay(weekAgo, currentTime));
 
         // Find peak activity hours
-        var peakActivityHours = favoriteService.getAllFavorites().stream()
-                .filter(f -> f.getLastPlayed() != null)
-                .collect(Collectors.groupingBy(
-                        f -> f.getLastPlayed().getHour(),
-                        Collectors.counting()
-                ));
-        result.put("peakActivityHours", peakActivityHours);
+        result.put("peakActivityHours", playStatisticsRepository.countPlaysByHour(patternsFrom, currentTime));
 
         // Analyze weekly patterns
-        var weeklyPatterns = favoriteService.getAllFavorites().stream()
-                .filter(f -> f.getLastPlayed() != null)
-                .collect(Collectors.groupingBy(
-                        f -> f.getLastPlayed().getDayOfWeek(),
-                        Collectors.counting()
-                ));
-        result.put("weeklyPatterns", weeklyPatterns);
+        result.put("weeklyPatterns", playStatisticsRepository.countPlaysByDayOfWeek(patternsFrom, currentTime));
 
         return result;
     }
@@ -0,0 +1,239 @@
+package cz.mendelu.ea.domain.statistics;
+
+import cz.mendelu.ea.domain.favorite.FavoritesChangedEvent;
+import cz.mendelu.ea.domain.statistics.dto.TrendingStatsDTO;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Precomputed snapshots of the statistics reports, served stale while they are revalidated.
+ *
+ * A snapshot younger than {@code refresh-after-seconds} and computed less than
+ * {@code refresh-after-changes} favorite changes ago is served as it is. An older one is still
+ * served, and recomputed in the background; a scheduled check refreshes such snapshots even when
+ * nobody reads them. Only a snapshot older than {@code max-staleness-seconds}, or a missing one,
+ * is computed while the request waits. Both ages are configured per report, e.g.
+ * {@code statistics.snapshots.trending.max-staleness-seconds}, falling back to the shared
+ * {@code statistics.snapshots.*} values.
+ *
+ * Snapshots are served to many requests at once, so their content is copied into unmodifiable
+ * maps and lists when it is computed.
+ */
+@Component
+@Slf4j
+public class StatisticsSnapshots {
+
+    public enum Report {
+        USER_ENGAGEMENT,
+        TRACK_POPULARITY,
+        USER_PREFERENCES,
+        TRENDING,
+        USER_ACTIVITY_TIMELINE;
+
+        String key() {
+            return name().toLowerCase(Locale.ROOT).replace('_', '-');
+        }
+    }
+
+    public record Snapshot<T>(T content, LocalDateTime computedAt) {
+    }
+
+    // a snapshot with the number of favorite changes seen when its computation started
+    private record Entry(Snapshot<?> snapshot, long changes) {
+    }
+
+    private final Map<Report, Supplier<?>> computations = new EnumMap<>(Report.class);
+    private final Map<Report, Duration> refreshAfter = new EnumMap<>(Report.class);
+    private final Map<Report, Duration> maxStaleness = new EnumMap<>(Report.class);
+    private final long refreshAfterChanges;
+
+    private final Map<Report, Entry> entries = new ConcurrentHashMap<>();
+    // one computation of a report at a time
+    private final Map<Report, ReentrantLock> locks = new EnumMap<>(Report.class);
+    private final Set<Report> refreshing = ConcurrentHashMap.newKeySet();
+    private final AtomicLong changes = new AtomicLong();
+
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "statistics-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StatisticsSnapshots(StatisticsService statisticsService, Environment environment,
+                               @Value("${statistics.snapshots.refresh-after-seconds:30}") long refreshAfterSeconds,
+                               @Value("${statistics.snapshots.max-staleness-seconds:600}") long maxStalenessSeconds,
+                               @Value("${statistics.snapshots.refresh-after-changes:1000}") long refreshAfterChanges) {
+        computations.put(Report.USER_ENGAGEMENT, statisticsService::getUserEngagement);
+        computations.put(Report.TRACK_POPULARITY, statisticsService::getTrackPopularity);
+        computations.put(Report.USER_PREFERENCES, statisticsService::getUserPreferences);
+        computations.put(Report.TRENDING, statisticsService::getTrending);
+        computations.put(Report.USER_ACTIVITY_TIMELINE, statisticsService::getUserActivityTimeline);
+        for (Report report : Report.values()) {
+            String prefix = "statistics.snapshots." + report.key();
+            refreshAfter.put(report, Duration.ofSeconds(
+                    environment.getProperty(prefix + ".refresh-after-seconds", Long.class, refreshAfterSeconds)));
+            maxStaleness.put(report, Duration.ofSeconds(
+                    environment.getProperty(prefix + ".max-staleness-seconds", Long.class, maxStalenessSeconds)));
+            locks.put(report, new ReentrantLock());
+        }
+        this.refreshAfterChanges = refreshAfterChanges;
+    }
+
+    @PreDestroy
+    public void stopRefreshes() {
+        refresher.shutdownNow();
+    }
+
+    public Snapshot<Map<String, Object>> getUserEngagement() {
+        return get(Report.USER_ENGAGEMENT);
+    }
+
+    public Snapshot<Map<String, Object>> getTrackPopularity() {
+        return get(Report.TRACK_POPULARITY);
+    }
+
+    public Snapshot<Map<String, Object>> getUserPreferences() {
+        return get(Report.USER_PREFERENCES);
+    }
+
+    public Snapshot<TrendingStatsDTO> getTrending() {
+        return get(Report.TRENDING);
+    }
+
+    public Snapshot<Map<String, Object>> getUserActivityTimeline() {
+        return get(Report.USER_ACTIVITY_TIMELINE);
+    }
+
+    /**
+     * Counts committed favorite changes, plays included, towards the change threshold.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFavoritesChanged(FavoritesChangedEvent event) {
+        changes.addAndGet(event.changes().size());
+    }
+
+    @Scheduled(fixedDelayString = "${statistics.snapshots.check-interval-ms:5000}")
+    public void refreshStale() {
+        entries.forEach((report, entry) -> {
+            if (isStale(report, entry)) {
+                refreshInBackground(report);
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> Snapshot<T> get(Report report) {
+        LocalDateTime requestedAt = LocalDateTime.now();
+        Entry entry = entries.get(report);
+        if (entry == null || age(entry).compareTo(maxStaleness.get(report)) > 0) {
+            return (Snapshot<T>) compute(report, requestedAt);
+        }
+        if (isStale(report, entry)) {
+            refreshInBackground(report);
+        }
+        return (Snapshot<T>) entry.snapshot();
+    }
+
+    /**
+     * Computes a new snapshot, unless one computed after {@code notBefore} is already there.
+     */
+    private Snapshot<?> compute(Report report, LocalDateTime notBefore) {
+        ReentrantLock lock = locks.get(report);
+        lock.lock();
+        try {
+            Entry current = entries.get(report);
+            if (current != null && !current.snapshot().computedAt().isBefore(notBefore)) {
+                return current.snapshot();
+            }
+            long changesAtStart = changes.get();
+            LocalDateTime computedAt = LocalDateTime.now();
+            long start = System.currentTimeMillis();
+            Snapshot<?> snapshot = new Snapshot<>(freeze(computations.get(report).get()), computedAt);
+            entries.put(report, new Entry(snapshot, changesAtStart));
+            log.debug("Computed {} statistics in {} ms", report.key(), System.currentTimeMillis() - start);
+            return snapshot;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void refreshInBackground(Report report) {
+        if (!refreshing.add(report)) {
+            return;
+        }
+        try {
+            refresher.execute(() -> {
+                try {
+                    compute(report, LocalDateTime.now());
+                } catch (RuntimeException e) {
+                    log.warn("Refreshing {} statistics failed, serving the previous snapshot", report.key(), e);
+                } finally {
+                    refreshing.remove(report);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(report);
+        }
+    }
+
+    private boolean isStale(Report report, Entry entry) {
+        return age(entry).compareTo(refreshAfter.get(report)) > 0 || changes.get() - entry.changes() >= refreshAfterChanges;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T freeze(T content) {
+        if (content instanceof Map<?, ?> map) {
+            Map<Object, Object> copy = new LinkedHashMap<>();
+            map.forEach((key, value) -> copy.put(key, freeze(value)));
+            return (T) Collections.unmodifiableMap(copy);
+        }
+        if (content instanceof List<?> list) {
+            return (T) list.stream().map(StatisticsSnapshots::freeze).toList();
+        }
+        if (content instanceof TrendingStatsDTO trending) {
+            TrendingStatsDTO copy = new TrendingStatsDTO();
+            copy.setRecentlyPopularTracks(freeze(trending.getRecentlyPopularTracks()));
+            copy.setEmergingGenres(freeze(trending.getEmergingGenres()));
+            copy.setUserActivityByCountry(freeze(trending.getUserActivityByCountry()));
+            return (T) copy;
+        }
+        if (content instanceof TrendingStatsDTO.TrackWithCount track) {
+            TrendingStatsDTO.TrackWithCount copy = new TrendingStatsDTO.TrackWithCount();
+            copy.setId(track.getId());
+            copy.setName(track.getName());
+            copy.setArtist(track.getArtist());
+            copy.setGenre(track.getGenre());
+            copy.setPopularity(track.getPopularity());
+            copy.setCount(track.getCount());
+            copy.setCountError(track.getCountError());
+            return (T) copy;
+        }
+        return content;
+    }
+
+    private static Duration age(Entry entry) {
+        return Duration.between(entry.snapshot().computedAt(), LocalDateTime.now());
+    }
+}
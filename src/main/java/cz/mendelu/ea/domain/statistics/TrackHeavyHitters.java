@@ -0,0 +1,282 @@
+package cz.mendelu.ea.domain.statistics;
+
+import cz.mendelu.ea.domain.favorite.FavoriteChange;
+import cz.mendelu.ea.domain.favorite.FavoriteService;
+import cz.mendelu.ea.domain.favorite.FavoritesChangedEvent;
+import cz.mendelu.ea.domain.favorite.PlayEventBuffer;
+import cz.mendelu.ea.domain.favorite.PlaysDeletedEvent;
+import cz.mendelu.ea.domain.favorite.PlaysRecordedEvent;
+import cz.mendelu.ea.domain.favorite.RecordedPlay;
+import cz.mendelu.ea.domain.favorite.TrackStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Approximate top tracks by favorites and by plays of the last 7 days, in memory bounded by
+ * {@code statistics.heavy-hitters.capacity} tracks per summary.
+ *
+ * Favorites are counted in one {@link SpaceSaving} summary, plays in a ring of daily summaries
+ * that are merged when read, so the window is the current day and the 6 before it. The summaries
+ * are loaded at startup and follow committed favorite writes, play flushes and deleted plays;
+ * changes committed while they are loaded are replayed onto the loaded ones, except flushes
+ * already visible in the snapshot the play log is read in. Nothing is kept unless
+ * {@code statistics.heavy-hitters.enabled} is set.
+ */
+@Component
+@Slf4j
+public class TrackHeavyHitters {
+
+    private static final int WEEK_DAYS = 7;
+
+    private final FavoriteService favoriteService;
+    private final PlayStatisticsRepository repository;
+    private final PlayEventBuffer playEventBuffer;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int capacity;
+
+    // guards all fields below
+    private final ReentrantLock lock = new ReentrantLock();
+    private SpaceSaving favorites;
+    // summary of a day is at the epoch day modulo the ring size
+    private final SpaceSaving[] days = new SpaceSaving[WEEK_DAYS];
+    private long currentDay;
+    private boolean loaded;
+    // changes committed during the load, null when no load runs
+    private List<Runnable> pending;
+    // last flush of the play buffer counted by the load
+    private long loadedFlush;
+
+    public TrackHeavyHitters(FavoriteService favoriteService, PlayStatisticsRepository repository,
+                             PlayEventBuffer playEventBuffer, PlatformTransactionManager transactionManager,
+                             @Value("${statistics.heavy-hitters.enabled:false}") boolean enabled,
+                             @Value("${statistics.heavy-hitters.capacity:1000}") int capacity) {
+        this.favoriteService = favoriteService;
+        this.repository = repository;
+        this.playEventBuffer = playEventBuffer;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.enabled = enabled;
+        this.capacity = capacity;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return most favorited tracks, most favorited first, empty until the summaries are loaded
+     */
+    public Optional<List<SpaceSaving.Estimate>> getMostFavorited(int limit) {
+        lock.lock();
+        try {
+            return loaded ? Optional.of(favorites.top(limit)) : Optional.empty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return most played tracks of the last 7 days, most played first, empty until the summaries
+     *         are loaded
+     */
+    public Optional<List<SpaceSaving.Estimate>> getMostPlayed(int limit) {
+        lock.lock();
+        try {
+            if (!loaded) {
+                return Optional.empty();
+            }
+            advance(LocalDate.now().toEpochDay());
+            return Optional.of(SpaceSaving.merge(capacity, Arrays.asList(days)).top(limit));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFavoritesChanged(FavoritesChangedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        List<FavoriteChange> changes = event.changes().stream()
+                .filter(change -> change.type() == FavoriteChange.Type.CREATED || change.type() == FavoriteChange.Type.DELETED)
+                .toList();
+        if (changes.isEmpty()) {
+            return;
+        }
+        apply(() -> changes.forEach(change -> {
+            if (change.type() == FavoriteChange.Type.CREATED) {
+                favorites.offer(change.trackId(), 1);
+            } else {
+                favorites.remove(change.trackId());
+            }
+        }));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPlaysRecorded(PlaysRecordedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        List<RecordedPlay> plays = List.copyOf(event.plays());
+        apply(() -> {
+            if (event.flush() > loadedFlush) {
+                plays.forEach(play -> addPlays(dayOf(play.playedAt()), play.trackId(), 1));
+            }
+        });
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPlaysDeleted(PlaysDeletedEvent event) {
+        if (!enabled) {
+            return;
+        }
+        List<RecordedPlay> plays = List.copyOf(event.plays());
+        apply(() -> plays.forEach(play -> removePlay(dayOf(play.playedAt()), play.trackId())));
+    }
+
+    /**
+     * Loads the summaries from the favorite counters and the play log. Favorite changes committed
+     * right as the load reads the counters may be counted twice, which only widens the error of
+     * their tracks.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            loaded = false;
+            pending = new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+
+        long start = System.currentTimeMillis();
+        long today = LocalDate.now().toEpochDay();
+        SpaceSaving loadedFavorites = new SpaceSaving(capacity);
+        List<DailyCount> counts = new ArrayList<>();
+        long watermark;
+        try {
+            for (TrackStats stats : favoriteService.getTrackStats()) {
+                if (stats.favoriteCount() > 0) {
+                    loadedFavorites.offer(stats.trackId(), stats.favoriteCount());
+                }
+            }
+            watermark = transactionTemplate.execute(status -> {
+                long lastFlush = playEventBuffer.lastFlushBefore(repository::takeSnapshot);
+                repository.forEachDailyTrackPlayCount(LocalDate.ofEpochDay(today - WEEK_DAYS + 1).atStartOfDay().minusNanos(1),
+                        (day, trackId, plays) -> counts.add(new DailyCount(day.toEpochDay(), trackId, plays)));
+                return lastFlush;
+            });
+        } catch (RuntimeException e) {
+            lock.lock();
+            try {
+                pending = null;
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+
+        lock.lock();
+        try {
+            favorites = loadedFavorites;
+            loadedFlush = watermark;
+            reset(today);
+            counts.forEach(count -> addPlays(count.day(), count.trackId(), count.plays()));
+            pending.forEach(Runnable::run);
+            pending = null;
+            loaded = true;
+        } finally {
+            lock.unlock();
+        }
+        log.info("Loaded track heavy hitters from {} daily play counts in {} ms", counts.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    private void apply(Runnable change) {
+        lock.lock();
+        try {
+            if (loaded) {
+                change.run();
+            } else if (pending != null) {
+                pending.add(change);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void addPlays(long day, String trackId, long plays) {
+        if (day > currentDay) {
+            advance(Math.min(day, LocalDate.now().toEpochDay()));
+            // plays from the future are counted in the current day
+            day = Math.min(day, currentDay);
+        }
+        if (day <= currentDay - WEEK_DAYS) {
+            return;
+        }
+        days[slot(day)].offer(trackId, plays);
+    }
+
+    private void removePlay(long day, String trackId) {
+        if (day > currentDay) {
+            advance(Math.min(day, LocalDate.now().toEpochDay()));
+            day = Math.min(day, currentDay);
+        }
+        if (day <= currentDay - WEEK_DAYS) {
+            return;
+        }
+        days[slot(day)].remove(trackId);
+    }
+
+    private void advance(long toDay) {
+        if (toDay <= currentDay) {
+            return;
+        }
+        // the summary of a new day still holds the day leaving the window
+        for (long day = Math.max(currentDay + 1, toDay - WEEK_DAYS + 1); day <= toDay; day++) {
+            days[slot(day)] = new SpaceSaving(capacity);
+        }
+        currentDay = toDay;
+    }
+
+    private void reset(long day) {
+        for (int i = 0; i < days.length; i++) {
+            days[i] = new SpaceSaving(capacity);
+        }
+        currentDay = day;
+    }
+
+    private static int slot(long day) {
+        return (int) Math.floorMod(day, (long) WEEK_DAYS);
+    }
+
+    private static long dayOf(LocalDateTime time) {
+        return time.toLocalDate().toEpochDay();
+    }
+
+    private record DailyCount(long day, String trackId, long plays) {
+    }
+}
@@ -0,0 +1,309 @@
+package cz.mendelu.ea.domain.statistics;
+
+import cz.mendelu.ea.domain.favorite.PlayEventBuffer;
+import cz.mendelu.ea.domain.favorite.PlaysDeletedEvent;
+import cz.mendelu.ea.domain.favorite.PlaysRecordedEvent;
+import cz.mendelu.ea.domain.favorite.RecordedPlay;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Play counts of the last 7 and 30 days by track, genre and country, kept in memory.
+ *
+ * Plays are counted in a ring of hourly buckets covering 30 days, and added to running totals of
+ * both windows. When the clock moves to a new hour, the buckets leaving a window are subtracted
+ * from its totals and the oldest bucket is reused, so reading a window costs one copy of its
+ * totals, whatever the size of the play log. Windows are aligned to whole hours: the last 7 days
+ * are the current hour and the 167 before it. The counters are loaded from the play log at
+ * startup and follow committed flushes of the play buffer and plays deleted with their favorites.
+ * The load reads the log in a snapshot taken between two flushes, so flushes committed while it
+ * runs are counted once, from their events.
+ */
+@Component
+@Slf4j
+public class TrendingCounters {
+
+    private static final int WEEK_HOURS = 7 * 24;
+    private static final int MONTH_HOURS = 30 * 24;
+
+    private final PlayStatisticsRepository repository;
+    private final PlayEventBuffer playEventBuffer;
+    private final TransactionTemplate transactionTemplate;
+
+    // guards all fields below
+    private final ReentrantLock lock = new ReentrantLock();
+    // bucket of an hour is at the hour modulo the ring size
+    private final Counts[] buckets = new Counts[MONTH_HOURS];
+    private Counts week = new Counts();
+    private Counts month = new Counts();
+    private long currentHour;
+    private boolean loaded;
+    // plays committed during the load, null when no load runs
+    private List<PlaysRecordedEvent> pending;
+    private List<RecordedPlay> pendingDeleted;
+
+    public TrendingCounters(PlayStatisticsRepository repository, PlayEventBuffer playEventBuffer,
+                            PlatformTransactionManager transactionManager) {
+        this.repository = repository;
+        this.playEventBuffer = playEventBuffer;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+
+    /**
+     * @return counts of the current windows, empty until the counters are loaded
+     */
+    public Optional<TrendingCounts> getCounts() {
+        lock.lock();
+        try {
+            if (!loaded) {
+                return Optional.empty();
+            }
+            advance(hourOf(LocalDateTime.now()));
+            return Optional.of(new TrendingCounts(
+                    new HashMap<>(week.tracks), new HashMap<>(month.genres), new HashMap<>(week.countries)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPlaysRecorded(PlaysRecordedEvent event) {
+        lock.lock();
+        try {
+            if (loaded) {
+                event.plays().forEach(this::add);
+            } else if (pending != null) {
+                pending.add(event);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onPlaysDeleted(PlaysDeletedEvent event) {
+        lock.lock();
+        try {
+            if (loaded) {
+                event.plays().forEach(this::remove);
+            } else if (pendingDeleted != null) {
+                pendingDeleted.addAll(event.plays());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${statistics.trending.clock-interval-ms:60000}")
+    public void advanceClock() {
+        lock.lock();
+        try {
+            if (loaded) {
+                advance(hourOf(LocalDateTime.now()));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Loads the counters from the play log. Flushes up to the last one visible in the snapshot of
+     * the load are skipped when the plays committed during the load are replayed. Plays deleted
+     * right as the load reads the log may still be subtracted twice, until they leave the windows.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        lock.lock();
+        try {
+            loaded = false;
+            pending = new ArrayList<>();
+            pendingDeleted = new ArrayList<>();
+        } finally {
+            lock.unlock();
+        }
+
+        long start = System.currentTimeMillis();
+        long nowHour = hourOf(LocalDateTime.now());
+        List<HourlyCount> counts = new ArrayList<>();
+        long watermark;
+        try {
+            watermark = transactionTemplate.execute(status -> {
+                long lastFlush = playEventBuffer.lastFlushBefore(repository::takeSnapshot);
+                repository.forEachHourlyPlayCount(startOf(nowHour - MONTH_HOURS + 1).minusNanos(1),
+                        (hour, trackId, genre, country, plays) ->
+                                counts.add(new HourlyCount(hourOf(hour), trackId, genre, country, plays)));
+                return lastFlush;
+            });
+        } catch (RuntimeException e) {
+            lock.lock();
+            try {
+                pending = null;
+                pendingDeleted = null;
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+
+        lock.lock();
+        try {
+            reset(nowHour);
+            counts.forEach(count -> add(count.hour(), count.trackId(), count.genre(), count.country(), count.plays()));
+            pending.stream()
+                    .filter(event -> event.flush() > watermark)
+                    .forEach(event -> event.plays().forEach(this::add));
+            pendingDeleted.forEach(this::remove);
+            pending = null;
+            pendingDeleted = null;
+            loaded = true;
+        } finally {
+            lock.unlock();
+        }
+        log.info("Loaded trending counters from {} hourly play counts in {} ms", counts.size(),
+                System.currentTimeMillis() - start);
+    }
+
+    private void add(RecordedPlay play) {
+        add(hourOf(play.playedAt()), play.trackId(), play.trackGenre(), play.country(), 1);
+    }
+
+    private void add(long hour, String trackId, String genre, String country, long plays) {
+        if (hour > currentHour) {
+            advance(Math.min(hour, hourOf(LocalDateTime.now())));
+            // plays from the future are counted in the current hour
+            hour = Math.min(hour, currentHour);
+        }
+        if (hour <= currentHour - MONTH_HOURS) {
+            return;
+        }
+        buckets[slot(hour)].add(trackId, genre, country, plays);
+        month.add(trackId, genre, country, plays);
+        if (hour > currentHour - WEEK_HOURS) {
+            week.add(trackId, genre, country, plays);
+        }
+    }
+
+    private void remove(RecordedPlay play) {
+        long hour = hourOf(play.playedAt());
+        if (hour > currentHour) {
+            advance(Math.min(hour, hourOf(LocalDateTime.now())));
+            hour = Math.min(hour, currentHour);
+        }
+        if (hour <= currentHour - MONTH_HOURS) {
+            return;
+        }
+        buckets[slot(hour)].remove(play.trackId(), play.trackGenre(), play.country());
+        month.remove(play.trackId(), play.trackGenre(), play.country());
+        if (hour > currentHour - WEEK_HOURS) {
+            week.remove(play.trackId(), play.trackGenre(), play.country());
+        }
+    }
+
+    private void advance(long toHour) {
+        if (toHour <= currentHour) {
+            return;
+        }
+        if (toHour - currentHour >= MONTH_HOURS) {
+            reset(toHour);
+            return;
+        }
+        for (long hour = currentHour + 1; hour <= toHour; hour++) {
+            week.subtract(buckets[slot(hour - WEEK_HOURS)]);
+            // the bucket of the new hour still holds the hour leaving the month
+            month.subtract(buckets[slot(hour)]);
+            buckets[slot(hour)] = new Counts();
+        }
+        currentHour = toHour;
+    }
+
+    private void reset(long hour) {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new Counts();
+        }
+        week = new Counts();
+        month = new Counts();
+        currentHour = hour;
+    }
+
+    private static int slot(long hour) {
+        return (int) Math.floorMod(hour, (long) MONTH_HOURS);
+    }
+
+    private static long hourOf(LocalDateTime time) {
+        return Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), 3600);
+    }
+
+    private static LocalDateTime startOf(long hour) {
+        return LocalDateTime.ofEpochSecond(hour * 3600, 0, ZoneOffset.UTC);
+    }
+
+    /**
+     * @param playsByTrack   plays in the last 7 days
+     * @param playsByGenre   plays in the last 30 days
+     * @param playsByCountry plays in the last 7 days
+     */
+    public record TrendingCounts(Map<String, Long> playsByTrack, Map<String, Long> playsByGenre,
+                                 Map<String, Long> playsByCountry) {
+    }
+
+    private record HourlyCount(long hour, String trackId, String genre, String country, long plays) {
+    }
+
+    private static class Counts {
+
+        private final Map<String, Long> tracks = new HashMap<>();
+        private final Map<String, Long> genres = new HashMap<>();
+        private final Map<String, Long> countries = new HashMap<>();
+
+        void add(String trackId, String genre, String country, long plays) {
+            tracks.merge(trackId, plays, Long::sum);
+            genres.merge(genre, plays, Long::sum);
+            if (country != null) {
+                countries.merge(country, plays, Long::sum);
+            }
+        }
+
+        // counts never go below zero, even for plays subtracted twice
+        void remove(String trackId, String genre, String country) {
+            decrement(tracks, trackId);
+            decrement(genres, genre);
+            if (country != null) {
+                decrement(countries, country);
+            }
+        }
+
+        void subtract(Counts other) {
+            subtract(tracks, other.tracks);
+            subtract(genres, other.genres);
+            subtract(countries, other.countries);
+        }
+
+        private static void decrement(Map<String, Long> totals, String key) {
+            totals.computeIfPresent(key, (k, total) -> total > 1 ? total - 1 : null);
+        }
+
+        private static void subtract(Map<String, Long> totals, Map<String, Long> counts) {
+            counts.forEach((key, count) -> totals.computeIfPresent(key, (k, total) -> {
+                long remaining = total - count;
+                return remaining == 0 ? null : remaining;
+            }));
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package cz.mendelu.ea.domain.statistics.dto;
+
+import cz.mendelu.ea.domain.favorite.Favorite;
+import cz.mendelu.ea.domain.user.User;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Copy of a user with their favorites, serialized like the user itself. Statistics snapshots
+ * hold it instead of the entity, so they share nothing mutable between threads.
+ */
+public record ActiveUserDTO(Long id, String username, String firstName, String lastName, String email,
+                            LocalDate dateOfBirth, String country, Integer favoriteCount,
+                            List<FavoriteDTO> favorites) {
+
+    public static ActiveUserDTO of(User user) {
+        List<FavoriteDTO> favorites = user.getFavorites() == null
+                ? null
+                : user.getFavorites().stream().map(FavoriteDTO::of).toList();
+        return new ActiveUserDTO(user.getId(), user.getUsername(), user.getFirstName(), user.getLastName(),
+                user.getEmail(), user.getDateOfBirth(), user.getCountry(), user.getFavoriteCount(), favorites);
+    }
+
+    public record FavoriteDTO(Long id, LocalDateTime createdAt, Integer rating, String comment, Boolean isPublic,
+                              LocalDateTime lastPlayed) {
+
+        static FavoriteDTO of(Favorite favorite) {
+            return new FavoriteDTO(favorite.getId(), favorite.getCreatedAt(), favorite.getRating(),
+                    favorite.getComment(), favorite.getIsPublic(), favorite.getLastPlayed());
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package cz.mendelu.ea.domain.statistics.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import lombok.Data;
 import java.util.List;
 import java.util.Map;
@@ -18,5 +19,8 @@ public class TrendingStatsDTO {
         private String genre;
         private Integer popularity;
         private Long count;
+        // most the approximate count may exceed the true one, left out of exact reports
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        private Long countError;
     }
 } 
\ No newline at end of file
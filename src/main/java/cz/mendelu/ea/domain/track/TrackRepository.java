@@ -3,7 +3,9 @@ package cz.mendelu.ea.domain.track;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 public interface TrackRepository extends JpaRepository<Track, String> {
     List<Track> findByTrackGenre(String genre);
@@ -17,4 +19,7 @@ public interface TrackRepository extends JpaRepository<Track, String> {
     
     @Query("SELECT t FROM Track t WHERE t.acousticness > ?1 AND t.instrumentalness > ?2")
     List<Track> findAcousticAndInstrumentalTracks(Double minAcousticness, Double minInstrumentalness);
+
+    @Query("SELECT t.trackId FROM Track t WHERE t.trackId IN ?1")
+    Set<String> findExistingIds(Collection<String> ids);
 } 
\ No newline at end of file
@@ -4,8 +4,10 @@ import cz.mendelu.ea.utils.exceptions.NotFoundException;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
@@ -27,6 +29,21 @@ public class TrackService {
         return repository.findById(id).orElseThrow(NotFoundException::new);
     }
 
+    /**
+     * Returns a lazy reference to the track without loading it, for setting foreign keys.
+     */
+    public Track getTrackReference(String id) {
+        return repository.getReferenceById(id);
+    }
+
+    public Set<String> getExistingTrackIds(Collection<String> ids) {
+        return ids.isEmpty() ? Set.of() : repository.findExistingIds(ids);
+    }
+
+    public List<Track> getTracksByIds(Collection<String> ids) {
+        return ids.isEmpty() ? List.of() : repository.findAllById(ids);
+    }
+
     public List<Track> getTracksByGenre(String genre) {
         return repository.findByTrackGenre(genre);
     }
@@ -0,0 +1,13 @@
+package cz.mendelu.ea.domain.user;
+
+import cz.mendelu.ea.domain.user.UserStatsRepository.VersionedCount;
+
+import java.util.Map;
+
+/**
+ * Published inside the writing transaction when favorite counts of users change.
+ *
+ * @param favoriteCountsByUserId new favorite count of every affected user, with its version
+ */
+public record FavoriteCountsChangedEvent(Map<Long, VersionedCount> favoriteCountsByUserId) {
+}
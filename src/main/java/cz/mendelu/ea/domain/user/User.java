@@ -17,7 +17,8 @@ import java.util.List;
 public class User {
 
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "users_seq")
+    @SequenceGenerator(name = "users_seq", sequenceName = "users_seq", allocationSize = 50)
     private Long id;
 
     @NotEmpty
@@ -39,6 +40,11 @@ public class User {
     @NotEmpty
     private String country;
 
+    // maintained by the database on favorite writes, see UserFavoriteCountUpdater
+    @Column(insertable = false, updatable = false)
+    private Integer favoriteCount = 0;
+
+    // also served page by page by GET /users/{id}/favorites, for libraries too large to embed
     @OneToMany(mappedBy = "user", cascade = CascadeType.ALL)
     @JsonManagedReference
     private List<Favorite> favorites;
@@ -0,0 +1,206 @@
+package cz.mendelu.ea.domain.user;
+
+import cz.mendelu.ea.domain.favorite.FavoriteChange;
+import cz.mendelu.ea.domain.favorite.FavoritesChangedEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Bounded in-memory cache of users by id, with username and email indexes pointing to the id.
+ *
+ * Users are cached as copies without their favorites, every read returns a new copy, which the
+ * caller fills with the current favorites. Updated and deleted users are dropped together with
+ * their index entries after the write commits, favorite counts follow committed favorite writes.
+ * Least recently read users are evicted once the cache holds more than {@code maxEntries} users.
+ */
+@Component
+public class UserCache {
+
+    private final int maxEntries;
+
+    // guards all fields below
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Long, User> users = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> idByUsername = new HashMap<>();
+    private final Map<String, Long> idByEmail = new HashMap<>();
+    // sequence of the last write of the users hashed to the slot, a load that raced with one is not cached
+    private final long[] lastWrites = new long[1024];
+    private long writes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public UserCache(@Value("${users.cache.max-entries:10000}") int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public Optional<User> getById(Long id, Supplier<Optional<User>> loader) {
+        return get(() -> id, loader);
+    }
+
+    public Optional<User> getByUsername(String username, Supplier<Optional<User>> loader) {
+        return get(() -> idByUsername.get(username), loader);
+    }
+
+    public Optional<User> getByEmail(String email, Supplier<Optional<User>> loader) {
+        return get(() -> idByEmail.get(email), loader);
+    }
+
+    /**
+     * Drops the user, call after the write of the user commits.
+     */
+    public void invalidate(Long id) {
+        lock.lock();
+        try {
+            lastWrites[slot(id)] = ++writes;
+            remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops all users and resets the metrics.
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            Arrays.fill(lastWrites, ++writes);
+            users.clear();
+            idByUsername.clear();
+            idByEmail.clear();
+            hits.set(0);
+            misses.set(0);
+            evictions.set(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserDeletion(UserDeletionEvent event) {
+        invalidate(event.userId());
+    }
+
+    /**
+     * Applies committed favorite creates and deletes to the favorite counts of cached users.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFavoritesChanged(FavoritesChangedEvent event) {
+        lock.lock();
+        try {
+            for (FavoriteChange change : event.changes()) {
+                int delta = switch (change.type()) {
+                    case CREATED -> 1;
+                    case DELETED -> -1;
+                    default -> 0;
+                };
+                if (delta == 0) {
+                    continue;
+                }
+                lastWrites[slot(change.userId())] = ++writes;
+                User user = users.get(change.userId());
+                if (user != null) {
+                    user.setFavoriteCount(user.getFavoriteCount() + delta);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public UserCacheStats getStats() {
+        lock.lock();
+        try {
+            return new UserCacheStats(users.size(), maxEntries, hits.get(), misses.get(), evictions.get());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // the id is resolved under the lock, so it cannot point to an evicted user
+    private Optional<User> get(Supplier<Long> id, Supplier<Optional<User>> loader) {
+        long sequence;
+        lock.lock();
+        try {
+            Long cachedId = id.get();
+            User cached = cachedId == null ? null : users.get(cachedId);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return Optional.of(copy(cached));
+            }
+            sequence = writes;
+        } finally {
+            lock.unlock();
+        }
+        misses.incrementAndGet();
+
+        Optional<User> loaded = loader.get();
+        loaded.ifPresent(user -> {
+            lock.lock();
+            try {
+                if (lastWrites[slot(user.getId())] <= sequence && !users.containsKey(user.getId())) {
+                    users.put(user.getId(), copy(user));
+                    idByUsername.put(user.getUsername(), user.getId());
+                    idByEmail.put(user.getEmail(), user.getId());
+                    evict();
+                }
+            } finally {
+                lock.unlock();
+            }
+        });
+        return loaded;
+    }
+
+    private void remove(Long id) {
+        User user = users.remove(id);
+        if (user != null) {
+            removeIndexes(user);
+        }
+    }
+
+    // another user may have taken over the username or email since
+    private void removeIndexes(User user) {
+        idByUsername.remove(user.getUsername(), user.getId());
+        idByEmail.remove(user.getEmail(), user.getId());
+    }
+
+    private void evict() {
+        Iterator<User> eldest = users.values().iterator();
+        while (users.size() > maxEntries && eldest.hasNext()) {
+            User user = eldest.next();
+            eldest.remove();
+            removeIndexes(user);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private int slot(Long userId) {
+        return Math.floorMod(userId.hashCode(), lastWrites.length);
+    }
+
+    private static User copy(User user) {
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setUsername(user.getUsername());
+        copy.setFirstName(user.getFirstName());
+        copy.setLastName(user.getLastName());
+        copy.setEmail(user.getEmail());
+        copy.setDateOfBirth(user.getDateOfBirth());
+        copy.setCountry(user.getCountry());
+        copy.setFavoriteCount(user.getFavoriteCount());
+        return copy;
+    }
+}
@@ -0,0 +1,12 @@
+package cz.mendelu.ea.domain.user;
+
+/**
+ * Snapshot of {@link UserCache} metrics.
+ *
+ * @param users     number of cached users
+ * @param hits      lookups served from memory
+ * @param misses    lookups that read the database
+ * @param evictions users evicted to stay within {@code maxEntries}
+ */
+public record UserCacheStats(int users, int maxEntries, long hits, long misses, long evictions) {
+}
@@ -1,7 +1,17 @@
 package cz.mendelu.ea.domain.user;
 
+import cz.mendelu.ea.domain.favorite.FavoritePage;
+import cz.mendelu.ea.domain.favorite.FavoriteService;
+import cz.mendelu.ea.domain.favorite.dto.FavoriteChangesDTO;
+import cz.mendelu.ea.domain.favorite.dto.FavoriteEntryDTO;
+import cz.mendelu.ea.domain.user.dto.SegmentQuery;
+import cz.mendelu.ea.domain.user.dto.SegmentResultDTO;
+import cz.mendelu.ea.domain.user.dto.UserDeletionDTO;
+import cz.mendelu.ea.domain.user.dto.UserDemographicsDTO;
+import cz.mendelu.ea.domain.user.dto.UserImportResultDTO;
 import cz.mendelu.ea.utils.response.ArrayResponse;
 import cz.mendelu.ea.utils.response.ObjectResponse;
+import cz.mendelu.ea.utils.response.PageResponse;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -9,19 +19,33 @@ import io.swagger.v3.oas.annotations.media.ExampleObject;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
 @RestController
 @RequestMapping("/users")
 @Tag(name = "User Management", description = "APIs for managing users")
 public class UserController {
 
+    private static final MediaType TEXT_CSV = MediaType.parseMediaType("text/csv");
+
     private final UserService userService;
+    private final FavoriteService favoriteService;
 
-    public UserController(UserService userService) {
+    public UserController(UserService userService, FavoriteService favoriteService) {
         this.userService = userService;
+        this.favoriteService = favoriteService;
     }
 
     @PostMapping("")
@@ -65,6 +89,50 @@ public class UserController {
         return ObjectResponse.of(userService.createUser(user), user1 -> user1);
     }
 
+    @PostMapping(value = "/import", consumes = {"application/x-ndjson", "text/csv"})
+    @Operation(
+        summary = "Import users",
+        description = "Creates users from an NDJSON (one user per line) or CSV (header username,firstName,lastName,email,dateOfBirth,country) upload, streamed in chunks. Invalid rows are reported by line and skipped, the valid ones are imported.",
+        requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+            content = {
+                @Content(
+                    mediaType = "application/x-ndjson",
+                    examples = @ExampleObject(
+                        name = "NDJSON",
+                        value = """
+                        {"username": "jane", "firstName": "Jane", "lastName": "Doe", "email": "jane@example.com", "dateOfBirth": "1992-05-15", "country": "UK"}
+                        {"username": "john", "firstName": "John", "lastName": "Doe", "email": "john@example.com", "dateOfBirth": "1990-01-01", "country": "USA"}
+                        """
+                    )
+                ),
+                @Content(
+                    mediaType = "text/csv",
+                    examples = @ExampleObject(
+                        name = "CSV",
+                        value = """
+                        username,firstName,lastName,email,dateOfBirth,country
+                        jane,Jane,Doe,jane@example.com,1992-05-15,UK
+                        john,John,Doe,john@example.com,1990-01-01,USA
+                        """
+                    )
+                )
+            }
+        )
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Import finished, see the result for rejected rows"),
+        @ApiResponse(responseCode = "400", description = "Malformed CSV or missing CSV columns"),
+        @ApiResponse(responseCode = "415", description = "Unsupported content type")
+    })
+    public ObjectResponse<UserImportResultDTO> importUsers(
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+            HttpServletRequest request) throws IOException {
+        UserImporter.Format format = contentType.isCompatibleWith(TEXT_CSV) ? UserImporter.Format.CSV : UserImporter.Format.NDJSON;
+        Charset charset = contentType.getCharset() == null ? StandardCharsets.UTF_8 : contentType.getCharset();
+        Reader input = new InputStreamReader(request.getInputStream(), charset);
+        return ObjectResponse.of(userService.importUsers(input, format), result -> result);
+    }
+
     @GetMapping("")
     @Operation(summary = "Get all users", description = "Retrieves a list of all users")
     @ApiResponses(value = {
@@ -74,8 +142,64 @@ public class UserController {
         return ArrayResponse.of(userService.getAllUsers(), user -> user);
     }
 
+    @GetMapping("/demographics")
+    @Operation(
+        summary = "Get user demographics",
+        description = "Retrieves user counts by country and by age, average age by country and average number of favorites by country"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Demographics retrieved successfully")
+    })
+    public ObjectResponse<UserDemographicsDTO> getDemographics() {
+        return ObjectResponse.of(userService.getDemographics(), demographics -> demographics);
+    }
+
+    @PostMapping("/segments")
+    @Operation(
+        summary = "Query a user segment",
+        description = "Counts and lists users of a cohort combined from country, age (in calendar years) and favorited genre conditions with and, or and not. Each segment sets exactly one field.",
+        requestBody = @io.swagger.v3.oas.annotations.parameters.RequestBody(
+            content = @Content(
+                mediaType = "application/json",
+                examples = {
+                    @ExampleObject(
+                        name = "Czech users aged 18-25 with a jazz favorite",
+                        value = """
+                        {
+                            "and": [
+                                {"country": "CZ"},
+                                {"age": {"min": 18, "max": 25}},
+                                {"genre": "jazz"}
+                            ]
+                        }
+                        """
+                    )
+                }
+            )
+        )
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Segment evaluated successfully"),
+        @ApiResponse(responseCode = "400", description = "Invalid segment or limit")
+    })
+    public ObjectResponse<SegmentResultDTO> querySegment(
+            @RequestBody SegmentQuery query,
+            @Parameter(description = "Maximum number of listed user ids, 0 to only count", example = "100")
+            @RequestParam(defaultValue = "100") int limit) {
+        return ObjectResponse.of(userService.getSegment(query, limit), result -> result);
+    }
+
+    @GetMapping("/cache")
+    @Operation(summary = "Get user cache metrics", description = "Retrieves size and hit metrics of the user cache")
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Metrics retrieved successfully")
+    })
+    public ObjectResponse<UserCacheStats> getCacheStats() {
+        return ObjectResponse.of(userService.getCacheStats(), stats -> stats);
+    }
+
     @GetMapping("/{id}")
-    @Operation(summary = "Get user by ID", description = "Retrieves a user by their ID")
+    @Operation(summary = "Get user by ID", description = "Retrieves a user by their ID with their favorites. Favorites of libraries too large to embed are left out, read them from /users/{id}/favorites.")
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "User found"),
         @ApiResponse(responseCode = "404", description = "User not found")
@@ -85,6 +209,46 @@ public class UserController {
         return ObjectResponse.of(userService.getUserById(id), user -> user);
     }
 
+    @GetMapping("/{id}/favorites")
+    @Operation(
+        summary = "Get user's favorites",
+        description = "Retrieves the user's library, newest first, one page at a time. Pass nextCursor of a page as cursor to get the next one."
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Page of favorites retrieved successfully"),
+        @ApiResponse(responseCode = "400", description = "Invalid cursor or limit"),
+        @ApiResponse(responseCode = "404", description = "User not found")
+    })
+    public PageResponse<FavoriteEntryDTO> getUserFavorites(
+            @Parameter(description = "ID of the user") @PathVariable Long id,
+            @Parameter(description = "Cursor of the page, omit for the first page") @RequestParam(required = false) String cursor,
+            @Parameter(description = "Maximum number of favorites on the page", example = "20")
+            @RequestParam(defaultValue = "20") int limit) {
+        FavoritePage page = favoriteService.getUserFavoritesPage(id, cursor, limit);
+        return PageResponse.of(page.items(), favorite -> favorite, page.nextCursor());
+    }
+
+    @GetMapping("/{id}/favorites/changes")
+    @Operation(
+        summary = "Get changes of user's favorites",
+        description = "Retrieves changes of the user's library since the given version, oldest first, with tombstones of deleted favorites. Pass nextSince as since in the next request. When reset is true, changes hold the whole library and replace the client's copy; while hasMore is true, pass nextCursor as cursor to get the rest of it."
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Changes retrieved successfully"),
+        @ApiResponse(responseCode = "400", description = "Invalid limit"),
+        @ApiResponse(responseCode = "404", description = "User not found")
+    })
+    public ObjectResponse<FavoriteChangesDTO> getUserFavoriteChanges(
+            @Parameter(description = "ID of the user") @PathVariable Long id,
+            @Parameter(description = "Version of the client's copy, 0 for the first sync", example = "0")
+            @RequestParam(defaultValue = "0") long since,
+            @Parameter(description = "Cursor returned with the previous page of a reset, since is ignored with it")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Maximum number of changes", example = "500")
+            @RequestParam(defaultValue = "500") int limit) {
+        return ObjectResponse.of(favoriteService.getFavoriteChanges(id, since, cursor, limit), changes -> changes);
+    }
+
     @PutMapping("/{id}")
     @Operation(
         summary = "Update user",
@@ -128,14 +292,36 @@ public class UserController {
     }
 
     @DeleteMapping("/{id}")
-    @Operation(summary = "Delete user", description = "Deletes a user by their ID")
+    @Operation(
+        summary = "Delete user",
+        description = "Deletes a user by their ID together with their favorites. With async=true the favorites are deleted in the background in chunks, for users with huge libraries, and the response carries the job id to poll the deletion with at /users/deletions/{jobId}."
+    )
     @ApiResponses(value = {
+        @ApiResponse(responseCode = "202", description = "User deletion started"),
         @ApiResponse(responseCode = "204", description = "User deleted successfully"),
         @ApiResponse(responseCode = "404", description = "User not found")
     })
-    @ResponseStatus(HttpStatus.NO_CONTENT)
-    public void deleteUser(
-            @Parameter(description = "ID of the user to delete") @PathVariable Long id) {
+    public ResponseEntity<ObjectResponse<UserDeletionDTO>> deleteUser(
+            @Parameter(description = "ID of the user to delete") @PathVariable Long id,
+            @Parameter(description = "Delete in the background in chunks") @RequestParam(defaultValue = "false") boolean async) {
+        if (async) {
+            return ResponseEntity.accepted().body(ObjectResponse.of(userService.deleteUserAsync(id), deletion -> deletion));
+        }
         userService.deleteUser(id);
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/deletions/{jobId}")
+    @Operation(
+        summary = "Get background user deletion",
+        description = "Retrieves status and progress of a deletion started with async=true. Finished deletions are kept for an hour."
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Deletion retrieved successfully"),
+        @ApiResponse(responseCode = "404", description = "Deletion not found")
+    })
+    public ObjectResponse<UserDeletionDTO> getDeletion(
+            @Parameter(description = "Job id returned when the deletion started") @PathVariable String jobId) {
+        return ObjectResponse.of(userService.getDeletion(jobId), deletion -> deletion);
     }
 } 
\ No newline at end of file
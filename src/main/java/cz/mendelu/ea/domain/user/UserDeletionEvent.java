@@ -0,0 +1,8 @@
+package cz.mendelu.ea.domain.user;
+
+/**
+ * Published inside the deleting transaction right before the user row is removed, so listeners
+ * can clean up rows referencing the user.
+ */
+public record UserDeletionEvent(Long userId) {
+}
@@ -0,0 +1,73 @@
+package cz.mendelu.ea.domain.user;
+
+import cz.mendelu.ea.domain.favorite.FavoriteChange;
+import cz.mendelu.ea.domain.favorite.FavoritesChangedEvent;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps {@code users.favorite_count} in step with the favorite table.
+ *
+ * Changes are applied synchronously in the transaction that writes the favorites, one update per
+ * affected user, and the new counts are published as {@link FavoriteCountsChangedEvent}. Writes
+ * bypassing the favorite service are repaired by the scheduled reconciliation.
+ */
+@Component
+@Slf4j
+public class UserFavoriteCountUpdater {
+
+    private static final int RECONCILE_CHUNK_IDS = 1000;
+
+    private final UserStatsRepository repository;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public UserFavoriteCountUpdater(UserStatsRepository repository, TransactionTemplate transactionTemplate,
+                                    ApplicationEventPublisher eventPublisher) {
+        this.repository = repository;
+        this.transactionTemplate = transactionTemplate;
+        this.eventPublisher = eventPublisher;
+    }
+
+    @EventListener
+    public void onFavoritesChanged(FavoritesChangedEvent event) {
+        // sorted by user id, so concurrent writers lock the rows in the same order
+        Map<Long, Integer> deltas = new TreeMap<>();
+        for (FavoriteChange change : event.changes()) {
+            switch (change.type()) {
+                case CREATED -> deltas.merge(change.userId(), 1, Integer::sum);
+                case DELETED -> deltas.merge(change.userId(), -1, Integer::sum);
+                default -> {
+                }
+            }
+        }
+        deltas.values().removeIf(delta -> delta == 0);
+        if (!deltas.isEmpty()) {
+            eventPublisher.publishEvent(new FavoriteCountsChangedEvent(repository.addFavoriteCounts(deltas)));
+        }
+    }
+
+    @Scheduled(cron = "${users.favorite-count.reconcile-cron:0 45 3 * * *}")
+    public void reconcile() {
+        // one short transaction per id range, so writers only wait for the users being recounted
+        long maxUserId = repository.findMaxUserId();
+        int repaired = 0;
+        for (long fromId = 0; fromId <= maxUserId; fromId += RECONCILE_CHUNK_IDS) {
+            long from = fromId;
+            repaired += transactionTemplate.execute(status ->
+                    repository.reconcileFavoriteCounts(from, from + RECONCILE_CHUNK_IDS));
+        }
+        if (repaired > 0) {
+            log.warn("User favorite counts reconciled, {} drifted users repaired", repaired);
+        } else {
+            log.info("User favorite counts reconciled, no drift found");
+        }
+    }
+}
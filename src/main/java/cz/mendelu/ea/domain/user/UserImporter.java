@@ -0,0 +1,225 @@
+package cz.mendelu.ea.domain.user;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import cz.mendelu.ea.domain.user.dto.UserImportResultDTO;
+import cz.mendelu.ea.domain.user.dto.UserImportResultDTO.RowError;
+import cz.mendelu.ea.utils.exceptions.BadRequestException;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Streaming import of users from NDJSON or CSV uploads.
+ *
+ * Rows are parsed and validated one at a time while the upload is read, valid rows are inserted in
+ * fixed-size chunks, each in its own transaction. Memory does not grow with the size of the
+ * upload: only one chunk and the first {@code MAX_REPORTED_ERRORS} errors are held. Invalid rows
+ * are reported and skipped; when a chunk fails in the database, its rows are retried one by one,
+ * so a single bad row only rejects itself. Chunks written before a failure of the upload itself
+ * stay imported.
+ */
+@Component
+@Slf4j
+public class UserImporter {
+
+    public enum Format {
+        NDJSON,
+        CSV
+    }
+
+    private static final int MAX_REPORTED_ERRORS = 1000;
+
+    private static final List<String> CSV_COLUMNS =
+            List.of("username", "firstname", "lastname", "email", "dateofbirth", "country");
+
+    private final UserJdbcRepository jdbcRepository;
+    private final Validator validator;
+    private final TransactionTemplate transactionTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+    private final ObjectReader requestReader;
+    private final int chunkSize;
+
+    public UserImporter(UserJdbcRepository jdbcRepository, Validator validator, TransactionTemplate transactionTemplate,
+                        ApplicationEventPublisher eventPublisher, ObjectMapper objectMapper,
+                        @Value("${users.import.chunk-size:1000}") int chunkSize) {
+        this.jdbcRepository = jdbcRepository;
+        this.validator = validator;
+        this.transactionTemplate = transactionTemplate;
+        this.eventPublisher = eventPublisher;
+        this.requestReader = objectMapper.readerFor(CreateUserRequest.class);
+        this.chunkSize = chunkSize;
+    }
+
+    public UserImportResultDTO importUsers(Reader input, Format format) throws IOException {
+        Import run = new Import();
+        long start = System.currentTimeMillis();
+        switch (format) {
+            case NDJSON -> readNdjson(input, run);
+            case CSV -> readCsv(input, run);
+        }
+        run.flush();
+        log.info("Imported {} users, rejected {} rows in {} ms", run.imported, run.rejected,
+                System.currentTimeMillis() - start);
+        return new UserImportResultDTO(run.imported, run.rejected, run.errors, MAX_REPORTED_ERRORS);
+    }
+
+    private void readNdjson(Reader input, Import run) throws IOException {
+        BufferedReader reader = new BufferedReader(input);
+        long line = 0;
+        String json;
+        while ((json = reader.readLine()) != null) {
+            line++;
+            if (json.isBlank()) {
+                continue;
+            }
+            try {
+                run.add(line, requestReader.readValue(json));
+            } catch (JsonProcessingException e) {
+                run.reject(line, "Invalid JSON: " + e.getOriginalMessage());
+            }
+        }
+    }
+
+    private void readCsv(Reader input, Import run) throws IOException {
+        CSVReader reader = new CSVReader(input);
+        try {
+            String[] header = reader.readNext();
+            if (header == null) {
+                return;
+            }
+            Map<String, Integer> columns = new HashMap<>();
+            for (int i = 0; i < header.length; i++) {
+                columns.put(header[i].trim().replace("_", "").toLowerCase(Locale.ROOT), i);
+            }
+            if (!columns.keySet().containsAll(CSV_COLUMNS)) {
+                throw new BadRequestException("CSV header must contain columns " + String.join(", ", CSV_COLUMNS));
+            }
+
+            String[] row;
+            while ((row = reader.readNext()) != null) {
+                long line = reader.getLinesRead();
+                if (row.length < header.length) {
+                    run.reject(line, "Expected " + header.length + " columns, got " + row.length);
+                    continue;
+                }
+                CreateUserRequest request = new CreateUserRequest();
+                request.setUsername(row[columns.get("username")]);
+                request.setFirstName(row[columns.get("firstname")]);
+                request.setLastName(row[columns.get("lastname")]);
+                request.setEmail(row[columns.get("email")]);
+                request.setCountry(row[columns.get("country")]);
+                String dateOfBirth = row[columns.get("dateofbirth")];
+                try {
+                    request.setDateOfBirth(dateOfBirth.isEmpty() ? null : LocalDate.parse(dateOfBirth));
+                } catch (DateTimeParseException e) {
+                    run.reject(line, "Invalid date of birth: " + dateOfBirth);
+                    continue;
+                }
+                run.add(line, request);
+            }
+        } catch (CsvValidationException e) {
+            throw new BadRequestException("Invalid CSV: " + e.getMessage());
+        }
+    }
+
+    private void store(List<CreateUserRequest> requests, List<Long> ids) {
+        jdbcRepository.insertAll(requests, ids);
+        List<User> users = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            CreateUserRequest request = requests.get(i);
+            User user = new User();
+            user.setId(ids.get(i));
+            user.setUsername(request.getUsername());
+            user.setFirstName(request.getFirstName());
+            user.setLastName(request.getLastName());
+            user.setEmail(request.getEmail());
+            user.setDateOfBirth(request.getDateOfBirth());
+            user.setCountry(request.getCountry());
+            users.add(user);
+        }
+        eventPublisher.publishEvent(new UsersSavedEvent(users));
+    }
+
+    // state of one upload, accessed by the request thread only
+    private class Import {
+
+        private final List<Long> lines = new ArrayList<>();
+        private final List<CreateUserRequest> chunk = new ArrayList<>();
+        private final List<RowError> errors = new ArrayList<>();
+        private long imported;
+        private long rejected;
+
+        void add(long line, CreateUserRequest request) {
+            Set<ConstraintViolation<CreateUserRequest>> violations = validator.validate(request);
+            if (!violations.isEmpty()) {
+                reject(line, violations.stream()
+                        .map(ConstraintViolation::getMessage)
+                        .sorted()
+                        .collect(Collectors.joining(", ")));
+                return;
+            }
+            lines.add(line);
+            chunk.add(request);
+            if (chunk.size() >= chunkSize) {
+                flush();
+            }
+        }
+
+        void reject(long line, String error) {
+            rejected++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new RowError(line, error));
+            }
+        }
+
+        void flush() {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            // retries reuse the ids reserved for the chunk instead of reserving a block per row
+            List<Long> ids = jdbcRepository.reserveIds(chunk.size());
+            try {
+                transactionTemplate.executeWithoutResult(status -> store(chunk, ids));
+                imported += chunk.size();
+            } catch (DataAccessException e) {
+                log.warn("Importing a chunk of {} users failed, retrying them one by one", chunk.size(), e);
+                for (int i = 0; i < chunk.size(); i++) {
+                    List<CreateUserRequest> single = List.of(chunk.get(i));
+                    List<Long> singleId = List.of(ids.get(i));
+                    try {
+                        transactionTemplate.executeWithoutResult(status -> store(single, singleId));
+                        imported++;
+                    } catch (DataAccessException rowException) {
+                        reject(lines.get(i), "Could not be stored: "
+                                + NestedExceptionUtils.getMostSpecificCause(rowException).getMessage());
+                    }
+                }
+            }
+            lines.clear();
+            chunk.clear();
+        }
+    }
+}
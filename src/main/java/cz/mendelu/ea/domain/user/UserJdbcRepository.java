@@ -0,0 +1,154 @@
+package cz.mendelu.ea.domain.user;
+
+import cz.mendelu.ea.utils.batch.ChunkedValues;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Plain SQL paths for users that JPA cannot express in a single statement.
+ */
+@Repository
+public class UserJdbcRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+    // increment of users_seq, every value reserves a block of ids like the pooled-lo optimizer does;
+    // read from the sequence, Hibernate refuses to start when its allocation size differs from it
+    private volatile Integer idBlockSize;
+
+    public UserJdbcRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Reserves ids for new users from {@code users_seq} one block at a time, so they never collide
+     * with ids handed out by Hibernate. Reserved ids stay reserved when the insert using them is
+     * rolled back.
+     */
+    public List<Long> reserveIds(int count) {
+        int blockSize = idBlockSize();
+        List<Long> blocks = jdbcTemplate.queryForList("SELECT nextval('users_seq') FROM generate_series(1, ?)",
+                Long.class, (count + blockSize - 1) / blockSize);
+
+        List<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(blocks.get(i / blockSize) + i % blockSize);
+        }
+        return ids;
+    }
+
+    /**
+     * Inserts the users in multi-row statements.
+     *
+     * @param ids ids from {@link #reserveIds}, in the order of the users
+     */
+    public void insertAll(List<CreateUserRequest> users, List<Long> ids) {
+        List<Integer> indexes = IntStream.range(0, users.size()).boxed().toList();
+        ChunkedValues.forEachChunk(indexes, "(?, ?, ?, ?, ?, ?, ?)",
+                (index, args) -> {
+                    CreateUserRequest user = users.get(index);
+                    args.add(ids.get(index));
+                    args.add(user.getUsername());
+                    args.add(user.getFirstName());
+                    args.add(user.getLastName());
+                    args.add(user.getEmail());
+                    args.add(user.getDateOfBirth());
+                    args.add(user.getCountry());
+                },
+                (values, args) -> jdbcTemplate.update("""
+                        INSERT INTO users (id, username, first_name, last_name, email, date_of_birth, country)
+                        VALUES %s
+                        """.formatted(values), args));
+    }
+
+    /**
+     * Streams id, country and date of birth of every user.
+     */
+    public void forEachUser(UserRowHandler handler) {
+        jdbcTemplate.query("SELECT id, country, date_of_birth FROM users", rs -> {
+            handler.accept(rs.getLong("id"), rs.getString("country"), rs.getObject("date_of_birth", LocalDate.class));
+        });
+    }
+
+    /**
+     * Streams every pair of a user and a genre the user favorited a track of.
+     */
+    public void forEachFavoritedGenre(BiConsumer<Long, String> handler) {
+        jdbcTemplate.query("""
+                SELECT DISTINCT f.user_id, t.track_genre
+                FROM favorite f
+                JOIN track t ON t.track_id = f.track_id
+                """, rs -> {
+            handler.accept(rs.getLong("user_id"), rs.getString("track_genre"));
+        });
+    }
+
+    /**
+     * @return genres of the given tracks, unknown tracks are left out
+     */
+    public Map<String, String> findGenresByTrackIds(Collection<String> trackIds) {
+        Map<String, String> genres = new HashMap<>();
+        ChunkedValues.forEachChunk(new ArrayList<>(trackIds), "?", (trackId, args) -> args.add(trackId),
+                (placeholders, args) -> jdbcTemplate.query(
+                        "SELECT track_id, track_genre FROM track WHERE track_id IN (%s)".formatted(placeholders),
+                        rs -> {
+                            genres.put(rs.getString("track_id"), rs.getString("track_genre"));
+                        },
+                        args));
+        return genres;
+    }
+
+    /**
+     * @param pairs user ids and genres
+     * @return the given pairs for which the user still has a favorite of the genre
+     */
+    public Set<Map.Entry<Long, String>> findFavoritedGenres(Collection<Map.Entry<Long, String>> pairs) {
+        Set<Map.Entry<Long, String>> favorited = new HashSet<>();
+        ChunkedValues.forEachChunk(new ArrayList<>(pairs), "(CAST(? AS bigint), CAST(? AS varchar))",
+                (pair, args) -> {
+                    args.add(pair.getKey());
+                    args.add(pair.getValue());
+                },
+                (values, args) -> jdbcTemplate.query("""
+                        SELECT v.user_id, v.genre
+                        FROM (VALUES %s) AS v(user_id, genre)
+                        WHERE EXISTS (
+                            SELECT 1
+                            FROM favorite f
+                            JOIN track t ON t.track_id = f.track_id
+                            WHERE f.user_id = v.user_id AND t.track_genre = v.genre
+                        )
+                        """.formatted(values), rs -> {
+                    favorited.add(Map.entry(rs.getLong("user_id"), rs.getString("genre")));
+                }, args));
+        return favorited;
+    }
+
+    private int idBlockSize() {
+        Integer blockSize = idBlockSize;
+        if (blockSize == null) {
+            blockSize = jdbcTemplate.queryForObject("""
+                    SELECT increment_by
+                    FROM pg_sequences
+                    WHERE schemaname = current_schema() AND sequencename = 'users_seq'
+                    """, Integer.class);
+            idBlockSize = blockSize;
+        }
+        return blockSize;
+    }
+
+    @FunctionalInterface
+    public interface UserRowHandler {
+        void accept(long id, String country, LocalDate dateOfBirth);
+    }
+}
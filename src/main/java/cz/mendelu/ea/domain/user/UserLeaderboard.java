@@ -0,0 +1,266 @@
+package cz.mendelu.ea.domain.user;
+
+import cz.mendelu.ea.domain.user.UserStatsRepository.VersionedCount;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * In-memory ranking of users by favorite count, globally and per country.
+ *
+ * Users are kept in sorted sets ordered by favorite count, then id, both descending, so a move
+ * costs O(log n) and the top N are read in O(N). The ranking is loaded at startup and follows
+ * committed user writes and favorite counts; changes committed while it is loaded are replayed
+ * onto the loaded one. A favorite count replaces the known one only when its version is newer,
+ * so counts delivered out of order or replayed after the load never move a user back. It is
+ * reloaded nightly, after the favorite counts are reconciled.
+ */
+@Component
+@Slf4j
+public class UserLeaderboard {
+
+    private static final Comparator<Rank> MOST_FAVORITES_FIRST =
+            Comparator.comparingInt(Rank::favoriteCount).thenComparingLong(Rank::userId).reversed();
+
+    private final UserStatsRepository statsRepository;
+
+    // one load at a time
+    private final ReentrantLock loadLock = new ReentrantLock();
+    // guards the fields below, rankings are changed under the write lock only
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // null until loaded
+    private Rankings rankings;
+    // changes committed during a load, null when no load runs
+    private List<Consumer<Rankings>> pending;
+
+    public UserLeaderboard(UserStatsRepository statsRepository) {
+        this.statsRepository = statsRepository;
+    }
+
+    /**
+     * @return ids of the users with the most favorites, most favorites first
+     */
+    public List<Long> getTopUserIds(int limit) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            return top(rankings.all, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids of the users with the most favorites in every country, countries sorted by name
+     */
+    public Map<String, List<Long>> getTopUserIdsByCountry(int limit) {
+        ensureLoaded();
+        lock.readLock().lock();
+        try {
+            Map<String, List<Long>> top = new LinkedHashMap<>();
+            rankings.byCountry.forEach((country, ranks) -> {
+                if (!ranks.isEmpty()) {
+                    top.put(country, top(ranks, limit));
+                }
+            });
+            return top;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUsersSaved(UsersSavedEvent event) {
+        if (!isTracking()) {
+            return;
+        }
+        Map<Long, String> countries = new HashMap<>();
+        event.users().forEach(user -> countries.put(user.getId(), user.getCountry()));
+        apply(rankings -> countries.forEach(rankings::putCountry));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserDeletion(UserDeletionEvent event) {
+        if (!isTracking()) {
+            return;
+        }
+        Long userId = event.userId();
+        apply(rankings -> rankings.remove(userId));
+    }
+
+    /**
+     * Moves users to their committed favorite counts. Listeners run after their transactions
+     * commit, in no guaranteed order across transactions, so a count older than the known one of
+     * its user is ignored.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFavoriteCountsChanged(FavoriteCountsChangedEvent event) {
+        if (!isTracking()) {
+            return;
+        }
+        Map<Long, VersionedCount> counts = Map.copyOf(event.favoriteCountsByUserId());
+        apply(rankings -> counts.forEach(rankings::putFavoriteCount));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${users.leaderboard.rebuild-cron:0 0 4 * * *}")
+    public void rebuild() {
+        load(true);
+    }
+
+    private void ensureLoaded() {
+        lock.readLock().lock();
+        try {
+            if (rankings != null) {
+                return;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        load(false);
+    }
+
+    private void load(boolean reload) {
+        loadLock.lock();
+        try {
+            lock.writeLock().lock();
+            try {
+                if (rankings != null && !reload) {
+                    return;
+                }
+                pending = new ArrayList<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            long start = System.currentTimeMillis();
+            Rankings loaded = new Rankings();
+            try {
+                statsRepository.forEachFavoriteCount(loaded::add);
+            } catch (RuntimeException e) {
+                lock.writeLock().lock();
+                try {
+                    pending = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                throw e;
+            }
+
+            lock.writeLock().lock();
+            try {
+                pending.forEach(change -> change.accept(loaded));
+                pending = null;
+                rankings = loaded;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("Loaded leaderboard of {} users in {} ms", loaded.members.size(),
+                    System.currentTimeMillis() - start);
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    private boolean isTracking() {
+        lock.readLock().lock();
+        try {
+            return rankings != null || pending != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void apply(Consumer<Rankings> change) {
+        lock.writeLock().lock();
+        try {
+            if (rankings != null) {
+                change.accept(rankings);
+            }
+            if (pending != null) {
+                pending.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static List<Long> top(TreeSet<Rank> ranks, int limit) {
+        List<Long> userIds = new ArrayList<>(Math.min(limit, ranks.size()));
+        Iterator<Rank> iterator = ranks.iterator();
+        while (userIds.size() < limit && iterator.hasNext()) {
+            userIds.add(iterator.next().userId());
+        }
+        return userIds;
+    }
+
+    private record Rank(int favoriteCount, long userId) {
+    }
+
+    private record Member(String country, int favoriteCount, long version) {
+    }
+
+    private static class Rankings {
+
+        private final Map<Long, Member> members = new HashMap<>();
+        private final TreeSet<Rank> all = new TreeSet<>(MOST_FAVORITES_FIRST);
+        private final Map<String, TreeSet<Rank>> byCountry = new TreeMap<>();
+
+        void add(long userId, String country, int favoriteCount, long version) {
+            Member member = new Member(country, favoriteCount, version);
+            members.put(userId, member);
+            Rank rank = new Rank(favoriteCount, userId);
+            all.add(rank);
+            if (country != null) {
+                byCountry.computeIfAbsent(country, key -> new TreeSet<>(MOST_FAVORITES_FIRST)).add(rank);
+            }
+        }
+
+        // new users start without favorites
+        void putCountry(Long userId, String country) {
+            Member member = remove(userId);
+            if (member == null) {
+                add(userId, country, 0, 0);
+            } else {
+                add(userId, country, member.favoriteCount(), member.version());
+            }
+        }
+
+        // users not known yet are added by their save
+        void putFavoriteCount(Long userId, VersionedCount count) {
+            Member member = members.get(userId);
+            if (member != null && count.version() > member.version()) {
+                remove(userId);
+                add(userId, member.country(), count.favoriteCount(), count.version());
+            }
+        }
+
+        Member remove(Long userId) {
+            Member member = members.remove(userId);
+            if (member != null) {
+                Rank rank = new Rank(member.favoriteCount(), userId);
+                all.remove(rank);
+                if (member.country() != null) {
+                    byCountry.get(member.country()).remove(rank);
+                }
+            }
+            return member;
+        }
+    }
+}
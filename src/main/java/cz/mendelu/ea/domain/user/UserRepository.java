@@ -1,10 +1,13 @@
 package cz.mendelu.ea.domain.user;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
@@ -16,6 +19,21 @@ public interface UserRepository extends JpaRepository<User, Long> {
     @Query("SELECT u FROM User u WHERE u.dateOfBirth > ?1")
     List<User> findUsersYoungerThan(java.time.LocalDate date);
     
-    @Query("SELECT u FROM User u WHERE SIZE(u.favorites) > ?1")
+    @Query("SELECT u FROM User u WHERE u.favoriteCount > ?1 ORDER BY u.favoriteCount DESC, u.id DESC")
     List<User> findUsersWithMoreFavoritesThan(Integer count);
+
+    @Query("SELECT AVG(u.favoriteCount) FROM User u")
+    Double findAverageFavoriteCount();
+
+    // bulk delete, the user is neither loaded nor are its favorites cascaded one by one
+    @Modifying
+    @Query("DELETE FROM User u WHERE u.id = ?1")
+    int deleteUserById(Long id);
+
+    @Query("SELECT u.id FROM User u WHERE u.id IN ?1")
+    Set<Long> findExistingIds(Collection<Long> ids);
+
+    // favorites are fetched with the users, so they serialize outside the session too
+    @Query("SELECT DISTINCT u FROM User u LEFT JOIN FETCH u.favorites WHERE u.id IN ?1")
+    List<User> findAllWithFavoritesByIds(Collection<Long> ids);
 } 
\ No newline at end of file
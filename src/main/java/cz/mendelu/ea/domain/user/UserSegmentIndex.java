@@ -0,0 +1,347 @@
+package cz.mendelu.ea.domain.user;
+
+import cz.mendelu.ea.domain.favorite.FavoriteChange;
+import cz.mendelu.ea.domain.favorite.FavoritesChangedEvent;
+import cz.mendelu.ea.domain.user.dto.SegmentQuery;
+import cz.mendelu.ea.domain.user.dto.SegmentResultDTO;
+import cz.mendelu.ea.utils.exceptions.BadRequestException;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * In-memory segments of users for cohort queries.
+ *
+ * Keeps a compressed bitmap of user ids per country, year of birth and favorited genre, so any
+ * AND/OR/NOT combination is answered by bitmap operations without reading the database. The
+ * bitmaps are loaded by the first query and follow committed user and favorite writes; changes
+ * committed while the bitmaps are loaded are replayed onto the loaded ones. A change applied out
+ * of order by racing transactions may leave a stale bit, the nightly rebuild drops it.
+ */
+@Component
+@Slf4j
+public class UserSegmentIndex {
+
+    private static final RoaringBitmap EMPTY = new RoaringBitmap();
+
+    private final UserJdbcRepository jdbcRepository;
+
+    // tracks do not change their genre
+    private final Map<String, String> genreByTrackId = new ConcurrentHashMap<>();
+
+    // one load at a time
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+    // guards the fields below, bitmaps are changed under the write lock only
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // null until the first query
+    private Segments segments;
+    // changes committed during a load, null when no load runs
+    private List<Consumer<Segments>> pending;
+
+    public UserSegmentIndex(UserJdbcRepository jdbcRepository) {
+        this.jdbcRepository = jdbcRepository;
+    }
+
+    /**
+     * @param limit maximum number of returned user ids, lowest first
+     */
+    public SegmentResultDTO query(SegmentQuery query, int limit) {
+        if (!isLoaded()) {
+            load(false);
+        }
+        lock.readLock().lock();
+        try {
+            long start = System.nanoTime();
+            RoaringBitmap users = segments.evaluate(query, LocalDate.now().getYear());
+            List<Long> userIds = new ArrayList<>(Math.min(limit, users.getCardinality()));
+            IntIterator iterator = users.getIntIterator();
+            while (userIds.size() < limit && iterator.hasNext()) {
+                userIds.add((long) iterator.next());
+            }
+            return new SegmentResultDTO(users.getLongCardinality(), userIds, (System.nanoTime() - start) / 1000);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUsersSaved(UsersSavedEvent event) {
+        if (!isTracking()) {
+            return;
+        }
+        List<Member> members = event.users().stream()
+                .map(user -> new Member(toOrdinal(user.getId()), user.getCountry(), user.getDateOfBirth()))
+                .toList();
+        apply(segments -> members.forEach(segments::putUser));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserDeletion(UserDeletionEvent event) {
+        if (!isTracking()) {
+            return;
+        }
+        int ordinal = toOrdinal(event.userId());
+        apply(segments -> segments.removeUser(ordinal));
+    }
+
+    /**
+     * Adds created favorites to the segment of their genre, users whose deleted favorites were
+     * their last ones of a genre leave its segment.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onFavoritesChanged(FavoritesChangedEvent event) {
+        if (!isTracking()) {
+            return;
+        }
+        List<FavoriteChange> changes = event.changes().stream()
+                .filter(change -> change.type() == FavoriteChange.Type.CREATED || change.type() == FavoriteChange.Type.DELETED)
+                .toList();
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        Map<String, String> genres = findGenres(changes.stream().map(FavoriteChange::trackId).toList());
+        Set<Map.Entry<Long, String>> added = new HashSet<>();
+        Set<Map.Entry<Long, String>> removed = new HashSet<>();
+        for (FavoriteChange change : changes) {
+            String genre = genres.get(change.trackId());
+            if (genre != null) {
+                (change.type() == FavoriteChange.Type.CREATED ? added : removed).add(Map.entry(change.userId(), genre));
+            }
+        }
+        if (!removed.isEmpty()) {
+            removed.removeAll(jdbcRepository.findFavoritedGenres(removed));
+        }
+
+        apply(segments -> {
+            added.forEach(pair -> segments.addGenre(toOrdinal(pair.getKey()), pair.getValue()));
+            removed.forEach(pair -> segments.removeGenre(toOrdinal(pair.getKey()), pair.getValue()));
+        });
+    }
+
+    /**
+     * Reloads the bitmaps once they are in use, dropping any stale bits.
+     */
+    @Scheduled(cron = "${users.segments.rebuild-cron:0 15 4 * * *}")
+    public void rebuild() {
+        if (isTracking()) {
+            load(true);
+        }
+    }
+
+    private void load(boolean reload) {
+        rebuildLock.lock();
+        try {
+            lock.writeLock().lock();
+            try {
+                if (segments != null && !reload) {
+                    return;
+                }
+                pending = new ArrayList<>();
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            long start = System.currentTimeMillis();
+            Segments loaded = new Segments();
+            try {
+                jdbcRepository.forEachUser((id, country, dateOfBirth) ->
+                        loaded.addUser(new Member(toOrdinal(id), country, dateOfBirth)));
+                jdbcRepository.forEachFavoritedGenre((userId, genre) -> loaded.addGenre(toOrdinal(userId), genre));
+                loaded.optimize();
+            } catch (RuntimeException e) {
+                lock.writeLock().lock();
+                try {
+                    pending = null;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                throw e;
+            }
+
+            lock.writeLock().lock();
+            try {
+                pending.forEach(change -> change.accept(loaded));
+                pending = null;
+                segments = loaded;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("Loaded segments of {} users in {} ms", loaded.all.getLongCardinality(),
+                    System.currentTimeMillis() - start);
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    private boolean isLoaded() {
+        lock.readLock().lock();
+        try {
+            return segments != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private boolean isTracking() {
+        lock.readLock().lock();
+        try {
+            return segments != null || pending != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void apply(Consumer<Segments> change) {
+        lock.writeLock().lock();
+        try {
+            if (segments != null) {
+                change.accept(segments);
+            }
+            if (pending != null) {
+                pending.add(change);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Map<String, String> findGenres(List<String> trackIds) {
+        Set<String> missing = new HashSet<>();
+        for (String trackId : trackIds) {
+            if (!genreByTrackId.containsKey(trackId)) {
+                missing.add(trackId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            genreByTrackId.putAll(jdbcRepository.findGenresByTrackIds(missing));
+        }
+        return genreByTrackId;
+    }
+
+    // bitmaps hold 32-bit values, users_seq stays far below the limit
+    private static int toOrdinal(long userId) {
+        return Math.toIntExact(userId);
+    }
+
+    private record Member(int ordinal, String country, LocalDate dateOfBirth) {
+    }
+
+    private static class Segments {
+
+        private final RoaringBitmap all = new RoaringBitmap();
+        private final Map<String, RoaringBitmap> byCountry = new HashMap<>();
+        private final TreeMap<Integer, RoaringBitmap> byBirthYear = new TreeMap<>();
+        private final Map<String, RoaringBitmap> byGenre = new HashMap<>();
+
+        void addUser(Member member) {
+            all.add(member.ordinal());
+            if (member.country() != null) {
+                byCountry.computeIfAbsent(member.country(), country -> new RoaringBitmap()).add(member.ordinal());
+            }
+            if (member.dateOfBirth() != null) {
+                byBirthYear.computeIfAbsent(member.dateOfBirth().getYear(), year -> new RoaringBitmap()).add(member.ordinal());
+            }
+        }
+
+        // replaces country and year of birth of a user already in the segments
+        void putUser(Member member) {
+            byCountry.values().forEach(users -> users.remove(member.ordinal()));
+            byBirthYear.values().forEach(users -> users.remove(member.ordinal()));
+            addUser(member);
+        }
+
+        void removeUser(int ordinal) {
+            all.remove(ordinal);
+            bitmaps().forEach(users -> users.remove(ordinal));
+        }
+
+        void addGenre(int ordinal, String genre) {
+            byGenre.computeIfAbsent(genre, key -> new RoaringBitmap()).add(ordinal);
+        }
+
+        void removeGenre(int ordinal, String genre) {
+            RoaringBitmap users = byGenre.get(genre);
+            if (users != null) {
+                users.remove(ordinal);
+            }
+        }
+
+        void optimize() {
+            all.runOptimize();
+            bitmaps().forEach(RoaringBitmap::runOptimize);
+        }
+
+        private Stream<RoaringBitmap> bitmaps() {
+            return Stream.of(byCountry.values(), byBirthYear.values(), byGenre.values()).flatMap(Collection::stream);
+        }
+
+        // returned bitmaps may be the stored ones, they must not be changed
+        RoaringBitmap evaluate(SegmentQuery query, int currentYear) {
+            if (query == null) {
+                throw new BadRequestException("Segment is required");
+            }
+            long conditions = Stream.of(query.and(), query.or(), query.not(), query.country(), query.age(), query.genre())
+                    .filter(Objects::nonNull)
+                    .count();
+            if (conditions != 1) {
+                throw new BadRequestException("Segment must set exactly one of and, or, not, country, age, genre");
+            }
+
+            if (query.and() != null) {
+                return FastAggregation.and(evaluateAll(query.and(), currentYear));
+            }
+            if (query.or() != null) {
+                return FastAggregation.or(evaluateAll(query.or(), currentYear));
+            }
+            if (query.not() != null) {
+                return RoaringBitmap.andNot(all, evaluate(query.not(), currentYear));
+            }
+            if (query.country() != null) {
+                return byCountry.getOrDefault(query.country(), EMPTY);
+            }
+            if (query.genre() != null) {
+                return byGenre.getOrDefault(query.genre(), EMPTY);
+            }
+            return evaluateAge(query.age(), currentYear);
+        }
+
+        private RoaringBitmap[] evaluateAll(List<SegmentQuery> queries, int currentYear) {
+            if (queries.isEmpty()) {
+                throw new BadRequestException("Segments of and/or must not be empty");
+            }
+            return queries.stream().map(query -> evaluate(query, currentYear)).toArray(RoaringBitmap[]::new);
+        }
+
+        // age is the difference of calendar years, as in the demographics
+        private RoaringBitmap evaluateAge(SegmentQuery.AgeRange age, int currentYear) {
+            if ((age.min() != null && age.min() < 0) || (age.max() != null && age.max() < 0)
+                    || (age.min() != null && age.max() != null && age.min() > age.max())) {
+                throw new BadRequestException("Age range must have 0 <= min <= max");
+            }
+            int fromYear = age.max() == null ? Integer.MIN_VALUE : currentYear - age.max();
+            int toYear = age.min() == null ? Integer.MAX_VALUE : currentYear - age.min();
+            return FastAggregation.or(byBirthYear.subMap(fromYear, true, toYear, true).values().iterator());
+        }
+    }
+}
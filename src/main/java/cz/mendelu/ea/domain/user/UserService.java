@@ -1,24 +1,104 @@
 package cz.mendelu.ea.domain.user;
 
+import cz.mendelu.ea.domain.favorite.Favorite;
+import cz.mendelu.ea.domain.favorite.FavoriteChange;
+import cz.mendelu.ea.domain.favorite.FavoriteJdbcRepository;
+import cz.mendelu.ea.domain.favorite.FavoritesChangedEvent;
+import cz.mendelu.ea.domain.favorite.UserLibraryCache;
+import cz.mendelu.ea.domain.favorite.dto.FavoriteEntryDTO;
+import cz.mendelu.ea.domain.user.dto.SegmentQuery;
+import cz.mendelu.ea.domain.user.dto.SegmentResultDTO;
+import cz.mendelu.ea.domain.user.dto.UserDeletionDTO;
+import cz.mendelu.ea.domain.user.dto.UserDemographicsDTO;
+import cz.mendelu.ea.domain.user.dto.UserImportResultDTO;
+import cz.mendelu.ea.utils.exceptions.BadRequestException;
 import cz.mendelu.ea.utils.exceptions.NotFoundException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Isolation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 @Service
+@Slf4j
 public class UserService {
 
+    private static final int MAX_SEGMENT_USERS = 10000;
+
     private final UserRepository repository;
+    private final UserStatsRepository statsRepository;
+    private final UserCache cache;
+    private final UserImporter importer;
+    private final UserSegmentIndex segmentIndex;
+    private final UserLeaderboard leaderboard;
+    private final FavoriteJdbcRepository favoriteJdbcRepository;
+    private final UserLibraryCache libraryCache;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TransactionTemplate transactionTemplate;
+    private final TaskExecutor deletionExecutor;
+    private final int deletionChunkSize;
+    private final Duration deletionRetention;
+
+    // background deletions by job id, finished ones are kept for the retention period to be polled
+    private final Map<String, UserDeletionDTO> deletions = new ConcurrentHashMap<>();
+    // job ids of the deletions not finished yet, by user id
+    private final Map<Long, String> pendingDeletions = new ConcurrentHashMap<>();
 
-    public UserService(UserRepository repository) {
+    public UserService(UserRepository repository, UserStatsRepository statsRepository, UserCache cache,
+                       UserImporter importer, UserSegmentIndex segmentIndex, UserLeaderboard leaderboard,
+                       FavoriteJdbcRepository favoriteJdbcRepository, UserLibraryCache libraryCache,
+                       ApplicationEventPublisher eventPublisher,
+                       TransactionTemplate transactionTemplate,
+                       @Qualifier("userDeletionExecutor") TaskExecutor deletionExecutor,
+                       @Value("${users.deletion.chunk-size:1000}") int deletionChunkSize,
+                       @Value("${users.deletion.retention-minutes:60}") long deletionRetentionMinutes) {
         this.repository = repository;
+        this.statsRepository = statsRepository;
+        this.cache = cache;
+        this.importer = importer;
+        this.segmentIndex = segmentIndex;
+        this.leaderboard = leaderboard;
+        this.favoriteJdbcRepository = favoriteJdbcRepository;
+        this.libraryCache = libraryCache;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = transactionTemplate;
+        this.deletionExecutor = deletionExecutor;
+        this.deletionChunkSize = deletionChunkSize;
+        this.deletionRetention = Duration.ofMinutes(deletionRetentionMinutes);
     }
 
+    @Transactional
     public User createUser(User user) {
-        return repository.save(user);
+        User created = repository.save(user);
+        eventPublisher.publishEvent(new UsersSavedEvent(List.of(created)));
+        return created;
+    }
+
+    /**
+     * Creates users from an NDJSON or CSV upload while it is being read, see {@link UserImporter}.
+     */
+    public UserImportResultDTO importUsers(Reader input, UserImporter.Format format) throws IOException {
+        return importer.importUsers(input, format);
     }
 
     public List<User> getAllUsers() {
@@ -26,27 +106,160 @@ public class UserService {
     }
 
     public User getUserById(Long id) {
-        return repository.findById(id).orElseThrow(NotFoundException::new);
+        return withFavorites(cache.getById(id, () -> repository.findById(id)).orElseThrow(NotFoundException::new));
+    }
+
+    /**
+     * Returns a lazy reference to the user without loading it, for setting foreign keys.
+     */
+    public User getUserReference(Long id) {
+        return repository.getReferenceById(id);
+    }
+
+    public UserCacheStats getCacheStats() {
+        return cache.getStats();
+    }
+
+    public Set<Long> getExistingUserIds(Collection<Long> ids) {
+        return ids.isEmpty() ? Set.of() : repository.findExistingIds(ids);
     }
 
     public User updateUser(Long id, User user) {
         user.setId(id);
-        return repository.save(user);
+        // favorites embedded from the library cache are detached copies, they are not written with the user
+        user.setFavorites(null);
+        User updated = transactionTemplate.execute(status -> {
+            User saved = repository.save(user);
+            eventPublisher.publishEvent(new UsersSavedEvent(List.of(saved)));
+            return saved;
+        });
+        cache.invalidate(id);
+        return updated;
     }
 
+    /**
+     * Deletes the user in one transaction. Listeners of {@link UserDeletionEvent} delete the
+     * user's favorites with one set-based statement, then the user row is deleted without
+     * loading it.
+     */
+    @Transactional
     public void deleteUser(Long id) {
+        delete(id);
+    }
+
+    /**
+     * Deletes the user in the background, for users with huge libraries. Favorites are deleted
+     * in chunks, each in its own short transaction, then the user is deleted like by
+     * {@link #deleteUser} together with favorites added in the meantime. Deleting a user already
+     * being deleted returns the deletion in progress.
+     *
+     * @return the queued deletion, its progress is read by {@link #getDeletion}
+     */
+    public UserDeletionDTO deleteUserAsync(Long id) {
         if (!repository.existsById(id)) {
             throw new NotFoundException();
         }
-        repository.deleteById(id);
+        pruneDeletions();
+        String jobId = UUID.randomUUID().toString();
+        deletions.put(jobId, UserDeletionDTO.queued(jobId, id));
+        String pendingJobId = pendingDeletions.putIfAbsent(id, jobId);
+        if (pendingJobId != null) {
+            deletions.remove(jobId);
+            return deletions.get(pendingJobId);
+        }
+        try {
+            deletionExecutor.execute(() -> runDeletion(jobId, id));
+        } catch (TaskRejectedException e) {
+            pendingDeletions.remove(id, jobId);
+            deletions.remove(jobId);
+            throw e;
+        }
+        return deletions.get(jobId);
+    }
+
+    public UserDeletionDTO getDeletion(String jobId) {
+        pruneDeletions();
+        UserDeletionDTO deletion = deletions.get(jobId);
+        if (deletion == null) {
+            throw new NotFoundException();
+        }
+        return deletion;
+    }
+
+    private void runDeletion(String jobId, Long id) {
+        deletions.computeIfPresent(jobId, (key, deletion) -> deletion.running());
+        try {
+            int deleted = 0;
+            int chunk;
+            do {
+                chunk = transactionTemplate.execute(status -> deleteFavoritesChunk(id));
+                deleted += chunk;
+                int progress = deleted;
+                deletions.computeIfPresent(jobId, (key, deletion) -> deletion.withDeletedFavorites(progress));
+            } while (chunk == deletionChunkSize);
+            transactionTemplate.executeWithoutResult(status -> delete(id));
+            deletions.computeIfPresent(jobId, (key, deletion) -> deletion.completed());
+            log.info("User {} deleted with {} favorites in chunks of {}", id, deleted, deletionChunkSize);
+        } catch (RuntimeException e) {
+            deletions.computeIfPresent(jobId, (key, deletion) -> deletion.failed(e));
+            log.error("Deleting user {} failed, favorites deleted so far stay deleted", id, e);
+        } finally {
+            pendingDeletions.remove(id, jobId);
+        }
+    }
+
+    private void pruneDeletions() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(deletionRetention);
+        deletions.values().removeIf(deletion -> deletion.finishedAt() != null && deletion.finishedAt().isBefore(cutoff));
+    }
+
+    private void delete(Long id) {
+        if (!repository.existsById(id)) {
+            throw new NotFoundException();
+        }
+        eventPublisher.publishEvent(new UserDeletionEvent(id));
+        repository.deleteUserById(id);
+    }
+
+    // deleted favorites are published like any other delete, so counters and caches follow
+    private int deleteFavoritesChunk(Long id) {
+        List<Favorite> deleted = favoriteJdbcRepository.deleteByUserId(id, deletionChunkSize);
+        if (!deleted.isEmpty()) {
+            eventPublisher.publishEvent(new FavoritesChangedEvent(deleted.stream().map(FavoriteChange::deleted).toList()));
+        }
+        return deleted.size();
     }
 
     public User getUserByUsername(String username) {
-        return repository.findByUsername(username).orElseThrow(NotFoundException::new);
+        return withFavorites(cache.getByUsername(username, () -> repository.findByUsername(username))
+                .orElseThrow(NotFoundException::new));
     }
 
     public User getUserByEmail(String email) {
-        return repository.findByEmail(email).orElseThrow(NotFoundException::new);
+        return withFavorites(cache.getByEmail(email, () -> repository.findByEmail(email))
+                .orElseThrow(NotFoundException::new));
+    }
+
+    // the cache holds users without favorites, the user JSON embeds them from the library cache,
+    // so a lookup hitting both caches runs no SQL; libraries too large for it are left out and
+    // read page by page from GET /users/{id}/favorites
+    private User withFavorites(User user) {
+        user.setFavorites(libraryCache.getLibrary(user.getId(), limit -> favoriteJdbcRepository.findUserPage(user.getId(), null, limit))
+                .map(entries -> entries.stream().map(UserService::toFavorite).toList())
+                .orElse(null));
+        return user;
+    }
+
+    // user and track are left out of the favorite JSON anyway
+    private static Favorite toFavorite(FavoriteEntryDTO entry) {
+        Favorite favorite = new Favorite();
+        favorite.setId(entry.id());
+        favorite.setCreatedAt(entry.createdAt());
+        favorite.setRating(entry.rating());
+        favorite.setComment(entry.comment());
+        favorite.setIsPublic(entry.isPublic());
+        favorite.setLastPlayed(entry.lastPlayed());
+        return favorite;
     }
 
     public List<User> getUsersByCountry(String country) {
@@ -61,55 +274,72 @@ public class UserService {
         return repository.findUsersWithMoreFavoritesThan(count);
     }
 
-    // Complex calculations using streams
+    /**
+     * Returns all demographic aggregates, computed from one snapshot of the database.
+     */
+    @Transactional(readOnly = true, isolation = Isolation.REPEATABLE_READ)
+    public UserDemographicsDTO getDemographics() {
+        return new UserDemographicsDTO(
+                statsRepository.countByCountry(),
+                statsRepository.countByAge(),
+                statsRepository.findAverageAgeByCountry(),
+                statsRepository.findAverageFavoritesByCountry());
+    }
+
+    /**
+     * Counts the users of a segment and lists the first of them, from the in-memory segments.
+     */
+    public SegmentResultDTO getSegment(SegmentQuery query, int limit) {
+        if (limit < 0 || limit > MAX_SEGMENT_USERS) {
+            throw new BadRequestException("Limit must be between 0 and " + MAX_SEGMENT_USERS);
+        }
+        return segmentIndex.query(query, limit);
+    }
+
     public Map<String, Long> getUsersCountByCountry() {
-        return repository.findAll().stream()
-                .collect(Collectors.groupingBy(
-                        User::getCountry,
-                        Collectors.counting()
-                ));
+        return statsRepository.countByCountry();
     }
 
     public Map<Integer, Long> getUsersCountByAgeGroup() {
-        return repository.findAll().stream()
-                .collect(Collectors.groupingBy(
-                        user -> LocalDate.now().getYear() - user.getDateOfBirth().getYear(),
-                        Collectors.counting()
-                ));
+        return statsRepository.countByAge();
     }
 
     public Map<String, Double> getAverageFavoritesCountByCountry() {
-        return repository.findAll().stream()
-                .collect(Collectors.groupingBy(
-                        User::getCountry,
-                        Collectors.averagingDouble(user -> user.getFavorites().size())
-                ));
+        return statsRepository.findAverageFavoritesByCountry();
+    }
+
+    public Map<String, Double> getAverageUserAgeByCountry() {
+        return statsRepository.findAverageAgeByCountry();
     }
 
+    /**
+     * Returns the users with the most favorites in every country, read from the leaderboard.
+     */
     public Map<String, List<User>> getTopUsersByCountry(int limit) {
-        return repository.findAll().stream()
-                .collect(Collectors.groupingBy(
-                        User::getCountry,
-                        Collectors.collectingAndThen(
-                                Collectors.toList(),
-                                users -> users.stream()
-                                        .sorted((u1, u2) -> Integer.compare(
-                                                u2.getFavorites().size(),
-                                                u1.getFavorites().size()
-                                        ))
-                                        .limit(limit)
-                                        .collect(Collectors.toList())
-                        )
-                ));
+        Map<String, List<Long>> topIds = leaderboard.getTopUserIdsByCountry(limit);
+        Map<Long, User> users = findAllByIds(topIds.values().stream().flatMap(List::stream).toList());
+        Map<String, List<User>> top = new LinkedHashMap<>();
+        topIds.forEach((country, ids) -> top.put(country, ids.stream().map(users::get).filter(Objects::nonNull).toList()));
+        return top;
     }
 
-    public Map<String, Double> getAverageUserAgeByCountry() {
-        return repository.findAll().stream()
-                .collect(Collectors.groupingBy(
-                        User::getCountry,
-                        Collectors.averagingDouble(user ->
-                                LocalDate.now().getYear() - user.getDateOfBirth().getYear()
-                        )
-                ));
-    }
-} 
\ No newline at end of file
+    /**
+     * Returns the users with the most favorites, read from the leaderboard.
+     */
+    public List<User> getMostActiveUsers(int limit) {
+        List<Long> topIds = leaderboard.getTopUserIds(limit);
+        Map<Long, User> users = findAllByIds(topIds);
+        return topIds.stream().map(users::get).filter(Objects::nonNull).toList();
+    }
+
+    public double getAverageFavoriteCount() {
+        Double average = repository.findAverageFavoriteCount();
+        return average == null ? 0.0 : average;
+    }
+
+    // users deleted since their ids were read are left out; statistics snapshots copy them after
+    // the session is closed
+    private Map<Long, User> findAllByIds(List<Long> ids) {
+        return repository.findAllWithFavoritesByIds(ids).stream().collect(Collectors.toMap(User::getId, user -> user));
+    }
+}
@@ -0,0 +1,144 @@
+package cz.mendelu.ea.domain.user;
+
+import cz.mendelu.ea.utils.batch.ChunkedValues;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Favorite counts and demographic aggregates of users, each grouped in the database with one
+ * query, so no user is loaded into memory.
+ */
+@Repository
+public class UserStatsRepository {
+
+    // age as the difference of years, the same way it was computed in memory before
+    private static final String AGE = "CAST(EXTRACT(YEAR FROM CURRENT_DATE) - EXTRACT(YEAR FROM date_of_birth) AS int)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public UserStatsRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Adds the deltas to the favorite counts of their users and moves their count versions
+     * forward. Deltas are written in the given order, so callers sorting them by user id always
+     * lock the rows in the same order.
+     *
+     * @return the new favorite count of every existing user
+     */
+    public Map<Long, VersionedCount> addFavoriteCounts(Map<Long, Integer> deltasByUserId) {
+        Map<Long, VersionedCount> counts = new HashMap<>();
+        ChunkedValues.forEachChunk(new ArrayList<>(deltasByUserId.entrySet()), "(CAST(? AS bigint), CAST(? AS int))",
+                (entry, args) -> {
+                    args.add(entry.getKey());
+                    args.add(entry.getValue());
+                },
+                (values, args) -> jdbcTemplate.query("""
+                        UPDATE users u
+                        SET favorite_count = u.favorite_count + v.delta,
+                            favorite_count_version = u.favorite_count_version + 1
+                        FROM (VALUES %s) AS v(id, delta)
+                        WHERE u.id = v.id
+                        RETURNING u.id, u.favorite_count, u.favorite_count_version
+                        """.formatted(values),
+                        rs -> {
+                            counts.put(rs.getLong("id"), new VersionedCount(rs.getInt("favorite_count"),
+                                    rs.getLong("favorite_count_version")));
+                        },
+                        args));
+        return counts;
+    }
+
+    public long findMaxUserId() {
+        return jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM users", Long.class);
+    }
+
+    /**
+     * Recounts the favorites of the users with ids from {@code fromId} up to, not including,
+     * {@code toId} and fixes the counts that drifted. The user rows are locked first, in id order
+     * like writers lock them, so a concurrent delta waits until the surrounding transaction
+     * commits and is added on top of the recounted value instead of being overwritten by it.
+     *
+     * @return number of repaired users
+     */
+    public int reconcileFavoriteCounts(long fromId, long toId) {
+        jdbcTemplate.query("SELECT id FROM users WHERE id >= ? AND id < ? ORDER BY id FOR UPDATE", rs -> {
+        }, fromId, toId);
+        return jdbcTemplate.update("""
+                UPDATE users u
+                SET favorite_count = c.favorite_count,
+                    favorite_count_version = u.favorite_count_version + 1
+                FROM (
+                    SELECT v.id, COUNT(f.user_id) AS favorite_count
+                    FROM users v
+                    LEFT JOIN favorite f ON f.user_id = v.id
+                    WHERE v.id >= ? AND v.id < ?
+                    GROUP BY v.id
+                ) c
+                WHERE u.id = c.id AND u.favorite_count <> c.favorite_count
+                """, fromId, toId);
+    }
+
+    /**
+     * Streams id, country, favorite count and its version of every user.
+     */
+    public void forEachFavoriteCount(FavoriteCountHandler handler) {
+        jdbcTemplate.query("SELECT id, country, favorite_count, favorite_count_version FROM users", rs -> {
+            handler.accept(rs.getLong("id"), rs.getString("country"), rs.getInt("favorite_count"),
+                    rs.getLong("favorite_count_version"));
+        });
+    }
+
+    public Map<String, Long> countByCountry() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        jdbcTemplate.query("SELECT country, COUNT(*) AS user_count FROM users GROUP BY country ORDER BY country",
+                rs -> {
+                    counts.put(rs.getString("country"), rs.getLong("user_count"));
+                });
+        return counts;
+    }
+
+    public Map<Integer, Long> countByAge() {
+        Map<Integer, Long> counts = new LinkedHashMap<>();
+        jdbcTemplate.query("SELECT %s AS age, COUNT(*) AS user_count FROM users GROUP BY 1 ORDER BY 1".formatted(AGE),
+                rs -> {
+                    counts.put(rs.getInt("age"), rs.getLong("user_count"));
+                });
+        return counts;
+    }
+
+    public Map<String, Double> findAverageAgeByCountry() {
+        Map<String, Double> averages = new LinkedHashMap<>();
+        jdbcTemplate.query("SELECT country, AVG(%s) AS average_age FROM users GROUP BY country ORDER BY country".formatted(AGE),
+                rs -> {
+                    averages.put(rs.getString("country"), rs.getDouble("average_age"));
+                });
+        return averages;
+    }
+
+    public Map<String, Double> findAverageFavoritesByCountry() {
+        Map<String, Double> averages = new LinkedHashMap<>();
+        jdbcTemplate.query("SELECT country, AVG(favorite_count) AS average_favorites FROM users GROUP BY country ORDER BY country",
+                rs -> {
+                    averages.put(rs.getString("country"), rs.getDouble("average_favorites"));
+                });
+        return averages;
+    }
+
+    /**
+     * @param version moves forward with every write of the count of the user
+     */
+    public record VersionedCount(int favoriteCount, long version) {
+    }
+
+    @FunctionalInterface
+    public interface FavoriteCountHandler {
+        void accept(long userId, String country, int favoriteCount, long version);
+    }
+}
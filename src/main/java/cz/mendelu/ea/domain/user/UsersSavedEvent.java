@@ -0,0 +1,10 @@
+package cz.mendelu.ea.domain.user;
+
+import java.util.List;
+
+/**
+ * Published inside the writing transaction when users are created or updated, with their state
+ * after the write.
+ */
+public record UsersSavedEvent(List<User> users) {
+}
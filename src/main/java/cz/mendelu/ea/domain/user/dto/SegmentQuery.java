@@ -0,0 +1,25 @@
+package cz.mendelu.ea.domain.user.dto;
+
+import java.util.List;
+
+/**
+ * Cohort of users, either a single condition or a combination of nested segments. Exactly one
+ * field is set.
+ *
+ * @param and     users in all of the segments
+ * @param or      users in any of the segments
+ * @param not     users outside of the segment
+ * @param country users from the country
+ * @param age     users of an age within the range, ages are counted in calendar years
+ * @param genre   users who have a favorite track of the genre
+ */
+public record SegmentQuery(List<SegmentQuery> and, List<SegmentQuery> or, SegmentQuery not,
+                           String country, AgeRange age, String genre) {
+
+    /**
+     * @param min lowest age, inclusive, null for no bound
+     * @param max highest age, inclusive, null for no bound
+     */
+    public record AgeRange(Integer min, Integer max) {
+    }
+}
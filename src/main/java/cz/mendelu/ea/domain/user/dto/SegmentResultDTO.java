@@ -0,0 +1,11 @@
+package cz.mendelu.ea.domain.user.dto;
+
+import java.util.List;
+
+/**
+ * @param count      number of users in the segment
+ * @param userIds    ids of the first users of the segment, ascending, at most the requested limit
+ * @param tookMicros time spent evaluating the segment
+ */
+public record SegmentResultDTO(long count, List<Long> userIds, long tookMicros) {
+}
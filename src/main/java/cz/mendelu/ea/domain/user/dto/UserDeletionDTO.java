@@ -0,0 +1,43 @@
+package cz.mendelu.ea.domain.user.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Progress of a background user deletion.
+ *
+ * @param jobId            id the deletion is polled by
+ * @param deletedFavorites favorites deleted so far
+ * @param finishedAt       when the deletion completed or failed, null while it runs
+ * @param error            why the deletion failed, null otherwise
+ */
+public record UserDeletionDTO(String jobId, Long userId, Status status, int deletedFavorites,
+                              LocalDateTime startedAt, LocalDateTime finishedAt, String error) {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        FAILED
+    }
+
+    public static UserDeletionDTO queued(String jobId, Long userId) {
+        return new UserDeletionDTO(jobId, userId, Status.QUEUED, 0, null, null, null);
+    }
+
+    public UserDeletionDTO running() {
+        return new UserDeletionDTO(jobId, userId, Status.RUNNING, deletedFavorites, LocalDateTime.now(), null, null);
+    }
+
+    public UserDeletionDTO withDeletedFavorites(int deletedFavorites) {
+        return new UserDeletionDTO(jobId, userId, status, deletedFavorites, startedAt, finishedAt, error);
+    }
+
+    public UserDeletionDTO completed() {
+        return new UserDeletionDTO(jobId, userId, Status.COMPLETED, deletedFavorites, startedAt, LocalDateTime.now(), null);
+    }
+
+    public UserDeletionDTO failed(RuntimeException e) {
+        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        return new UserDeletionDTO(jobId, userId, Status.FAILED, deletedFavorites, startedAt, LocalDateTime.now(), message);
+    }
+}
@@ -0,0 +1,11 @@
+package cz.mendelu.ea.domain.user.dto;
+
+import java.util.Map;
+
+/**
+ * Demographic aggregates of all users, ages in years between the years of birth and today.
+ */
+public record UserDemographicsDTO(Map<String, Long> countByCountry, Map<Integer, Long> countByAge,
+                                  Map<String, Double> averageAgeByCountry,
+                                  Map<String, Double> averageFavoritesByCountry) {
+}
@@ -0,0 +1,19 @@
+package cz.mendelu.ea.domain.user.dto;
+
+import java.util.List;
+
+/**
+ * Outcome of a user import.
+ *
+ * @param imported number of created users
+ * @param rejected number of rejected rows
+ * @param errors   reasons of the first rejected rows, at most {@code maxReportedErrors}
+ */
+public record UserImportResultDTO(long imported, long rejected, List<RowError> errors, int maxReportedErrors) {
+
+    /**
+     * @param line line of the upload the row ends on, counting from 1
+     */
+    public record RowError(long line, String error) {
+    }
+}
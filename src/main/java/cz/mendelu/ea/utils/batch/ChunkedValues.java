@@ -0,0 +1,40 @@
+package cz.mendelu.ea.utils.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs a statement over many rows bound as a multi-row list, e.g. {@code VALUES %s} or
+ * {@code IN (%s)}, one chunk of rows per statement. Chunks keep every statement well below the
+ * 32767 bind parameter limit of PostgreSQL.
+ */
+public final class ChunkedValues {
+
+    public static final int MAX_ROWS_PER_STATEMENT = 1000;
+
+    private ChunkedValues() {
+    }
+
+    /**
+     * @param items  rows, bound in the given order
+     * @param row    placeholders of one row, e.g. {@code (?, ?)}
+     * @param binder adds the bind values of one row
+     * @param chunk  runs the statement with the joined rows of a chunk and their bind values
+     */
+    public static <T> void forEachChunk(List<T> items, String row, BiConsumer<T, List<Object>> binder, Chunk chunk) {
+        for (int from = 0; from < items.size(); from += MAX_ROWS_PER_STATEMENT) {
+            List<T> rows = items.subList(from, Math.min(from + MAX_ROWS_PER_STATEMENT, items.size()));
+
+            List<Object> args = new ArrayList<>();
+            rows.forEach(item -> binder.accept(item, args));
+            chunk.execute(String.join(", ", Collections.nCopies(rows.size(), row)), args.toArray());
+        }
+    }
+
+    @FunctionalInterface
+    public interface Chunk {
+        void execute(String values, Object[] args);
+    }
+}
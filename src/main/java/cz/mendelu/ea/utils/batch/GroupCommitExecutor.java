@@ -0,0 +1,196 @@
+package cz.mendelu.ea.utils.batch;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * Groups concurrent single-item writes into batches.
+ *
+ * Callers of {@link #submit(Object)} block while a worker thread collects everything submitted
+ * within a short window (or until the batch is full) and passes it to the batch handler, typically
+ * one transaction with one multi-row statement. Every caller then gets its own result. If the
+ * batch fails, its items are retried one by one, so a single bad item only fails its own caller.
+ * The handler is called with the same items again then, so it must not rely on state a failed
+ * call left in them.
+ *
+ * @param <T> submitted item
+ * @param <R> result of an item, the handler returns results in the order of the items
+ */
+@Slf4j
+public class GroupCommitExecutor<T, R> implements AutoCloseable {
+
+    private final Function<List<T>, List<R>> batchHandler;
+    private final long windowNanos;
+    private final long timeoutNanos;
+    private final int maxBatchSize;
+    private final BlockingQueue<Pending<T, R>> queue;
+    private final Thread worker;
+    // submitters enqueue under the read lock, close stops them under the write lock, so nothing
+    // is enqueued after the worker saw the executor closed
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+
+    /**
+     * @param timeout the most a caller waits for its item to be enqueued and committed
+     */
+    public GroupCommitExecutor(String name, Function<List<T>, List<R>> batchHandler, Duration window,
+                               int maxBatchSize, Duration timeout) {
+        this.batchHandler = batchHandler;
+        this.windowNanos = window.toNanos();
+        this.timeoutNanos = timeout.toNanos();
+        this.maxBatchSize = maxBatchSize;
+        // bounded, so producers wait instead of piling up when the database falls behind
+        this.queue = new ArrayBlockingQueue<>(maxBatchSize * 16);
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Submits the item and waits until the batch containing it is committed.
+     *
+     * @throws GroupCommitTimeoutException when the timeout elapses, see
+     *                                     {@link GroupCommitTimeoutException#mayBeCommitted()}
+     * @throws IllegalStateException       when the executor is closed
+     * @throws RuntimeException            thrown by the batch handler for this item
+     */
+    public R submit(T item) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        Pending<T, R> pending = new Pending<>(item);
+        try {
+            stateLock.readLock().lock();
+            try {
+                if (!running) {
+                    throw new IllegalStateException("Group commit executor is closed");
+                }
+                if (!queue.offer(pending, timeoutNanos, TimeUnit.NANOSECONDS)) {
+                    throw new GroupCommitTimeoutException(false, null);
+                }
+            } finally {
+                stateLock.readLock().unlock();
+            }
+            return pending.result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.result.cancel(false);
+            throw new IllegalStateException("Interrupted while waiting for group commit", e);
+        } catch (TimeoutException e) {
+            // skipped by the worker unless it already took the item
+            pending.result.cancel(false);
+            throw new GroupCommitTimeoutException(true, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Stops accepting new items and commits the ones already submitted.
+     */
+    @Override
+    public void close() {
+        stateLock.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            stateLock.writeLock().unlock();
+        }
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failQueued();
+    }
+
+    private void run() {
+        List<Pending<T, R>> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending<T, R> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending<T, R> next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        queue.drainTo(batch, maxBatchSize - batch.size());
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                // callers that gave up are not committed
+                batch.removeIf(pending -> pending.result.isDone());
+                if (!batch.isEmpty()) {
+                    commit(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            } finally {
+                batch.forEach(pending -> pending.result.completeExceptionally(
+                        new IllegalStateException("Group commit executor stopped")));
+                batch.clear();
+            }
+        }
+        failQueued();
+    }
+
+    // items enqueued after the worker stopped would otherwise wait until their timeout
+    private void failQueued() {
+        List<Pending<T, R>> left = new ArrayList<>();
+        queue.drainTo(left);
+        left.forEach(pending -> pending.result.completeExceptionally(
+                new IllegalStateException("Group commit executor stopped")));
+    }
+
+    private void commit(List<Pending<T, R>> batch) {
+        try {
+            List<R> results = batchHandler.apply(batch.stream().map(pending -> pending.item).toList());
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(results.get(i));
+            }
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).result.completeExceptionally(e);
+                return;
+            }
+            log.warn("Group commit of {} items failed, committing them one by one", batch.size(), e);
+            for (Pending<T, R> pending : batch) {
+                try {
+                    pending.result.complete(batchHandler.apply(List.of(pending.item)).get(0));
+                } catch (RuntimeException itemException) {
+                    pending.result.completeExceptionally(itemException);
+                }
+            }
+        }
+    }
+
+    private static class Pending<T, R> {
+        final T item;
+        final CompletableFuture<R> result = new CompletableFuture<>();
+
+        Pending(T item) {
+            this.item = item;
+        }
+    }
+}
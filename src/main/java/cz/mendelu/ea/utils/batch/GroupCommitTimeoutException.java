@@ -0,0 +1,22 @@
+package cz.mendelu.ea.utils.batch;
+
+/**
+ * Thrown by {@link GroupCommitExecutor#submit(Object)} when its timeout elapses.
+ */
+public class GroupCommitTimeoutException extends IllegalStateException {
+
+    private final boolean mayBeCommitted;
+
+    public GroupCommitTimeoutException(boolean mayBeCommitted, Throwable cause) {
+        super(mayBeCommitted ? "Timed out waiting for group commit" : "Timed out waiting to enqueue for group commit", cause);
+        this.mayBeCommitted = mayBeCommitted;
+    }
+
+    /**
+     * @return false when the item never reached the queue, true when the worker may have taken
+     *         it and commit it later
+     */
+    public boolean mayBeCommitted() {
+        return mayBeCommitted;
+    }
+}
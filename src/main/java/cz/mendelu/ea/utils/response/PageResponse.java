@@ -0,0 +1,33 @@
+package cz.mendelu.ea.utils.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+import java.util.function.Function;
+
+@Getter
+@AllArgsConstructor
+public class PageResponse<T> {
+
+    List<T> items;
+
+    // factory method
+    static public <I, T> PageResponse<T> of(List<I> items, Function<I, T> mapper, String nextCursor) {
+        List<T> responses = items.stream()
+                .map(mapper)
+                .toList();
+        int version = 1; // example of meta information
+        return new PageResponse<>(responses, responses.size(), nextCursor, version);
+    }
+
+    // Here is place for meta information about items:
+
+    int count;
+
+    // pass as the cursor parameter to get the next page, null on the last page
+    String nextCursor;
+
+    int version;
+
+}
@@ -0,0 +1,32 @@
+package cz.mendelu.ea.utils.response;
+
+import lombok.Getter;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.function.Function;
+
+@Getter
+public class SnapshotResponse<T> extends ObjectResponse<T> {
+
+    // factory method
+    static public <I, T> SnapshotResponse<T> of(I obj, Function<I, T> mapper, LocalDateTime computedAt) {
+        int version = 1; // example of meta information
+        long ageSeconds = Duration.between(computedAt, LocalDateTime.now()).toSeconds();
+        return new SnapshotResponse<>(mapper.apply(obj), version, computedAt, ageSeconds);
+    }
+
+    public SnapshotResponse(T content, int version, LocalDateTime computedAt, long ageSeconds) {
+        super(content, version);
+        this.computedAt = computedAt;
+        this.ageSeconds = ageSeconds;
+    }
+
+    // Here is place for meta information about the precomputed content:
+
+    LocalDateTime computedAt;
+
+    // how old the content was when it was served
+    long ageSeconds;
+
+}
@@ -1,8 +1,10 @@
 package cz.mendelu.ea;
 
+import cz.mendelu.ea.domain.user.UserCache;
 import io.restassured.RestAssured;
 import io.restassured.http.ContentType;
 import org.junit.jupiter.api.BeforeEach;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.test.context.ActiveProfiles;
@@ -16,9 +18,14 @@ public abstract class BaseIntegrationTest {
     @LocalServerPort
     private int port;
 
+    @Autowired
+    private UserCache userCache;
+
     @BeforeEach
     void setUp() {
         RestAssured.port = port;
+        // users written directly to the database by other tests must not be served from the cache
+        userCache.clear();
         RestAssured.enableLoggingOfRequestAndResponseIfValidationFails();
     }
 
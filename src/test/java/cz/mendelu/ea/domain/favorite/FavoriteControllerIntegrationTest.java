@@ -3,9 +3,19 @@ package cz.mendelu.ea.domain.favorite;
 import cz.mendelu.ea.BaseIntegrationTest;
 import io.restassured.response.Response;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
@@ -14,6 +24,18 @@ class FavoriteControllerIntegrationTest extends BaseIntegrationTest {
 
     private static final String BASE_PATH = "/favorites";
 
+    @Autowired
+    private PlayEventBuffer playEventBuffer;
+
+    @Autowired
+    private PlayEventRepository playEventRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     @Test
     void createFavorite_ValidData_ReturnsCreatedFavorite() {
         // Given
@@ -73,16 +95,75 @@ class FavoriteControllerIntegrationTest extends BaseIntegrationTest {
     }
 
     @Test
-    void getAllFavorites_ReturnsListOfFavorites() {
+    void createFavorite_NonExistingUser_ReturnsNotFound() {
+        // Given
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        Map<String, Object> favoriteData = Map.of(
+            "userId", 999999,
+            "trackId", trackId,
+            "rating", 4
+        );
+
+        // When
+        Response response = post(BASE_PATH, favoriteData);
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.NOT_FOUND.value());
+    }
+
+    @Test
+    void createFavorite_NonExistingTrack_ReturnsNotFound() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "missingtrackuser",
+            "firstName", "Missing",
+            "lastName", "Track",
+            "email", "missingtrack@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "USA"
+        );
+        Long userId = post("/users", userData).jsonPath().getLong("content.id");
+        Map<String, Object> favoriteData = Map.of(
+            "userId", userId,
+            "trackId", "non-existing-track",
+            "rating", 4
+        );
+
+        // When
+        Response response = post(BASE_PATH, favoriteData);
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.NOT_FOUND.value());
+    }
+
+    @Test
+    void getAllFavorites_ReturnsPageOfFavorites() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "allfavoritesuser",
+            "firstName", "All",
+            "lastName", "Favorites",
+            "email", "allfavorites@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "USA"
+        );
+        Long userId = post("/users", userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        post(BASE_PATH, Map.of("userId", userId, "trackId", trackId, "rating", 3));
+        long newestId = post(BASE_PATH, Map.of("userId", userId, "trackId", trackId, "rating", 4))
+                .jsonPath().getLong("content.id");
+
         // When
-        Response response = get(BASE_PATH);
+        Response response = get(BASE_PATH + "?limit=1");
 
         // Then
         response.then()
                 .statusCode(HttpStatus.OK.value())
-                .body("items", notNullValue())
-                .body("items", not(empty()))
-                .body("items[0].id", notNullValue())
+                .body("items", hasSize(1))
+                .body("items[0].id", equalTo((int) newestId))
+                .body("nextCursor", notNullValue())
                 .body("items[0].createdAt", notNullValue())
                 .body("items[0].rating", notNullValue())
                 .body("items[0].comment", nullValue())
@@ -238,4 +319,251 @@ class FavoriteControllerIntegrationTest extends BaseIntegrationTest {
         response.then()
                 .statusCode(HttpStatus.NOT_FOUND.value());
     }
-} 
\ No newline at end of file
+
+    @Test
+    void playFavorite_ExistingFavorite_UpdatesLastPlayedAfterFlush() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "favoriteuser5",
+            "firstName", "Favorite",
+            "lastName", "User5",
+            "email", "favorite5@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "France"
+        );
+        Response userResponse = post("/users", userData);
+        Long userId = userResponse.jsonPath().getLong("content.id");
+
+        Response trackResponse = get("/tracks");
+        String trackId = trackResponse.jsonPath().getString("items[0].trackId");
+
+        Map<String, Object> favoriteData = Map.of(
+            "userId", userId,
+            "trackId", trackId,
+            "rating", 4
+        );
+        Response createResponse = post(BASE_PATH, favoriteData);
+        long favoriteId = createResponse.jsonPath().getLong("content.id");
+        String lastPlayed = createResponse.jsonPath().getString("content.lastPlayed");
+
+        // When
+        Response response = post(BASE_PATH + "/" + favoriteId + "/play", Map.of());
+        post(BASE_PATH + "/" + favoriteId + "/play", Map.of());
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.ACCEPTED.value());
+
+        get(BASE_PATH + "/play-buffer").then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.recorded", greaterThanOrEqualTo(2))
+                .body("content.coalesced", greaterThanOrEqualTo(1));
+
+        playEventBuffer.flush();
+        get(BASE_PATH + "/" + favoriteId).then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.lastPlayed", not(equalTo(lastPlayed)));
+    }
+
+    @Test
+    void playFavorite_NonExistingFavorite_ReturnsNotFound() {
+        // When
+        Response response = post(BASE_PATH + "/999999/play", Map.of());
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.NOT_FOUND.value());
+    }
+
+    @Test
+    void playFavorite_FlushedPlay_RefreshesCachedLibrary() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "cachedplayuser",
+            "firstName", "Cached",
+            "lastName", "Play",
+            "email", "cachedplay@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "France"
+        );
+        Long userId = post("/users", userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        long favoriteId = post(BASE_PATH, Map.of("userId", userId, "trackId", trackId, "rating", 4))
+                .jsonPath().getLong("content.id");
+        // loads the library into the cache
+        get("/users/" + userId + "/favorites").then()
+                .statusCode(HttpStatus.OK.value());
+        LocalDateTime playedAt = LocalDateTime.now().plusHours(1).withNano(0);
+
+        // When
+        // a play recorded past the cache, as a flush of another node's plays would write it
+        playEventBuffer.record(favoriteId, playedAt);
+        playEventBuffer.flush();
+
+        // Then
+        String lastPlayed = get("/users/" + userId + "/favorites").jsonPath().getString("items[0].lastPlayed");
+        assertThat(LocalDateTime.parse(lastPlayed), equalTo(playedAt));
+    }
+
+    @Test
+    void deleteFavorite_DuringPlayFlush_DeletesFlushedPlays() throws Exception {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "flushdeleteuser",
+            "firstName", "Flush",
+            "lastName", "Delete",
+            "email", "flushdelete@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "France"
+        );
+        Long userId = post("/users", userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        long favoriteId = post(BASE_PATH, Map.of("userId", userId, "trackId", trackId, "rating", 4))
+                .jsonPath().getLong("content.id");
+        ExecutorService deleter = Executors.newSingleThreadExecutor();
+
+        try {
+            // When
+            // the delete runs while a flush appending a play of the favorite is not committed yet
+            Future<Response> deleted = transactionTemplate.execute(status -> {
+                playEventRepository.append(List.of(new PlayEvent(favoriteId, LocalDateTime.now())));
+                Future<Response> response = deleter.submit(() -> delete(BASE_PATH + "/" + favoriteId));
+                try {
+                    response.get(500, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // waiting for the flush to commit
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return response;
+            });
+
+            // Then
+            assertThat(deleted.get(30, TimeUnit.SECONDS).statusCode(), equalTo(HttpStatus.NO_CONTENT.value()));
+            assertThat(jdbcTemplate.queryForObject("SELECT COUNT(*) FROM play_event WHERE favorite_id = ?",
+                    Long.class, favoriteId), equalTo(0L));
+        } finally {
+            deleter.shutdownNow();
+        }
+    }
+
+    @Test
+    void createFavorites_MixedItems_ReturnsResultPerItem() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "favoriteuser6",
+            "firstName", "Favorite",
+            "lastName", "User6",
+            "email", "favorite6@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "Spain"
+        );
+        Response userResponse = post("/users", userData);
+        Long userId = userResponse.jsonPath().getLong("content.id");
+
+        Response trackResponse = get("/tracks");
+        String trackId = trackResponse.jsonPath().getString("items[0].trackId");
+
+        Map<String, Object> batchData = Map.of(
+            "items", List.of(
+                Map.of("userId", userId, "trackId", trackId, "rating", 5),
+                Map.of("userId", userId, "trackId", "non-existing-track", "rating", 4),
+                Map.of("userId", userId, "trackId", trackId, "rating", 6)
+            )
+        );
+
+        // When
+        Response response = post(BASE_PATH + "/batch", batchData);
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("count", equalTo(3))
+                .body("items[0].status", equalTo("CREATED"))
+                .body("items[0].id", notNullValue())
+                .body("items[1].status", equalTo("REJECTED"))
+                .body("items[1].error", equalTo("Track not found"))
+                .body("items[2].status", equalTo("REJECTED"))
+                .body("items[2].id", nullValue());
+
+        long favoriteId = response.jsonPath().getLong("items[0].id");
+        get(BASE_PATH + "/" + favoriteId).then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.rating", equalTo(5));
+    }
+
+    @Test
+    void getAverageRatingByTrack_ReturnsStatsKeyedByTrackId() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "favoriteuser7",
+            "firstName", "Favorite",
+            "lastName", "User7",
+            "email", "favorite7@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "Italy"
+        );
+        Response userResponse = post("/users", userData);
+        Long userId = userResponse.jsonPath().getLong("content.id");
+
+        Response trackResponse = get("/tracks");
+        String trackId = trackResponse.jsonPath().getString("items[0].trackId");
+
+        post(BASE_PATH, Map.of("userId", userId, "trackId", trackId, "rating", 4));
+
+        // When
+        Response response = get(BASE_PATH + "/stats/average-rating-by-track");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("items.trackId", hasItem(trackId))
+                .body("items.find { it.trackId == '" + trackId + "' }.favoriteCount", greaterThanOrEqualTo(1))
+                .body("items.find { it.trackId == '" + trackId + "' }.averageRating", notNullValue());
+
+        get(BASE_PATH + "/stats/count-by-rating").then()
+                .statusCode(HttpStatus.OK.value())
+                .body("items.rating", hasItem(4));
+    }
+
+    @Test
+    void getTopRatedFavoritesByTrack_ReturnsAtMostLimitPerTrack() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "favoriteuser8",
+            "firstName", "Favorite",
+            "lastName", "User8",
+            "email", "favorite8@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "Poland"
+        );
+        Response userResponse = post("/users", userData);
+        Long userId = userResponse.jsonPath().getLong("content.id");
+
+        Response trackResponse = get("/tracks");
+        String trackId = trackResponse.jsonPath().getString("items[0].trackId");
+
+        post(BASE_PATH, Map.of("userId", userId, "trackId", trackId, "rating", 2));
+        post(BASE_PATH, Map.of("userId", userId, "trackId", trackId, "rating", 5));
+
+        // When
+        Response response = get(BASE_PATH + "/stats/top-rated-by-track?limit=1");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("items.findAll { it.trackId == '" + trackId + "' }", hasSize(1))
+                .body("items.find { it.trackId == '" + trackId + "' }.rank", equalTo(1))
+                .body("items.find { it.trackId == '" + trackId + "' }.rating", equalTo(5));
+    }
+
+    @Test
+    void getTopRatedFavoritesByTrack_InvalidLimit_ReturnsBadRequest() {
+        // When
+        Response response = get(BASE_PATH + "/stats/top-rated-by-track?limit=0");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.BAD_REQUEST.value());
+    }
+}
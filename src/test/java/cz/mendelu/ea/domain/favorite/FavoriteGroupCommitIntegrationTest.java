@@ -0,0 +1,92 @@
+package cz.mendelu.ea.domain.favorite;
+
+import cz.mendelu.ea.BaseIntegrationTest;
+import io.restassured.response.Response;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.TestPropertySource;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@TestPropertySource(properties = {
+        "favorites.group-commit.enabled=true",
+        "favorites.group-commit.window-micros=200000"
+})
+class FavoriteGroupCommitIntegrationTest extends BaseIntegrationTest {
+
+    private static final String BASE_PATH = "/favorites";
+
+    @Test
+    void createFavorite_ConcurrentCallers_AreAllCreated() throws Exception {
+        // Given
+        Long userId = createUser("groupcommituser");
+        List<String> trackIds = get("/tracks").jsonPath().getList("items.trackId", String.class).subList(0, 3);
+        ExecutorService callers = Executors.newFixedThreadPool(trackIds.size());
+
+        // When
+        List<Future<Response>> responses = new ArrayList<>();
+        try {
+            for (String trackId : trackIds) {
+                responses.add(callers.submit(() -> post(BASE_PATH, Map.of("userId", userId, "trackId", trackId, "rating", 4))));
+            }
+
+            // Then
+            Set<Long> ids = new HashSet<>();
+            for (Future<Response> response : responses) {
+                Response created = response.get(30, TimeUnit.SECONDS);
+                assertThat(created.statusCode(), equalTo(HttpStatus.CREATED.value()));
+                ids.add(created.jsonPath().getLong("content.id"));
+            }
+            assertThat(ids, hasSize(trackIds.size()));
+        } finally {
+            callers.shutdownNow();
+        }
+        get("/users/" + userId + "/favorites").then()
+                .body("count", equalTo(trackIds.size()));
+    }
+
+    @Test
+    void createFavorite_MissingUserInGroup_FailsOnlyItsCaller() throws Exception {
+        // Given
+        Long userId = createUser("groupcommitmissing");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+
+        try {
+            // When
+            Future<Response> valid = callers.submit(() ->
+                    post(BASE_PATH, Map.of("userId", userId, "trackId", trackId, "rating", 4)));
+            Future<Response> missing = callers.submit(() ->
+                    post(BASE_PATH, Map.of("userId", 999999, "trackId", trackId, "rating", 4)));
+
+            // Then
+            assertThat(valid.get(30, TimeUnit.SECONDS).statusCode(), equalTo(HttpStatus.CREATED.value()));
+            assertThat(missing.get(30, TimeUnit.SECONDS).statusCode(), equalTo(HttpStatus.NOT_FOUND.value()));
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    private Long createUser(String username) {
+        Map<String, Object> userData = Map.of(
+            "username", username,
+            "firstName", "Group",
+            "lastName", "Commit",
+            "email", username + "@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "USA"
+        );
+        return post("/users", userData).jsonPath().getLong("content.id");
+    }
+}
@@ -0,0 +1,155 @@
+package cz.mendelu.ea.domain.favorite;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the planner picks the access path indexes at realistic row counts and prunes
+ * favorite partitions. The rows are inserted and analyzed once for all tests, which only read them.
+ */
+@SpringBootTest
+@ActiveProfiles("test")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class IndexUsageTest {
+
+    private static final int USERS = 20_000;
+    private static final int TRACKS = 1_000;
+    private static final int FAVORITES = 200_000;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    void setUp() {
+        jdbcTemplate.update("""
+                INSERT INTO users (id, username, first_name, last_name, email, date_of_birth, country)
+                SELECT 1000000 + i, 'idx-user-' || i, 'First', 'Last', 'idx-user-' || i || '@example.com',
+                       DATE '1970-01-01' + (i % 15000), 'Country' || (i % 50)
+                FROM generate_series(1, ?) AS i
+                """, USERS);
+        jdbcTemplate.update("""
+                INSERT INTO track (track_id, artists, album_name, track_name, popularity, duration_ms, explicit,
+                                   danceability, energy, key, loudness, mode, speechiness, acousticness,
+                                   instrumentalness, liveness, valence, tempo, time_signature, track_genre)
+                SELECT 'idx-track-' || i, 'Artist', 'Album', 'Track ' || i, 50, 200000, false,
+                       0.5, 0.5, 1, -5.0, 1, 0.1, 0.1, 0.0, 0.1, 0.5, 120.0, 4, 'Genre' || (i % 20)
+                FROM generate_series(1, ?) AS i
+                """, TRACKS);
+        // two years of favorites in insertion order, every 20th one public
+        jdbcTemplate.update("""
+                INSERT INTO favorite (user_id, track_id, created_at, rating, comment, is_public, last_played)
+                SELECT 1000001 + (i % ?), 'idx-track-' || (1 + i % ?),
+                       TIMESTAMP '2023-01-01' + i * INTERVAL '5 minutes', 1 + i % 5, NULL, i % 20 = 0,
+                       TIMESTAMP '2023-01-01' + i * INTERVAL '5 minutes'
+                FROM generate_series(1, ?) AS i
+                """, USERS, TRACKS, FAVORITES);
+        jdbcTemplate.update("""
+                UPDATE users u SET favorite_count = f.favorite_count
+                FROM (SELECT user_id, COUNT(*) AS favorite_count FROM favorite GROUP BY user_id) f
+                WHERE u.id = f.user_id AND u.username LIKE 'idx-user-%'
+                """);
+        jdbcTemplate.execute("ANALYZE users");
+        jdbcTemplate.execute("ANALYZE favorite");
+    }
+
+    @AfterAll
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM favorite WHERE track_id LIKE 'idx-track-%'");
+        jdbcTemplate.update("DELETE FROM track WHERE track_id LIKE 'idx-track-%'");
+        jdbcTemplate.update("DELETE FROM users WHERE username LIKE 'idx-user-%'");
+    }
+
+    @Test
+    void favoriteLookups_UseForeignKeyIndexes() {
+        assertUsesIndex("SELECT * FROM favorite WHERE user_id = 1000042", "idx_favorite_user_id_created_at");
+        assertUsesIndex("SELECT * FROM favorite WHERE track_id = 'idx-track-42'", "idx_favorite_track_id");
+    }
+
+    @Test
+    void publicFavorites_UsePartialIndex() {
+        assertUsesIndex("SELECT * FROM favorite WHERE is_public = true", "idx_favorite_public_created_at");
+    }
+
+    @Test
+    void keysetPages_UseCompositeIndexes() {
+        assertUsesIndex("""
+                SELECT * FROM favorite
+                WHERE user_id = 1000042 AND (created_at, id) < (TIMESTAMP '2024-01-01', 1)
+                ORDER BY created_at DESC, id DESC LIMIT 21
+                """, "idx_favorite_user_id_created_at");
+        assertUsesIndex("""
+                SELECT * FROM favorite
+                WHERE is_public AND (created_at, id) < (TIMESTAMP '2023-06-01', 1)
+                ORDER BY created_at DESC, id DESC LIMIT 21
+                """, "idx_favorite_public_created_at");
+    }
+
+    @Test
+    void timeWindows_UseBrinIndexes() {
+        assertUsesIndex("SELECT * FROM favorite WHERE created_at > TIMESTAMP '2024-11-20'", "brin_favorite_created_at");
+        assertUsesIndex("SELECT * FROM favorite WHERE last_played > TIMESTAMP '2024-11-20'", "brin_favorite_last_played");
+    }
+
+    @Test
+    void userLookups_UseLookupIndexes() {
+        assertUsesIndex("SELECT * FROM users WHERE username = 'idx-user-42'", "idx_users_username");
+        assertUsesIndex("SELECT * FROM users WHERE email = 'idx-user-42@example.com'", "idx_users_email");
+        assertUsesIndex("SELECT * FROM users WHERE country = 'Country7'", "idx_users_country_favorite_count");
+    }
+
+    @Test
+    void userRankings_UseFavoriteCountIndexes() {
+        assertUsesIndex("""
+                SELECT * FROM users WHERE country = 'Country7' ORDER BY favorite_count DESC, id DESC LIMIT 5
+                """, "idx_users_country_favorite_count");
+        assertUsesIndex("SELECT * FROM users ORDER BY favorite_count DESC, id DESC LIMIT 5", "idx_users_favorite_count");
+        assertUsesIndex("SELECT * FROM users WHERE favorite_count > 1000", "idx_users_favorite_count");
+    }
+
+    @Test
+    void recentFavorites_ScanOnlyRecentPartitions() {
+        LocalDateTime currentMonth = LocalDate.now().withDayOfMonth(1).atStartOfDay();
+        jdbcTemplate.queryForObject("SELECT create_monthly_partitions('favorite', ?, ?)", Integer.class,
+                currentMonth.minusMonths(3), currentMonth);
+        String oldPartition = "favorite_" + currentMonth.minusMonths(3).format(DateTimeFormatter.ofPattern("yyyyMM"));
+        String currentPartition = "favorite_" + currentMonth.format(DateTimeFormatter.ofPattern("yyyyMM"));
+
+        String plan = String.join("\n", jdbcTemplate.queryForList(
+                "EXPLAIN SELECT * FROM favorite WHERE created_at > TIMESTAMP '" + LocalDate.now().minusDays(7) + "'",
+                String.class));
+
+        assertTrue(plan.contains(currentPartition), plan);
+        assertFalse(plan.contains(oldPartition), plan);
+    }
+
+    // on a partitioned table the plan names the partitions of the index
+    private void assertUsesIndex(String sql, String indexName) {
+        List<String> names = new ArrayList<>(jdbcTemplate.queryForList("""
+                SELECT c.relname
+                FROM pg_inherits i
+                JOIN pg_class c ON c.oid = i.inhrelid
+                JOIN pg_class p ON p.oid = i.inhparent
+                WHERE p.relname = ?
+                """, String.class, indexName));
+        names.add(indexName);
+
+        String plan = String.join("\n", jdbcTemplate.queryForList("EXPLAIN " + sql, String.class));
+        assertTrue(names.stream().anyMatch(plan::contains),
+                () -> "Expected " + indexName + " in plan of " + sql + ":\n" + plan);
+    }
+}
@@ -0,0 +1,111 @@
+package cz.mendelu.ea.domain.favorite;
+
+import cz.mendelu.ea.BaseIntegrationTest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class PartitionManagerIntegrationTest extends BaseIntegrationTest {
+
+    @Autowired
+    private PartitionRepository partitionRepository;
+
+    @Autowired
+    private FavoriteJdbcRepository favoriteJdbcRepository;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void createPartitions_RowsInDefaultPartition_AreMovedIntoNewPartition() {
+        // Given
+        long favoriteId = createFavorite("defaultpartitionuser");
+        // no partition covers that month, so the row moves into the default partition
+        jdbcTemplate.update("UPDATE favorite SET created_at = ? WHERE id = ?", LocalDateTime.of(2002, 3, 15, 12, 0), favoriteId);
+        assertThat(count("favorite_default", favoriteId), equalTo(1L));
+
+        // When
+        LocalDateTime month = LocalDateTime.of(2002, 3, 1, 0, 0);
+        int created = partitionRepository.createPartitions("favorite", month, month);
+
+        // Then
+        assertThat(created, equalTo(1));
+        assertThat(count("favorite_default", favoriteId), equalTo(0L));
+        assertThat(count("favorite_200203", favoriteId), equalTo(1L));
+        get("/favorites/" + favoriteId).then()
+                .statusCode(HttpStatus.OK.value());
+    }
+
+    @Test
+    void maintainPartitions_FavoriteRetention_DropsDetachedFavoritesFromCounters() {
+        // Given
+        long favoriteId = createFavorite("retentionuser");
+        Map<String, Object> favorite = jdbcTemplate.queryForMap("SELECT user_id, track_id FROM favorite WHERE id = ?", favoriteId);
+        long userId = ((Number) favorite.get("user_id")).longValue();
+        String trackId = (String) favorite.get("track_id");
+        LocalDateTime month = LocalDateTime.of(2001, 1, 1, 0, 0);
+        partitionRepository.createPartitions("favorite", month, month);
+        jdbcTemplate.update("UPDATE favorite SET created_at = ? WHERE id = ?", month.plusDays(14), favoriteId);
+        long trackFavorites = trackFavoriteCount(trackId);
+        // keeps the months since February 2001, so only the January 2001 partition is detached
+        int retentionMonths = (int) ChronoUnit.MONTHS.between(YearMonth.of(2001, 2), YearMonth.now());
+        PartitionManager partitionManager = new PartitionManager(partitionRepository, favoriteJdbcRepository,
+                eventPublisher, transactionTemplate, 3, 0, retentionMonths);
+
+        try {
+            // When
+            partitionManager.maintainPartitions();
+
+            // Then
+            assertThat(count("favorite_200101", favoriteId), equalTo(1L));
+            get("/favorites/" + favoriteId).then()
+                    .statusCode(HttpStatus.NOT_FOUND.value());
+            get("/users/" + userId).then()
+                    .statusCode(HttpStatus.OK.value())
+                    .body("content.favoriteCount", equalTo(0));
+            assertThat(trackFavoriteCount(trackId), equalTo(trackFavorites - 1));
+        } finally {
+            jdbcTemplate.execute("DROP TABLE IF EXISTS favorite_200101");
+        }
+    }
+
+    private long trackFavoriteCount(String trackId) {
+        return jdbcTemplate.queryForObject("SELECT favorite_count FROM track_stats WHERE track_id = ?", Long.class, trackId);
+    }
+
+    private long count(String table, long favoriteId) {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table + " WHERE id = ?", Long.class, favoriteId);
+    }
+
+    private long createFavorite(String username) {
+        Map<String, Object> userData = Map.of(
+            "username", username,
+            "firstName", "Partition",
+            "lastName", "User",
+            "email", username + "@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "France"
+        );
+        Long userId = post("/users", userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        return post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 4))
+                .jsonPath().getLong("content.id");
+    }
+}
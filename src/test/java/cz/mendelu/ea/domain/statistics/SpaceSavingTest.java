@@ -0,0 +1,51 @@
+package cz.mendelu.ea.domain.statistics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+class SpaceSavingTest {
+
+    @Test
+    void remove_MonitoredKey_KeepsCountAndAddsError() {
+        // Given
+        SpaceSaving summary = new SpaceSaving(2);
+        summary.offer("a", 3);
+
+        // When
+        summary.remove("a");
+
+        // Then
+        assertThat(summary.estimates(), contains(new SpaceSaving.Estimate("a", 3, 1)));
+        assertThat(summary.total(), equalTo(2L));
+    }
+
+    @Test
+    void merge_AfterRemove_KeepsBoundOfUnmonitoredKeys() {
+        // Given
+        SpaceSaving first = new SpaceSaving(2);
+        first.offer("a", 1);
+        first.offer("b", 1);
+        // evicts "a", whose one occurrence is now bounded by the smallest counter
+        first.offer("x", 1);
+        first.remove("b");
+        SpaceSaving second = new SpaceSaving(2);
+        second.offer("a", 5);
+
+        // When
+        Map<String, SpaceSaving.Estimate> merged = SpaceSaving.merge(2, List.of(first, second)).estimates().stream()
+                .collect(Collectors.toMap(SpaceSaving.Estimate::key, Function.identity()));
+
+        // Then
+        // true counts are a = 6, x = 1 and b = 0
+        assertThat(merged.get("a").count(), greaterThanOrEqualTo(6L));
+        assertThat(merged.get("a").count() - 6, lessThanOrEqualTo(merged.get("a").error()));
+        assertThat(merged.get("x").count() - 1, lessThanOrEqualTo(merged.get("x").error()));
+    }
+}
@@ -0,0 +1,171 @@
+package cz.mendelu.ea.domain.statistics;
+
+import cz.mendelu.ea.BaseIntegrationTest;
+import cz.mendelu.ea.domain.favorite.PlayEventBuffer;
+import io.restassured.response.Response;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.context.TestPropertySource;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+// reports are computed on every request, so the tests read their own writes
+@TestPropertySource(properties = "statistics.snapshots.max-staleness-seconds=0")
+class StatisticsControllerIntegrationTest extends BaseIntegrationTest {
+
+    private static final String BASE_PATH = "/statistics";
+
+    @Autowired
+    private PlayEventBuffer playEventBuffer;
+
+    @Test
+    void getTrending_ServesSnapshotWithItsAge() {
+        // Given
+        LocalDateTime before = LocalDateTime.now().withNano(0);
+
+        // When
+        Response response = get(BASE_PATH + "/trending");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.emergingGenres", notNullValue())
+                .body("ageSeconds", greaterThanOrEqualTo(0));
+        LocalDateTime computedAt = LocalDateTime.parse(response.jsonPath().getString("computedAt"));
+        assertThat(computedAt, greaterThanOrEqualTo(before));
+    }
+
+    @Test
+    void getTrending_AfterPlays_CountsThemInWindows() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "trendinguser",
+            "firstName", "Trending",
+            "lastName", "User",
+            "email", "trending@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "Tonga"
+        );
+        Long userId = post("/users", userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        long favoriteId = post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 3))
+                .jsonPath().getLong("content.id");
+
+        // When
+        post("/favorites/" + favoriteId + "/play", Map.of());
+        post("/favorites/" + favoriteId + "/play", Map.of());
+        playEventBuffer.flush();
+        Response response = get(BASE_PATH + "/trending");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.userActivityByCountry.Tonga", equalTo(2))
+                .body("content.recentlyPopularTracks.id", hasItem(trackId));
+    }
+
+    @Test
+    void getTrending_AfterFavoriteDeleted_DropsItsPlays() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "deletedplaysuser",
+            "firstName", "Deleted",
+            "lastName", "Plays",
+            "email", "deletedplays@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "Palau"
+        );
+        Long userId = post("/users", userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[2].trackId");
+        long favoriteId = post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 2))
+                .jsonPath().getLong("content.id");
+        post("/favorites/" + favoriteId + "/play", Map.of());
+        playEventBuffer.flush();
+
+        // When
+        delete("/favorites/" + favoriteId);
+        Response response = get(BASE_PATH + "/trending");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.userActivityByCountry.Palau", nullValue());
+    }
+
+    @Test
+    void getTrending_Approximate_NeverUndercountsPlays() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "approximateuser",
+            "firstName", "Approximate",
+            "lastName", "User",
+            "email", "approximate@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "Tuvalu"
+        );
+        Long userId = post("/users", userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[1].trackId");
+        long favoriteId = post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 4))
+                .jsonPath().getLong("content.id");
+
+        // When
+        for (int i = 0; i < 3; i++) {
+            post("/favorites/" + favoriteId + "/play", Map.of());
+        }
+        playEventBuffer.flush();
+        Response response = get(BASE_PATH + "/trending?approximate=true&limit=1000");
+
+        // Then
+        String track = "content.recentlyPopularTracks.find { it.id == '" + trackId + "' }";
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body(track + ".count", greaterThanOrEqualTo(3))
+                .body(track + ".countError", greaterThanOrEqualTo(0))
+                .body("content.userActivityByCountry.Tuvalu", equalTo(3));
+    }
+
+    @Test
+    void getTrackPopularity_ApproximateWithInvalidLimit_ReturnsBadRequest() {
+        // When
+        Response response = get(BASE_PATH + "/track-popularity?approximate=true&limit=0");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.BAD_REQUEST.value());
+    }
+
+    @Test
+    void getUserEngagement_AfterFavoriteWrites_RanksUserFromLeaderboard() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "leaderboarduser",
+            "firstName", "Leader",
+            "lastName", "Board",
+            "email", "leaderboard@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "Faroe Islands"
+        );
+        Long userId = post("/users", userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        long deletedId = 0;
+        for (int i = 1; i <= 21; i++) {
+            deletedId = post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 1 + i % 5))
+                    .jsonPath().getLong("content.id");
+        }
+
+        // When
+        delete("/favorites/" + deletedId);
+        Response response = get(BASE_PATH + "/user-engagement");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.mostActiveUsers[0].id", equalTo(userId.intValue()))
+                .body("content.mostActiveUsers[0].favoriteCount", equalTo(20));
+    }
+}
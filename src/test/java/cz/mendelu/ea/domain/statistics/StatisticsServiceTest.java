@@ -1,12 +1,15 @@
 package cz.mendelu.ea.domain.statistics;
 
+import cz.mendelu.ea.domain.favorite.Favorite;
 import cz.mendelu.ea.domain.favorite.FavoriteService;
+import cz.mendelu.ea.domain.favorite.TrackStatsUpdater;
 import cz.mendelu.ea.domain.statistics.dto.TrendingStatsDTO;
 import cz.mendelu.ea.domain.track.TrackService;
 import cz.mendelu.ea.domain.user.UserService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.jdbc.Sql;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -24,6 +27,15 @@ class StatisticsServiceTest {
     @Autowired
     private StatisticsService statisticsService;
 
+    @Autowired
+    private FavoriteService favoriteService;
+
+    @Autowired
+    private TrackStatsUpdater trackStatsUpdater;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     @Test
     @Transactional
     void getUserEngagement_ReturnsCorrectMetrics() {
@@ -90,6 +102,37 @@ class StatisticsServiceTest {
         assertTrue(featureCorrelations.containsKey("Electronic"));
     }
 
+    @Test
+    void getTrackPopularity_FollowsFavoriteWrites() {
+        // When
+        Favorite favorite = favoriteService.createFavorite(1L, "track4", 2, null, true);
+        favoriteService.updateFavorite(favorite.getId(), 5, null, null);
+
+        // Then
+        assertEquals(2L, favoriteCount("track4"));
+        assertEquals(4.5, averageRatingByGenre().get("Classical"), 0.001);
+
+        // When
+        favoriteService.deleteFavorite(favorite.getId());
+
+        // Then
+        assertEquals(1L, favoriteCount("track4"));
+        assertEquals(4.0, averageRatingByGenre().get("Classical"), 0.001);
+    }
+
+    @Test
+    void reconcile_RepairsDriftedTrackStats() {
+        // Given
+        jdbcTemplate.update("UPDATE track_stats SET favorite_count = 42, rating_sum = 0 WHERE track_id = 'track4'");
+
+        // When
+        trackStatsUpdater.reconcile();
+
+        // Then
+        assertEquals(1L, favoriteCount("track4"));
+        assertEquals(4.0, averageRatingByGenre().get("Classical"), 0.001);
+    }
+
     @Test
     @Transactional
     void getUserPreferences_ReturnsCorrectMetrics() {
@@ -190,4 +233,20 @@ class StatisticsServiceTest {
         assertNotNull(weeklyPatterns);
         assertFalse(weeklyPatterns.isEmpty());
     }
-} 
\ No newline at end of file
+
+    @SuppressWarnings("unchecked")
+    private long favoriteCount(String trackId) {
+        List<TrendingStatsDTO.TrackWithCount> mostFavoritedTracks =
+            (List<TrendingStatsDTO.TrackWithCount>) statisticsService.getTrackPopularity().get("mostFavoritedTracks");
+        return mostFavoritedTracks.stream()
+                .filter(track -> track.getId().equals(trackId))
+                .findFirst()
+                .orElseThrow()
+                .getCount();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Double> averageRatingByGenre() {
+        return (Map<String, Double>) statisticsService.getTrackPopularity().get("averageRatingByGenre");
+    }
+}
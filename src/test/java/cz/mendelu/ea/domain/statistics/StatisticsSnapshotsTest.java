@@ -0,0 +1,84 @@
+package cz.mendelu.ea.domain.statistics;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class StatisticsSnapshotsTest {
+
+    @Test
+    void get_StaleSnapshot_IsServedWhileOneRefreshRuns() throws Exception {
+        // Given
+        StatisticsService statisticsService = mock(StatisticsService.class);
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch refreshing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(statisticsService.getUserEngagement()).thenAnswer(invocation -> {
+            int computation = computations.incrementAndGet();
+            if (computation > 1) {
+                refreshing.countDown();
+                release.await();
+            }
+            Map<String, Object> result = new HashMap<>();
+            result.put("computation", computation);
+            return result;
+        });
+        // every snapshot is stale right away, but may be served for ten minutes
+        StatisticsSnapshots snapshots = new StatisticsSnapshots(statisticsService, new MockEnvironment(), 30, 600, 0);
+        try {
+            StatisticsSnapshots.Snapshot<Map<String, Object>> first = snapshots.getUserEngagement();
+
+            // When
+            List<StatisticsSnapshots.Snapshot<Map<String, Object>>> served = List.of(
+                    snapshots.getUserEngagement(), snapshots.getUserEngagement(), snapshots.getUserEngagement());
+
+            // Then
+            assertThat(served, everyItem(sameInstance(first)));
+            assertThat(refreshing.await(10, TimeUnit.SECONDS), is(true));
+            assertThat(computations.get(), equalTo(2));
+
+            release.countDown();
+            await().atMost(Duration.ofSeconds(10)).untilAsserted(() ->
+                    assertThat((Integer) snapshots.getUserEngagement().content().get("computation"), greaterThanOrEqualTo(2)));
+        } finally {
+            release.countDown();
+            snapshots.stopRefreshes();
+        }
+    }
+
+    @Test
+    void get_Snapshot_IsUnmodifiable() {
+        // Given
+        StatisticsService statisticsService = mock(StatisticsService.class);
+        Map<String, Object> result = new HashMap<>();
+        result.put("genres", new HashMap<>(Map.of("pop", 1L)));
+        when(statisticsService.getTrackPopularity()).thenReturn(result);
+        StatisticsSnapshots snapshots = new StatisticsSnapshots(statisticsService, new MockEnvironment(), 30, 600, 1000);
+        try {
+            // When
+            Map<String, Object> content = snapshots.getTrackPopularity().content();
+
+            // Then
+            assertThrows(UnsupportedOperationException.class, () -> content.put("genres", Map.of()));
+            @SuppressWarnings("unchecked")
+            Map<String, Long> genres = (Map<String, Long>) content.get("genres");
+            assertThrows(UnsupportedOperationException.class, () -> genres.put("rock", 2L));
+        } finally {
+            snapshots.stopRefreshes();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package cz.mendelu.ea.domain.statistics;
+
+import cz.mendelu.ea.domain.favorite.PlayEventBuffer;
+import cz.mendelu.ea.domain.favorite.PlaysRecordedEvent;
+import cz.mendelu.ea.domain.favorite.RecordedPlay;
+import org.junit.jupiter.api.Test;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TrendingCountersTest {
+
+    @Test
+    void load_FlushesCommittedDuringLoad_AreCountedOnce() {
+        // Given
+        PlayStatisticsRepository repository = mock(PlayStatisticsRepository.class);
+        PlayEventBuffer playEventBuffer = mock(PlayEventBuffer.class);
+        TrendingCounters counters = new TrendingCounters(repository, playEventBuffer, mock(PlatformTransactionManager.class));
+        LocalDateTime hour = LocalDateTime.now().truncatedTo(ChronoUnit.HOURS);
+        // the snapshot of the load sees the first flush, but not the second
+        when(playEventBuffer.lastFlushBefore(any())).thenReturn(1L);
+        doAnswer(invocation -> {
+            counters.onPlaysRecorded(new PlaysRecordedEvent(1, List.of(play("seen", hour))));
+            counters.onPlaysRecorded(new PlaysRecordedEvent(2, List.of(play("unseen", hour))));
+            PlayStatisticsRepository.HourlyPlayCountHandler handler = invocation.getArgument(1);
+            handler.accept(hour, "seen", "pop", "France", 1);
+            return null;
+        }).when(repository).forEachHourlyPlayCount(any(), any());
+
+        // When
+        counters.load();
+
+        // Then
+        Map<String, Long> playsByTrack = counters.getCounts().orElseThrow().playsByTrack();
+        assertThat(playsByTrack, equalTo(Map.of("seen", 1L, "unseen", 1L)));
+    }
+
+    private static RecordedPlay play(String trackId, LocalDateTime playedAt) {
+        return new RecordedPlay(trackId, "pop", "France", playedAt.plusMinutes(1));
+    }
+}
@@ -1,12 +1,21 @@
 package cz.mendelu.ea.domain.user;
 
 import cz.mendelu.ea.BaseIntegrationTest;
+import cz.mendelu.ea.domain.user.UserStatsRepository.VersionedCount;
 import io.restassured.response.Response;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
+import static io.restassured.RestAssured.given;
+import static org.awaitility.Awaitility.await;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.*;
 
@@ -14,6 +23,15 @@ class UserControllerIntegrationTest extends BaseIntegrationTest {
 
     private static final String BASE_PATH = "/users";
 
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private UserFavoriteCountUpdater favoriteCountUpdater;
+
+    @Autowired
+    private UserLeaderboard leaderboard;
+
     @Test
     void createUser_ValidData_ReturnsCreatedUser() {
         // Given
@@ -188,4 +206,662 @@ class UserControllerIntegrationTest extends BaseIntegrationTest {
         response.then()
                 .statusCode(HttpStatus.NOT_FOUND.value());
     }
-} 
\ No newline at end of file
+
+    @Test
+    void getUserFavorites_PagesThroughLibraryWithCursor() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "libraryuser1",
+            "firstName", "Library",
+            "lastName", "User",
+            "email", "library1@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "USA"
+        );
+        Long userId = post(BASE_PATH, userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        for (int rating = 1; rating <= 3; rating++) {
+            post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", rating));
+        }
+
+        // When
+        Response firstPage = get(BASE_PATH + "/" + userId + "/favorites?limit=2");
+        String cursor = firstPage.jsonPath().getString("nextCursor");
+        Response secondPage = get(BASE_PATH + "/" + userId + "/favorites?limit=2&cursor=" + cursor);
+
+        // Then
+        firstPage.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("count", equalTo(2))
+                .body("items.rating", contains(3, 2))
+                .body("items[0].userId", equalTo(userId.intValue()))
+                .body("items[0].trackId", equalTo(trackId))
+                .body("nextCursor", notNullValue());
+        secondPage.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("count", equalTo(1))
+                .body("items.rating", contains(1))
+                .body("nextCursor", nullValue());
+    }
+
+    @Test
+    void getUserFavorites_NonExistingUser_ReturnsNotFound() {
+        // When
+        Response response = get(BASE_PATH + "/999999/favorites");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.NOT_FOUND.value());
+    }
+
+    @Test
+    void getUserFavorites_InvalidCursor_ReturnsBadRequest() {
+        // When
+        Response response = get(BASE_PATH + "/1/favorites?cursor=not-a-cursor");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.BAD_REQUEST.value());
+    }
+
+    @Test
+    void getUserFavorites_AfterWrites_ReadsOwnWrites() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "libraryuser2",
+            "firstName", "Library",
+            "lastName", "User",
+            "email", "library2@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "UK"
+        );
+        Long userId = post(BASE_PATH, userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        long keptId = post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 2))
+                .jsonPath().getLong("content.id");
+        get(BASE_PATH + "/" + userId + "/favorites").then()
+                .statusCode(HttpStatus.OK.value())
+                .body("count", equalTo(1));
+
+        // When
+        long deletedId = post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 3))
+                .jsonPath().getLong("content.id");
+        put("/favorites/" + keptId, Map.of("rating", 5));
+        String lastPlayed = get(BASE_PATH + "/" + userId + "/favorites").jsonPath().getString("items[1].lastPlayed");
+        post("/favorites/" + keptId + "/play", Map.of());
+        delete("/favorites/" + deletedId);
+
+        // Then
+        get(BASE_PATH + "/" + userId + "/favorites").then()
+                .statusCode(HttpStatus.OK.value())
+                .body("count", equalTo(1))
+                .body("items[0].id", equalTo((int) keptId))
+                .body("items[0].rating", equalTo(5))
+                .body("items[0].lastPlayed", not(equalTo(lastPlayed)));
+    }
+
+    @Test
+    void getUserFavoriteChanges_ReturnsChangesSinceVersion() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "syncuser",
+            "firstName", "Sync",
+            "lastName", "User",
+            "email", "sync@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "UK"
+        );
+        Long userId = post(BASE_PATH, userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        long keptId = post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 2))
+                .jsonPath().getLong("content.id");
+        long deletedId = post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 3))
+                .jsonPath().getLong("content.id");
+        Response initial = get(BASE_PATH + "/" + userId + "/favorites/changes");
+        initial.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.reset", equalTo(true))
+                .body("content.changes.size()", equalTo(2))
+                .body("content.hasMore", equalTo(false));
+        long since = initial.jsonPath().getLong("content.nextSince");
+
+        // When
+        put("/favorites/" + keptId, Map.of("rating", 5));
+        delete("/favorites/" + deletedId);
+        Response response = get(BASE_PATH + "/" + userId + "/favorites/changes?since=" + since + "&limit=1");
+        Response rest = get(BASE_PATH + "/" + userId + "/favorites/changes?since="
+                + response.jsonPath().getLong("content.nextSince"));
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.reset", equalTo(false))
+                .body("content.changes.size()", equalTo(1))
+                .body("content.changes[0].favoriteId", equalTo((int) keptId))
+                .body("content.changes[0].rating", equalTo(5))
+                .body("content.hasMore", equalTo(true));
+        rest.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.changes.size()", equalTo(1))
+                .body("content.changes[0].favoriteId", equalTo((int) deletedId))
+                .body("content.changes[0].deleted", equalTo(true))
+                .body("content.hasMore", equalTo(false))
+                .body("content.nextSince", equalTo((int) since + 2));
+    }
+
+    @Test
+    void getUserFavoriteChanges_UnknownVersion_ResetsWithWholeLibrary() {
+        // When
+        Response response = get(BASE_PATH + "/1/favorites/changes?since=1000000");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.reset", equalTo(true))
+                .body("content.changes.size()", equalTo(3))
+                .body("content.changes.deleted", everyItem(equalTo(false)));
+    }
+
+    @Test
+    void getUserFavoriteChanges_UnknownVersion_ResetsWithoutTombstones() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "syncuser2",
+            "firstName", "Sync",
+            "lastName", "User",
+            "email", "sync2@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "UK"
+        );
+        Long userId = post(BASE_PATH, userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        long keptId = post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 4))
+                .jsonPath().getLong("content.id");
+        long deletedId = post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 1))
+                .jsonPath().getLong("content.id");
+        delete("/favorites/" + deletedId);
+
+        // When
+        Response response = get(BASE_PATH + "/" + userId + "/favorites/changes?since=1000000");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.reset", equalTo(true))
+                .body("content.changes.size()", equalTo(1))
+                .body("content.changes[0].favoriteId", equalTo((int) keptId))
+                .body("content.changes[0].deleted", equalTo(false))
+                .body("content.nextSince", equalTo(3));
+    }
+
+    @Test
+    void getUserFavoriteChanges_ResetLargerThanLimit_IsPagedWithCursor() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "syncuser3",
+            "firstName", "Sync",
+            "lastName", "User",
+            "email", "sync3@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "UK"
+        );
+        Long userId = post(BASE_PATH, userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        for (int rating = 1; rating <= 3; rating++) {
+            post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", rating));
+        }
+
+        // When
+        Response first = get(BASE_PATH + "/" + userId + "/favorites/changes?limit=2");
+        Response rest = get(BASE_PATH + "/" + userId + "/favorites/changes?limit=2&cursor="
+                + first.jsonPath().getString("content.nextCursor"));
+
+        // Then
+        first.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.reset", equalTo(true))
+                .body("content.changes.size()", equalTo(2))
+                .body("content.changes.rating", contains(1, 2))
+                .body("content.hasMore", equalTo(true))
+                .body("content.nextSince", equalTo(3));
+        rest.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.reset", equalTo(true))
+                .body("content.changes.size()", equalTo(1))
+                .body("content.changes[0].rating", equalTo(3))
+                .body("content.hasMore", equalTo(false))
+                .body("content.nextCursor", nullValue())
+                .body("content.nextSince", equalTo(3));
+    }
+
+    @Test
+    void getUserFavoriteChanges_InvalidCursor_ReturnsBadRequest() {
+        // When
+        Response response = get(BASE_PATH + "/1/favorites/changes?cursor=not-a-cursor");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.BAD_REQUEST.value());
+    }
+
+    @Test
+    void getDemographics_ReturnsAggregatesOfAllUsers() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "demographicsuser",
+            "firstName", "Demo",
+            "lastName", "Graphics",
+            "email", "demographics@example.com",
+            "dateOfBirth", "1970-06-01",
+            "country", "Iceland"
+        );
+        Long userId = post(BASE_PATH, userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        for (int rating = 1; rating <= 2; rating++) {
+            post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", rating));
+        }
+
+        // When
+        Response response = get(BASE_PATH + "/demographics");
+
+        // Then
+        int age = LocalDate.now().getYear() - 1970;
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.countByCountry.Iceland", greaterThanOrEqualTo(1))
+                .body("content.countByAge.'" + age + "'", greaterThanOrEqualTo(1))
+                .body("content.averageAgeByCountry.Iceland", equalTo((float) age))
+                .body("content.averageFavoritesByCountry.Iceland", equalTo(2.0f));
+    }
+
+    @Test
+    void getDemographics_UsersWithoutFavorites_CountInAverages() {
+        // Given
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        for (int i = 0; i < 2; i++) {
+            Map<String, Object> userData = Map.of(
+                "username", "demographicsuser" + (i + 2),
+                "firstName", "Demo",
+                "lastName", "Graphics",
+                "email", "demographics" + (i + 2) + "@example.com",
+                "dateOfBirth", (1980 + i * 10) + "-06-01",
+                "country", "Kiribati"
+            );
+            Long userId = post(BASE_PATH, userData).jsonPath().getLong("content.id");
+            if (i == 0) {
+                post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 3));
+                post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 4));
+            }
+        }
+
+        // When
+        Response response = get(BASE_PATH + "/demographics");
+
+        // Then
+        int averageAge = LocalDate.now().getYear() - 1985;
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.countByCountry.Kiribati", equalTo(2))
+                .body("content.averageAgeByCountry.Kiribati", equalTo((float) averageAge))
+                .body("content.averageFavoritesByCountry.Kiribati", equalTo(1.0f));
+    }
+
+    @Test
+    void getUserById_AfterFavoriteWrites_ReturnsFavoriteCount() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "countuser",
+            "firstName", "Count",
+            "lastName", "User",
+            "email", "count@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "UK"
+        );
+        Long userId = post(BASE_PATH, userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 4));
+        long deletedId = post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 1))
+                .jsonPath().getLong("content.id");
+
+        // When
+        delete("/favorites/" + deletedId);
+        Response response = get(BASE_PATH + "/" + userId);
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.favoriteCount", equalTo(1));
+    }
+
+    @Test
+    void getUserById_FromCache_EmbedsCurrentFavorites() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "cachedfavoritesuser",
+            "firstName", "Cached",
+            "lastName", "Favorites",
+            "email", "cachedfavorites@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "UK"
+        );
+        Long userId = post(BASE_PATH, userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 4));
+        get(BASE_PATH + "/" + userId);
+        long hits = get(BASE_PATH + "/cache").jsonPath().getLong("content.hits");
+
+        // When
+        post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 5));
+        Response response = get(BASE_PATH + "/" + userId);
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.favoriteCount", equalTo(2))
+                .body("content.favorites.rating", containsInAnyOrder(4, 5));
+        get(BASE_PATH + "/cache").then()
+                .body("content.hits", equalTo((int) hits + 1));
+    }
+
+    @Test
+    void reconcile_RepairsDriftedFavoriteCounts() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "reconcileuser",
+            "firstName", "Reconcile",
+            "lastName", "User",
+            "email", "reconcile@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "UK"
+        );
+        Long userId = post(BASE_PATH, userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", 4));
+        jdbcTemplate.update("UPDATE users SET favorite_count = 42 WHERE id = ?", userId);
+
+        // When
+        favoriteCountUpdater.reconcile();
+
+        // Then
+        assertThat(jdbcTemplate.queryForObject("SELECT favorite_count FROM users WHERE id = ?", Integer.class, userId),
+                equalTo(1));
+    }
+
+    @Test
+    void leaderboard_FavoriteCountOutOfOrder_KeepsNewerCount() {
+        // Given
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        List<Long> userIds = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            Map<String, Object> userData = Map.of(
+                "username", "leaderboarduser" + i,
+                "firstName", "Leader",
+                "lastName", "Board",
+                "email", "leaderboard" + i + "@example.com",
+                "dateOfBirth", "1990-01-01",
+                "country", "Nauru"
+            );
+            userIds.add(post(BASE_PATH, userData).jsonPath().getLong("content.id"));
+        }
+        for (int rating = 1; rating <= 2; rating++) {
+            post("/favorites", Map.of("userId", userIds.get(0), "trackId", trackId, "rating", rating));
+        }
+        post("/favorites", Map.of("userId", userIds.get(1), "trackId", trackId, "rating", 3));
+
+        // When
+        // the count after the first favorite of the first user, delivered after the second one
+        leaderboard.onFavoriteCountsChanged(new FavoriteCountsChangedEvent(
+                Map.of(userIds.get(0), new VersionedCount(1, 1))));
+
+        // Then
+        assertThat(leaderboard.getTopUserIdsByCountry(2).get("Nauru"), contains(userIds.get(0), userIds.get(1)));
+    }
+
+    @Test
+    void getUserById_AfterUpdate_ReturnsUpdatedUserFromCache() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "cacheduser",
+            "firstName", "Cached",
+            "lastName", "User",
+            "email", "cached@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "UK"
+        );
+        Long userId = post(BASE_PATH, userData).jsonPath().getLong("content.id");
+        get(BASE_PATH + "/" + userId);
+        long hits = get(BASE_PATH + "/cache").jsonPath().getLong("content.hits");
+
+        // When
+        Response cached = get(BASE_PATH + "/" + userId);
+        put(BASE_PATH + "/" + userId, Map.of(
+            "username", "cacheduser2",
+            "firstName", "Cached",
+            "lastName", "User",
+            "email", "cached2@example.com",
+            "country", "UK"
+        ));
+        Response updated = get(BASE_PATH + "/" + userId);
+
+        // Then
+        cached.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.username", equalTo("cacheduser"));
+        updated.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.username", equalTo("cacheduser2"))
+                .body("content.email", equalTo("cached2@example.com"))
+                .body("content.dateOfBirth", equalTo("1990-01-01"));
+        get(BASE_PATH + "/cache").then()
+                .body("content.hits", greaterThan((int) hits));
+    }
+
+    @Test
+    void deleteUserAsync_UserWithFavorites_DeletesUserAndFavorites() {
+        // Given
+        Map<String, Object> userData = Map.of(
+            "username", "asyncdeleteuser",
+            "firstName", "Async",
+            "lastName", "Delete",
+            "email", "asyncdelete@example.com",
+            "dateOfBirth", "1990-01-01",
+            "country", "UK"
+        );
+        Long userId = post(BASE_PATH, userData).jsonPath().getLong("content.id");
+        String trackId = get("/tracks").jsonPath().getString("items[0].trackId");
+        List<Long> favoriteIds = new ArrayList<>();
+        for (int rating = 1; rating <= 5; rating++) {
+            favoriteIds.add(post("/favorites", Map.of("userId", userId, "trackId", trackId, "rating", rating))
+                    .jsonPath().getLong("content.id"));
+        }
+
+        // When
+        Response response = delete(BASE_PATH + "/" + userId + "?async=true");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.ACCEPTED.value())
+                .body("content.userId", equalTo(userId.intValue()))
+                .body("content.jobId", notNullValue());
+        String jobId = response.jsonPath().getString("content.jobId");
+        await().atMost(Duration.ofSeconds(10)).untilAsserted(() -> get(BASE_PATH + "/deletions/" + jobId).then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.status", equalTo("COMPLETED"))
+                .body("content.deletedFavorites", equalTo(5))
+                .body("content.finishedAt", notNullValue()));
+        get(BASE_PATH + "/" + userId).then()
+                .statusCode(HttpStatus.NOT_FOUND.value());
+        for (Long favoriteId : favoriteIds) {
+            get("/favorites/" + favoriteId).then()
+                    .statusCode(HttpStatus.NOT_FOUND.value());
+        }
+    }
+
+    @Test
+    void getDeletion_UnknownJob_ReturnsNotFound() {
+        // When
+        Response response = get(BASE_PATH + "/deletions/unknown");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.NOT_FOUND.value());
+    }
+
+    @Test
+    void importUsers_Ndjson_ImportsValidRowsAndReportsInvalidOnes() {
+        // Given
+        String body = """
+                {"username": "ndjson1", "firstName": "Nd", "lastName": "Json", "email": "ndjson1@example.com", "dateOfBirth": "1990-01-01", "country": "USA"}
+                {"username": "ndjson2", "firstName": "Nd", "lastName": "Json", "dateOfBirth": "1990-01-01", "country": "USA"}
+                {"username": "ndjson3",
+
+                {"username": "ndjson4", "firstName": "Nd", "lastName": "Json", "email": "ndjson4@example.com", "dateOfBirth": "1991-02-03", "country": "UK"}
+                """;
+
+        // When
+        Response response = given()
+                .contentType("application/x-ndjson")
+                .body(body)
+                .when()
+                .post(BASE_PATH + "/import");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.imported", equalTo(2))
+                .body("content.rejected", equalTo(2))
+                .body("content.errors.line", contains(2, 3))
+                .body("content.errors[0].error", equalTo("Email is required"));
+        get(BASE_PATH).then()
+                .body("items.username", hasItems("ndjson1", "ndjson4"))
+                .body("items.username", not(hasItem("ndjson2")));
+    }
+
+    @Test
+    void importUsers_RowFailingInDatabase_RetriesWithReservedIds() {
+        // Given
+        String tooLong = "x".repeat(300);
+        String body = """
+                {"username": "retry1", "firstName": "Re", "lastName": "Try", "email": "retry1@example.com", "dateOfBirth": "1990-01-01", "country": "USA"}
+                {"username": "%s", "firstName": "Re", "lastName": "Try", "email": "retry2@example.com", "dateOfBirth": "1990-01-01", "country": "USA"}
+                {"username": "retry3", "firstName": "Re", "lastName": "Try", "email": "retry3@example.com", "dateOfBirth": "1990-01-01", "country": "USA"}
+                """.formatted(tooLong);
+        long sequenceBefore = jdbcTemplate.queryForObject("SELECT nextval('users_seq')", Long.class);
+
+        // When
+        Response response = given()
+                .contentType("application/x-ndjson")
+                .body(body)
+                .when()
+                .post(BASE_PATH + "/import");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.imported", equalTo(2))
+                .body("content.rejected", equalTo(1))
+                .body("content.errors.line", contains(2));
+        // one block for the chunk, none for the retries
+        long increment = jdbcTemplate.queryForObject(
+                "SELECT increment_by FROM pg_sequences WHERE sequencename = 'users_seq'", Long.class);
+        assertThat(jdbcTemplate.queryForObject("SELECT last_value FROM users_seq", Long.class),
+                equalTo(sequenceBefore + increment));
+    }
+
+    @Test
+    void importUsers_Csv_ImportsValidRowsAndReportsInvalidOnes() {
+        // Given
+        String body = """
+                username,firstName,lastName,email,dateOfBirth,country
+                csv1,Comma,Separated,csv1@example.com,1990-01-01,USA
+                csv2,Comma,Separated,csv2@example.com,not-a-date,USA
+                csv3,Comma,Separated,not-an-email,1990-01-01,USA
+                """;
+
+        // When
+        Response response = given()
+                .contentType("text/csv")
+                .body(body)
+                .when()
+                .post(BASE_PATH + "/import");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.imported", equalTo(1))
+                .body("content.rejected", equalTo(2))
+                .body("content.errors.line", contains(3, 4))
+                .body("content.errors[1].error", equalTo("Invalid email format"));
+    }
+
+    @Test
+    void importUsers_CsvWithoutRequiredColumns_ReturnsBadRequest() {
+        // When
+        Response response = given()
+                .contentType("text/csv")
+                .body("username,email\ncsv,csv@example.com\n")
+                .when()
+                .post(BASE_PATH + "/import");
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.BAD_REQUEST.value());
+    }
+
+    @Test
+    void querySegment_CountryAndGenre_FollowsFavoriteWrites() {
+        // Given
+        List<Long> userIds = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            Map<String, Object> userData = Map.of(
+                "username", "segmentuser" + i,
+                "firstName", "Segment",
+                "lastName", "User",
+                "email", "segment" + i + "@example.com",
+                "dateOfBirth", "2000-01-01",
+                "country", "Greenland"
+            );
+            userIds.add(post(BASE_PATH, userData).jsonPath().getLong("content.id"));
+        }
+        Response tracks = get("/tracks");
+        String trackId = tracks.jsonPath().getString("items[0].trackId");
+        String genre = tracks.jsonPath().getString("items[0].trackGenre");
+        Map<String, Object> withGenre = Map.of("and", List.of(Map.of("country", "Greenland"), Map.of("genre", genre)));
+        Map<String, Object> withoutGenre = Map.of("and", List.of(
+                Map.of("country", "Greenland"),
+                Map.of("age", Map.of("max", LocalDate.now().getYear() - 2000)),
+                Map.of("not", Map.of("genre", genre))));
+        post(BASE_PATH + "/segments", withGenre).then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.count", equalTo(0));
+
+        // When
+        long favoriteId = post("/favorites", Map.of("userId", userIds.get(0), "trackId", trackId, "rating", 5))
+                .jsonPath().getLong("content.id");
+
+        // Then
+        post(BASE_PATH + "/segments", withGenre).then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.count", equalTo(1))
+                .body("content.userIds", contains(userIds.get(0).intValue()));
+        post(BASE_PATH + "/segments", withoutGenre).then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.count", equalTo(1))
+                .body("content.userIds", contains(userIds.get(1).intValue()));
+
+        delete("/favorites/" + favoriteId);
+        post(BASE_PATH + "/segments", withGenre).then()
+                .statusCode(HttpStatus.OK.value())
+                .body("content.count", equalTo(0));
+    }
+
+    @Test
+    void querySegment_SegmentWithTwoConditions_ReturnsBadRequest() {
+        // When
+        Response response = post(BASE_PATH + "/segments", Map.of("country", "Greenland", "genre", "jazz"));
+
+        // Then
+        response.then()
+                .statusCode(HttpStatus.BAD_REQUEST.value());
+    }
+}
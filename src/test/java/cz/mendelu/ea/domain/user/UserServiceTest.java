@@ -0,0 +1,57 @@
+package cz.mendelu.ea.domain.user;
+
+import cz.mendelu.ea.domain.favorite.FavoriteJdbcRepository;
+import cz.mendelu.ea.domain.favorite.UserLibraryCache;
+import cz.mendelu.ea.domain.favorite.dto.FavoriteEntryDTO;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class UserServiceTest {
+
+    private final UserRepository repository = mock(UserRepository.class);
+    private final FavoriteJdbcRepository favoriteJdbcRepository = mock(FavoriteJdbcRepository.class);
+    private final UserService userService = new UserService(repository, mock(UserStatsRepository.class),
+            new UserCache(100), mock(UserImporter.class), mock(UserSegmentIndex.class), mock(UserLeaderboard.class),
+            favoriteJdbcRepository, new UserLibraryCache(100, 10), mock(ApplicationEventPublisher.class),
+            mock(TransactionTemplate.class), mock(TaskExecutor.class), 1000, 60);
+
+    @Test
+    void getUserById_CacheHit_RunsNoSql() {
+        // Given
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("cachehituser");
+        user.setEmail("cachehit@example.com");
+        user.setDateOfBirth(LocalDate.of(1990, 1, 1));
+        user.setCountry("UK");
+        LocalDateTime now = LocalDateTime.now();
+        when(repository.findById(1L)).thenReturn(Optional.of(user));
+        when(favoriteJdbcRepository.findUserPage(eq(1L), any(), anyInt()))
+                .thenReturn(List.of(new FavoriteEntryDTO(10L, 1L, "track", 4, null, true, now, now)));
+        userService.getUserById(1L);
+        clearInvocations(repository, favoriteJdbcRepository);
+
+        // When
+        User cached = userService.getUserById(1L);
+
+        // Then
+        assertThat(cached.getUsername(), equalTo("cachehituser"));
+        assertThat(cached.getFavorites(), hasSize(1));
+        assertThat(cached.getFavorites().get(0).getRating(), equalTo(4));
+        verifyNoInteractions(repository, favoriteJdbcRepository);
+    }
+}
@@ -0,0 +1,145 @@
+package cz.mendelu.ea.utils.batch;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class GroupCommitExecutorTest {
+
+    @Test
+    void submit_ConcurrentCallers_ShareOneCommit() throws Exception {
+        // Given
+        List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try (GroupCommitExecutor<String, String> executor = new GroupCommitExecutor<>("test-group-commit",
+                items -> {
+                    batches.add(items);
+                    return items.stream().map(String::toUpperCase).toList();
+                },
+                Duration.ofSeconds(5), 4, Duration.ofSeconds(10))) {
+
+            // When
+            List<Future<String>> results = new ArrayList<>();
+            for (String item : List.of("a", "b", "c", "d")) {
+                results.add(callers.submit(() -> executor.submit(item)));
+            }
+
+            // Then
+            List<String> committed = new ArrayList<>();
+            for (Future<String> result : results) {
+                committed.add(result.get(10, TimeUnit.SECONDS));
+            }
+            assertThat(committed, contains("A", "B", "C", "D"));
+            assertThat(batches, hasSize(1));
+            assertThat(batches.get(0), containsInAnyOrder("a", "b", "c", "d"));
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void submit_BatchFails_RetriesItemsOneByOne() throws Exception {
+        // Given
+        List<List<String>> batches = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try (GroupCommitExecutor<String, String> executor = new GroupCommitExecutor<>("test-group-commit",
+                items -> {
+                    batches.add(items);
+                    if (items.contains("bad")) {
+                        throw new IllegalArgumentException("bad item");
+                    }
+                    return items;
+                },
+                Duration.ofSeconds(5), 3, Duration.ofSeconds(10))) {
+
+            // When
+            Future<String> first = callers.submit(() -> executor.submit("first"));
+            Future<String> bad = callers.submit(() -> executor.submit("bad"));
+            Future<String> second = callers.submit(() -> executor.submit("second"));
+
+            // Then
+            assertThat(first.get(10, TimeUnit.SECONDS), equalTo("first"));
+            assertThat(second.get(10, TimeUnit.SECONDS), equalTo("second"));
+            Exception failure = assertThrows(Exception.class, () -> bad.get(10, TimeUnit.SECONDS));
+            assertThat(failure.getCause(), instanceOf(IllegalArgumentException.class));
+            // the failed group and one retry per item
+            assertThat(batches, hasSize(4));
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void close_CommitsSubmittedItemsAndRejectsNewOnes() throws Exception {
+        // Given
+        CountDownLatch committing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = Executors.newFixedThreadPool(2);
+        GroupCommitExecutor<String, String> executor = new GroupCommitExecutor<>("test-group-commit",
+                items -> {
+                    committing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return items;
+                },
+                Duration.ZERO, 1, Duration.ofSeconds(10));
+        try {
+            Future<String> submitted = callers.submit(() -> executor.submit("submitted"));
+            assertThat(committing.await(10, TimeUnit.SECONDS), is(true));
+
+            // When
+            Future<?> closed = callers.submit(executor::close);
+            release.countDown();
+            closed.get(10, TimeUnit.SECONDS);
+
+            // Then
+            assertThat(submitted.get(10, TimeUnit.SECONDS), equalTo("submitted"));
+            assertThrows(IllegalStateException.class, () -> executor.submit("late"));
+        } finally {
+            callers.shutdownNow();
+        }
+    }
+
+    @Test
+    void submit_HandlerTooSlow_TimesOut() {
+        // Given
+        CountDownLatch release = new CountDownLatch(1);
+        try (GroupCommitExecutor<String, String> executor = new GroupCommitExecutor<>("test-group-commit",
+                items -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return items;
+                },
+                Duration.ZERO, 1, Duration.ofMillis(200))) {
+
+            try {
+                // When
+                GroupCommitTimeoutException exception =
+                        assertThrows(GroupCommitTimeoutException.class, () -> executor.submit("slow"));
+
+                // Then
+                assertThat(exception.mayBeCommitted(), is(true));
+            } finally {
+                release.countDown();
+            }
+        }
+    }
+}
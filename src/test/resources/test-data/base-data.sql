@@ -37,4 +37,25 @@ VALUES
 -- User 3's favorites
 (3, 'track2', 4, 'Good rock song', true, '2024-01-01 16:00:00', '2024-01-01 16:00:00'),
 (3, 'track3', 5, 'Perfect jazz', true, '2024-01-02 19:00:00', '2024-01-02 19:00:00'),
-(3, 'track5', 3, 'Nice electronic', true, '2024-01-03 21:00:00', '2024-01-03 21:00:00'); 
\ No newline at end of file
+(3, 'track5', 3, 'Nice electronic', true, '2024-01-03 21:00:00', '2024-01-03 21:00:00');
+
+-- Play log mirroring the last plays above
+INSERT INTO play_event (favorite_id, user_id, track_id, played_at)
+SELECT id, user_id, track_id, last_played FROM favorite;
+
+-- Favorite counts of the users above
+UPDATE users u SET favorite_count = (SELECT COUNT(*) FROM favorite f WHERE f.user_id = u.id);
+
+-- Favorite counters of the tracks above
+INSERT INTO track_stats (track_id, favorite_count, rating_sum, rating_count)
+SELECT track_id, COUNT(*), SUM(rating), COUNT(rating) FROM favorite GROUP BY track_id;
+
+-- Change log of the favorites above, versions in order of creation
+INSERT INTO favorite_change (user_id, favorite_id, version, deleted, track_id, rating, comment, is_public,
+                             created_at, last_played, changed_at)
+SELECT user_id, id, ROW_NUMBER() OVER (PARTITION BY user_id ORDER BY created_at, id), false, track_id,
+       rating, comment, is_public, created_at, last_played, now()
+FROM favorite;
+
+INSERT INTO favorite_sync (user_id, version)
+SELECT user_id, MAX(version) FROM favorite_change GROUP BY user_id;
@@ -1,5 +1,7 @@
 -- Delete data from all tables to have a fresh test environment ---
 
+TRUNCATE TABLE play_event;
+TRUNCATE TABLE track_stats;
 TRUNCATE TABLE favorite CASCADE;
 TRUNCATE TABLE track CASCADE;
 TRUNCATE TABLE users CASCADE;